@@ -0,0 +1,38 @@
+package com.example.bankcards.benchmark;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Параметры прогона из системных свойств benchmark.* (например, -Dbenchmark.threads=64).
+ */
+record BenchmarkSettings(
+        int users,
+        int cardsPerUser,
+        int threads,
+        Duration warmup,
+        Duration duration,
+        double skew,
+        List<String> scenarios
+) {
+    static final String LOGIN = "login";
+    static final String USER_CARDS = "user-cards";
+    static final String TRANSFER = "transfer";
+    static final String HOT_TRANSFER = "hot-transfer";
+
+    static BenchmarkSettings fromSystemProperties() {
+        return new BenchmarkSettings(
+                Integer.getInteger("benchmark.users", 200),
+                Integer.getInteger("benchmark.cards-per-user", 2),
+                Integer.getInteger("benchmark.threads", 32),
+                Duration.parse(System.getProperty("benchmark.warmup", "PT5S")),
+                Duration.parse(System.getProperty("benchmark.duration", "PT20S")),
+                Double.parseDouble(System.getProperty("benchmark.skew", "0")),
+                Arrays.stream(System.getProperty("benchmark.scenarios", LOGIN + "," + USER_CARDS + "," + TRANSFER + "," + HOT_TRANSFER).split(","))
+                        .map(String::trim)
+                        .filter(scenario -> !scenario.isEmpty())
+                        .toList()
+        );
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.BankRestCardApplication;
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.service.card.CardService;
+import com.example.bankcards.service.card.CardTransferProcessor;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Порядок блокировок строк на настоящем PostgreSQL: потоки вперемешку выполняют переводы всеми
+ * способами CardTransferProcessor (SELECT ... FOR UPDATE, условные UPDATE, проверка version
+ * и пакет с упорядоченным flush) между одними и теми же картами, одна из которых - горячий получатель.
+ * Половина карт получает id со старшим битом, так что знаковый порядок UUID.compareTo и беззнаковый
+ * порядок uuid в PostgreSQL для них различаются. Взаимоблокировку PostgreSQL обнаруживает сам
+ * и откатывает одну из транзакций - такие откаты и считаются. Пул соединений равен числу потоков,
+ * так что все THREADS транзакций одновременно держат и ждут блокировки строк.
+ * <p>
+ * Запуск: {@code mvn -Pbenchmark test -Dtest=CardTransferLockOrderPostgresTest}.
+ */
+@SpringBootTest(
+        classes = BankRestCardApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "spring.jpa.show-sql=false",
+                "logging.level.root=WARN",
+                // Конфликты версий при flush ожидаемы и считаются в тесте
+                "logging.level.org.hibernate.orm.jdbc.batch=OFF",
+                "spring.datasource.hikari.maximum-pool-size=" + CardTransferLockOrderPostgresTest.THREADS,
+                "cards.transfer.in-memory.journal-dir=target/benchmark/journal"
+        }
+)
+class CardTransferLockOrderPostgresTest {
+    private static final String EMAIL = "lock-order@example.com";
+    private static final int CARDS = 6;
+    private static final int THREADS = 64;
+    private static final int TRANSFERS_PER_THREAD = 50;
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000.00");
+
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+    }
+
+    @AfterAll
+    static void stopPostgres() throws IOException {
+        POSTGRES.close();
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CardTransferProcessor transferProcessor;
+
+    @Autowired
+    private CardService cardService;
+
+    private final AtomicInteger deadlocks = new AtomicInteger();
+
+    @Test
+    void mixedTransfersWithHotRecipient_DoNotDeadlock() throws Exception {
+        List<UUID> ids = seedCards();
+        UUID hotCard = ids.get(0);
+        cardService.updateCardHot(hotCard, true);
+        BigDecimal totalBefore = totalBalance();
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    // С горячей карты не списываем: её balance пополняется только переносом частей
+                    UUID from = ids.get(random.nextInt(1, ids.size()));
+                    UUID to = random.nextInt(3) == 0 ? hotCard : ids.get(random.nextInt(ids.size()));
+                    if (from.equals(to)) {
+                        continue;
+                    }
+                    transfer(random.nextInt(4), new TransferRequest(from, to, BigDecimal.valueOf(random.nextInt(1, 100), 2)));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+
+        assertThat(deadlocks.get()).isZero();
+        assertThat(totalBalance()).isEqualByComparingTo(totalBefore);
+    }
+
+    private void transfer(int method, TransferRequest request) {
+        try {
+            switch (method) {
+                case 0 -> transferProcessor.transferWithRowLocks(EMAIL, request);
+                case 1 -> transferProcessor.transferWithConditionalUpdates(EMAIL, request);
+                case 2 -> transferProcessor.transferWithVersionCheck(EMAIL, request);
+                default -> transferProcessor.transferChunk(EMAIL, List.of(request, reversed(request)), 0);
+            }
+        } catch (PessimisticLockingFailureException e) {
+            deadlocks.incrementAndGet();
+        } catch (OptimisticLockingFailureException | BadRequestException ignored) {
+            // Конфликт версий и отказ горячей карты - ожидаемые исходы под нагрузкой
+        }
+    }
+
+    // Встречный перевод в том же пакете: flush обновляет обе строки в одной транзакции
+    private TransferRequest reversed(TransferRequest request) {
+        return new TransferRequest(request.toCardId(), request.fromCardId(), request.amount());
+    }
+
+    // Половина id - со старшим битом: для них UUID.compareTo и порядок uuid в PostgreSQL расходятся
+    private List<UUID> seedCards() {
+        jdbcTemplate.update("INSERT INTO users (email, phone_number, first_name, last_name, role, password) "
+                + "VALUES (?, '+70009999999', 'Lock', 'Order', 'USER', 'unused')", EMAIL);
+        Date expiration = Date.valueOf(LocalDate.now().plusYears(3));
+        List<UUID> ids = new ArrayList<>(CARDS);
+        for (int i = 0; i < CARDS; i++) {
+            UUID random = UUID.randomUUID();
+            long mostSignificantBits = i % 2 == 0
+                    ? random.getMostSignificantBits() | Long.MIN_VALUE
+                    : random.getMostSignificantBits() & Long.MAX_VALUE;
+            UUID id = new UUID(mostSignificantBits, random.getLeastSignificantBits());
+            jdbcTemplate.update("INSERT INTO cards (id, card_number, expiration_date, balance, status, user_id) "
+                            + "SELECT ?, ?, ?, ?, 'ACTIVE', id FROM users WHERE email = ?",
+                    id, String.format("8%015d", i), expiration, INITIAL_BALANCE, EMAIL);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private BigDecimal totalBalance() {
+        return jdbcTemplate.queryForObject("SELECT (SELECT sum(balance) FROM cards) "
+                + "+ (SELECT coalesce(sum(balance), 0) FROM card_balance_stripes)", BigDecimal.class);
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.builder().start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось запустить встроенный PostgreSQL", e);
+        }
+    }
+}
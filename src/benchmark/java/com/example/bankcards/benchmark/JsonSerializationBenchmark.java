@@ -0,0 +1,165 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.dto.card.CardSliceResponse;
+import com.example.bankcards.dto.card.ResponseDto;
+import com.example.bankcards.dto.user.UserDto;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.entity.user.Role;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Микробенчмарк сериализации ответов со списками карт ({@link CardSliceResponse}) и пользователей
+ * по 10, 100 и 10 000 элементов. ObjectMapper собирается так же, как в Spring Boot: default - без
+ * модулей приложения, tuned - с модулем Blackbird из JacksonConfig. Перед замером печатается размер
+ * ответов без сжатия и в gzip, как их отдаёт сервер при server.compression.enabled.
+ * <p>
+ * Запуск: {@code mvn -Pbenchmark test -Dtest=JsonSerializationBenchmark}. Итоги JMH сохраняются
+ * в target/benchmark/serialization.json.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+    private static final Path RESULTS = Path.of("target", "benchmark", "serialization.json");
+    private static final int[] SIZES = {10, 100, 10_000};
+
+    @Param({"10", "100", "10000"})
+    public int size;
+
+    @Param({"default", "tuned"})
+    public String mapper;
+
+    private ObjectWriter cardsWriter;
+    private ObjectWriter usersWriter;
+    private CardSliceResponse cards;
+    private List<UserDto> users;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = objectMapper("tuned".equals(mapper));
+        cardsWriter = objectMapper.writerFor(CardSliceResponse.class);
+        usersWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, UserDto.class));
+        cards = cards(size);
+        users = users(size);
+    }
+
+    @Benchmark
+    public void cards() throws IOException {
+        cardsWriter.writeValue(OutputStream.nullOutputStream(), cards);
+    }
+
+    @Benchmark
+    public void users() throws IOException {
+        usersWriter.writeValue(OutputStream.nullOutputStream(), users);
+    }
+
+    @Test
+    void run() throws Exception {
+        printPayloadSizes();
+        Files.createDirectories(RESULTS.getParent());
+        new Runner(new OptionsBuilder()
+                .include(JsonSerializationBenchmark.class.getName())
+                .result(RESULTS.toString())
+                .resultFormat(ResultFormatType.JSON)
+                .build()).run();
+    }
+
+    private static void printPayloadSizes() throws IOException {
+        ObjectMapper objectMapper = objectMapper(true);
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT, "%n%-8s %8s %12s %12s %7s%n",
+                "response", "items", "json bytes", "gzip bytes", "ratio"));
+        for (int size : SIZES) {
+            appendPayloadSize(table, "cards", size, objectMapper.writeValueAsBytes(cards(size)));
+            appendPayloadSize(table, "users", size, objectMapper.writeValueAsBytes(users(size)));
+        }
+        System.out.println(table);
+    }
+
+    private static void appendPayloadSize(StringBuilder table, String response, int size, byte[] json) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(json);
+        }
+        table.append(String.format(Locale.ROOT, "%-8s %8d %12d %12d %6.1fx%n",
+                response, size, json.length, compressed.size(), (double) json.length / compressed.size()));
+    }
+
+    private static ObjectMapper objectMapper(boolean tuned) {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if (tuned) {
+            builder.modulesToInstall(new BlackbirdModule());
+        }
+        return builder.build();
+    }
+
+    // Данные со случайными балансами и датами, чтобы gzip не сжимал их лучше, чем реальные ответы
+    private static CardSliceResponse cards(int size) {
+        Random random = new Random(size);
+        List<ResponseDto> content = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            content.add(new ResponseDto(
+                    new UUID(random.nextLong(), random.nextLong()),
+                    String.format("**** **** **** %04d", random.nextInt(10_000)),
+                    "Cardholder " + random.nextInt(1000),
+                    LocalDate.of(2026, 1, 1).plusDays(random.nextInt(2000)),
+                    BigDecimal.valueOf(random.nextInt(10_000_000), 2),
+                    Status.values()[random.nextInt(Status.values().length)]));
+        }
+        return new CardSliceResponse(content, "MjAyNi0xMC0xOFQxMjowMDowMFp8MTIzZTQ1NjctZTg5Yi0xMmQzLWE0NTYtNDI2NjE0MTc0MDAw");
+    }
+
+    private static List<UserDto> users(int size) {
+        Random random = new Random(-size);
+        List<UserDto> users = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String firstName = "First" + random.nextInt(1000);
+            String lastName = "Last" + random.nextInt(1000);
+            users.add(new UserDto(
+                    new UUID(random.nextLong(), random.nextLong()),
+                    "user-" + i + "@example.com",
+                    String.format("+7%010d", random.nextInt(1_000_000_000)),
+                    firstName,
+                    lastName,
+                    Role.USER,
+                    LocalDate.of(1960, 1, 1).plusDays(random.nextInt(15_000)),
+                    firstName + " " + lastName));
+        }
+        return users;
+    }
+}
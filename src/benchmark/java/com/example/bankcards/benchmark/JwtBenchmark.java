@@ -0,0 +1,117 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.entity.user.Role;
+import com.example.bankcards.security.JwtPrincipal;
+import com.example.bankcards.service.auth.JwtService;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Микробенчмарк выпуска и проверки access-токена: JwtService с ключом и парсером, собранными
+ * в init(), против прежней схемы, где ключ декодировался, а парсер собирался на каждый вызов.
+ * authenticateRepeated проверяет один и тот же токен через кэш проверенных токенов, как это
+ * происходит на повторных запросах клиента. Профилировщик GC добавляет к времени объём выделенной
+ * памяти на операцию (gc.alloc.rate.norm).
+ * <p>
+ * Запуск: {@code mvn -Pbenchmark test -Dtest=JwtBenchmark}. Итоги JMH сохраняются
+ * в target/benchmark/jwt.json.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+    private static final Path RESULTS = Path.of("target", "benchmark", "jwt.json");
+    private static final String SECRET = "U3VwZXJTZWNyZXRLZXlGb3JKV1RUb2tlbkdlbmVyYXRpb25JbkJhbmtBcHBsaWNhdGlvbjIwMjQ=";
+    private static final String EMAIL = "benchmark@example.com";
+    private static final String FULL_NAME = "Benchmark User";
+    private static final UUID USER_ID = UUID.randomUUID();
+
+    private JwtService jwtService;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtService = new JwtService(new SimpleMeterRegistry(), 1000);
+        ReflectionTestUtils.setField(jwtService, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtService, "expiration", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(jwtService, "refreshTokenExpiration", TimeUnit.DAYS.toMillis(7));
+        jwtService.init();
+        token = jwtService.generateToken(USER_ID, EMAIL, Role.USER, FULL_NAME);
+    }
+
+    @Benchmark
+    public String issueCached() {
+        return jwtService.generateToken(USER_ID, EMAIL, Role.USER, FULL_NAME);
+    }
+
+    @Benchmark
+    public String issuePerCall() {
+        return Jwts.builder()
+                .setClaims(Map.of("userId", USER_ID, "role", Role.USER, "fullName", FULL_NAME, "type", "access"))
+                .setSubject(EMAIL)
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+                .signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)), SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    @Benchmark
+    public Claims verifyCached() {
+        return jwtService.extractAllClaims(token);
+    }
+
+    @Benchmark
+    public JwtPrincipal authenticateRepeated() {
+        return jwtService.authenticate(token);
+    }
+
+    @Benchmark
+    public Claims verifyPerCall() {
+        return Jwts.parserBuilder()
+                .setSigningKey(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)))
+                .build()
+                .parseClaimsJws(token)
+                .getBody();
+    }
+
+    @Test
+    void run() throws Exception {
+        Files.createDirectories(RESULTS.getParent());
+        new Runner(new OptionsBuilder()
+                .include(JwtBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .result(RESULTS.toString())
+                .resultFormat(ResultFormatType.JSON)
+                .build()).run();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.bankcards.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Задержки операций одного потока нагрузки в наносекундах. Каждый поток пишет в свой экземпляр,
+ * поэтому запись не синхронизируется; после прогона экземпляры объединяются через {@link #merge}.
+ */
+final class LatencyRecorder {
+    private long[] latencies = new long[1 << 14];
+    private int size;
+    private long errors;
+
+    void record(long nanos) {
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size * 2);
+        }
+        latencies[size++] = nanos;
+    }
+
+    void error() {
+        errors++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long errors() {
+        return errors;
+    }
+
+    static LatencyRecorder merge(Iterable<LatencyRecorder> recorders) {
+        LatencyRecorder merged = new LatencyRecorder();
+        for (LatencyRecorder recorder : recorders) {
+            for (int i = 0; i < recorder.size; i++) {
+                merged.record(recorder.latencies[i]);
+            }
+            merged.errors += recorder.errors;
+        }
+        Arrays.sort(merged.latencies, 0, merged.size);
+        return merged;
+    }
+
+    /**
+     * Перцентиль в миллисекундах; вызывается только у результата {@link #merge}, где задержки отсортированы.
+     */
+    double percentileMillis(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * size) - 1;
+        return latencies[Math.max(0, Math.min(size - 1, index))] / 1_000_000.0;
+    }
+}
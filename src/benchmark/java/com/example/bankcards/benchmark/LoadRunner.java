@@ -0,0 +1,81 @@
+package com.example.bankcards.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Закрытая модель нагрузки: threads потоков выполняют операцию друг за другом без пауз.
+ * Операции, завершившиеся в период прогрева, не учитываются.
+ * <p>
+ * Задержка меряется от отправки запроса, поэтому при насыщении сервера хвост распределения
+ * занижен: в закрытой модели клиенты сами замедляются вместе с сервером.
+ */
+final class LoadRunner {
+
+    @FunctionalInterface
+    interface Operation {
+        /**
+         * Выполняет одну операцию; false или исключение считаются ошибкой.
+         */
+        boolean call(ThreadLocalRandom random) throws Exception;
+    }
+
+    record Result(String scenario, int threads, Duration duration, LatencyRecorder latencies) {
+        double opsPerSecond() {
+            return latencies.size() / (duration.toNanos() / 1_000_000_000.0);
+        }
+    }
+
+    private final int threads;
+    private final Duration warmup;
+    private final Duration duration;
+
+    LoadRunner(int threads, Duration warmup, Duration duration) {
+        this.threads = threads;
+        this.warmup = warmup;
+        this.duration = duration;
+    }
+
+    Result run(String scenario, Operation operation) throws InterruptedException {
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        CountDownLatch finished = new CountDownLatch(threads);
+        long measureFrom = System.nanoTime() + warmup.toNanos();
+        long measureTo = measureFrom + duration.toNanos();
+
+        for (int i = 0; i < threads; i++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            recorders.add(recorder);
+            Thread worker = new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long now = System.nanoTime();
+                    while (now < measureTo) {
+                        boolean success;
+                        try {
+                            success = operation.call(random);
+                        } catch (Exception e) {
+                            success = false;
+                        }
+                        long end = System.nanoTime();
+                        if (now >= measureFrom && end <= measureTo) {
+                            if (success) {
+                                recorder.record(end - now);
+                            } else {
+                                recorder.error();
+                            }
+                        }
+                        now = end;
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            }, "benchmark-" + scenario + "-" + i);
+            worker.start();
+        }
+        finished.await();
+        return new Result(scenario, threads, duration, LatencyRecorder.merge(recorders));
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.BankRestCardApplication;
+import com.example.bankcards.config.ReplicaLagMonitor;
+import com.example.bankcards.dto.user.UserDto;
+import com.example.bankcards.service.user.UserService;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import liquibase.integration.spring.SpringLiquibase;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Маршрутизация чтения в реплику на настоящих PostgreSQL: основная база и реплика - два отдельных
+ * встроенных сервера с одной схемой, в каждом свой пользователь-метка. Транзакция
+ * {@code @Transactional(readOnly = true)} сервиса проходит через JpaTransactionManager
+ * и LazyConnectionDataSourceProxy, поэтому по найденной метке видно, куда ушло соединение.
+ * Когда реплика останавливается, ReplicaLagMonitor снимает её с чтения, и те же транзакции
+ * идут в основную базу. Репликации между серверами нет: проверяется выбор соединения, а не доставка WAL.
+ * <p>
+ * Запуск: {@code mvn -Pbenchmark test -Dtest=ReplicaRoutingPostgresTest}.
+ */
+@SpringBootTest(
+        classes = BankRestCardApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "spring.jpa.show-sql=false",
+                "logging.level.root=WARN",
+                // Проверку реплики вызывает тест; по расписанию она выполняется только при старте
+                "cards.datasource.replica.lag-check-interval-ms=3600000",
+                "cards.datasource.replica.hikari.connection-timeout=1000"
+        }
+)
+class ReplicaRoutingPostgresTest {
+    private static final String PRIMARY_USER = "primary@example.com";
+    private static final String REPLICA_USER = "replica@example.com";
+
+    private static final EmbeddedPostgres PRIMARY = startPostgres();
+    private static final EmbeddedPostgres REPLICA = startReplica();
+    private static boolean replicaStopped;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> PRIMARY.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+        registry.add("cards.datasource.replica.url", () -> REPLICA.getJdbcUrl("postgres", "postgres"));
+    }
+
+    @AfterAll
+    static void stopPostgres() throws IOException {
+        PRIMARY.close();
+        if (!replicaStopped) {
+            REPLICA.close();
+        }
+    }
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private UserService userService;
+
+    @Test
+    void readOnlyTransactions_GoToReplicaUntilItIsLost() throws IOException {
+        assertThat(dataSource).isInstanceOf(LazyConnectionDataSourceProxy.class);
+        assertThat(transactionManager).isInstanceOf(JpaTransactionManager.class);
+        insertUser(new JdbcTemplate(PRIMARY.getPostgresDatabase()), PRIMARY_USER);
+
+        replicaLagMonitor.check();
+        assertThat(replicaLagMonitor.isAvailable()).isTrue();
+        assertThat(userEmails()).contains(REPLICA_USER).doesNotContain(PRIMARY_USER);
+        // Пишущая транзакция берёт соединение основной базы и при доступной реплике
+        Integer primaryUsers = new TransactionTemplate(transactionManager).execute(status -> new JdbcTemplate(dataSource)
+                .queryForObject("SELECT count(*) FROM users WHERE email = ?", Integer.class, PRIMARY_USER));
+        assertThat(primaryUsers).isEqualTo(1);
+
+        REPLICA.close();
+        replicaStopped = true;
+        replicaLagMonitor.check();
+
+        assertThat(replicaLagMonitor.isAvailable()).isFalse();
+        assertThat(userEmails()).contains(PRIMARY_USER).doesNotContain(REPLICA_USER);
+    }
+
+    private List<String> userEmails() {
+        return userService.getAllUsers().stream().map(UserDto::email).toList();
+    }
+
+    private static void insertUser(JdbcTemplate jdbcTemplate, String email) {
+        jdbcTemplate.update("INSERT INTO users (email, phone_number, first_name, last_name, role, password) "
+                + "VALUES (?, '+70008888888', 'Replica', 'Routing', 'USER', 'unused')", email);
+    }
+
+    // Схема реплики - те же миграции; основной базе их применяет Liquibase приложения
+    private static EmbeddedPostgres startReplica() {
+        EmbeddedPostgres replica = startPostgres();
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setDataSource(replica.getPostgresDatabase());
+        liquibase.setChangeLog("classpath:/db/changelog-master.yaml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        try {
+            liquibase.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException("Не удалось применить миграции к реплике", e);
+        }
+        insertUser(new JdbcTemplate(replica.getPostgresDatabase()), REPLICA_USER);
+        return replica;
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.builder().start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось запустить встроенный PostgreSQL", e);
+        }
+    }
+}
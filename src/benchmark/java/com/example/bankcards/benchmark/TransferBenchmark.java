@@ -0,0 +1,264 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.BankRestCardApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Нагрузочный прогон: приложение целиком поднимается на встроенном PostgreSQL, в базу добавляются
+ * benchmark.users пользователей по benchmark.cards-per-user карт, затем по очереди нагружаются
+ * /auth/login, /cards/user и /cards/transfer. Выбор карт для переводов подчиняется закону Ципфа
+ * с показателем benchmark.skew, что задаёт конкуренцию за горячие карты. Сценарий hot-transfer
+ * переводит со случайных карт на одну карту с признаком hot, как платежи одному продавцу.
+ * <p>
+ * Запуск: {@code mvn -Pbenchmark test}. Итоги печатаются таблицей и дописываются
+ * в target/benchmark/results.csv, чтобы сравнивать прогоны до и после изменения.
+ */
+@SpringBootTest(
+        classes = BankRestCardApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "spring.jpa.show-sql=false",
+                "logging.level.root=WARN",
+                "cards.transfer.in-memory.journal-dir=target/benchmark/journal"
+        }
+)
+class TransferBenchmark {
+    private static final String PASSWORD = "benchmark";
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000.00");
+    private static final BigDecimal TRANSFER_AMOUNT = new BigDecimal("0.01");
+    private static final Path RESULTS = Path.of("target", "benchmark", "results.csv");
+
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+    }
+
+    @AfterAll
+    static void stopPostgres() throws IOException {
+        POSTGRES.close();
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${cards.transfer.mode}")
+    private String transferMode;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private record SeededCard(UUID id, String email) {
+    }
+
+    @Test
+    void run() throws Exception {
+        BenchmarkSettings settings = BenchmarkSettings.fromSystemProperties();
+        List<String> emails = seedUsers(settings.users());
+        List<SeededCard> cards = seedCards(emails, settings.cardsPerUser());
+        // Получатель горячих переводов - последняя карта: при skew > 0 обычные переводы выбирают её реже всех
+        SeededCard hotCard = cards.get(cards.size() - 1);
+        jdbcTemplate.update("UPDATE cards SET hot = true WHERE id = ?", hotCard.id());
+        List<String> tokens = login(emails, settings.threads());
+        List<String> cardTokens = cards.stream()
+                .map(card -> tokens.get(emails.indexOf(card.email())))
+                .toList();
+
+        ZipfSampler userSampler = new ZipfSampler(emails.size(), settings.skew());
+        ZipfSampler cardSampler = new ZipfSampler(cards.size(), settings.skew());
+        LoadRunner runner = new LoadRunner(settings.threads(), settings.warmup(), settings.duration());
+        List<LoadRunner.Result> results = new ArrayList<>();
+
+        for (String scenario : settings.scenarios()) {
+            LoadRunner.Operation operation = switch (scenario) {
+                case BenchmarkSettings.LOGIN -> random ->
+                        post("/auth/login", null, loginBody(emails.get(userSampler.next(random)))).statusCode() == 200;
+                case BenchmarkSettings.USER_CARDS -> random ->
+                        get("/cards/user?size=10", tokens.get(userSampler.next(random))).statusCode() == 200;
+                case BenchmarkSettings.TRANSFER -> random -> {
+                    int from = cardSampler.next(random);
+                    int to = cardSampler.next(random);
+                    while (to == from) {
+                        to = cardSampler.next(random);
+                    }
+                    return post("/cards/transfer", cardTokens.get(from),
+                            transferBody(cards.get(from).id(), cards.get(to).id())).statusCode() == 200;
+                };
+                case BenchmarkSettings.HOT_TRANSFER -> random -> {
+                    int from = random.nextInt(cards.size() - 1);
+                    return post("/cards/transfer", cardTokens.get(from),
+                            transferBody(cards.get(from).id(), hotCard.id())).statusCode() == 200;
+                };
+                default -> throw new IllegalArgumentException("Неизвестный сценарий: " + scenario);
+            };
+            results.add(runner.run(scenario, operation));
+        }
+        report(settings, results);
+    }
+
+    private List<String> seedUsers(int users) {
+        String password = passwordEncoder.encode(PASSWORD);
+        List<String> emails = new ArrayList<>(users);
+        List<Object[]> rows = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String email = "benchmark-" + i + "@example.com";
+            emails.add(email);
+            rows.add(new Object[]{email, String.format("+7000%07d", i), "Benchmark", "User" + i, "USER", password});
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO users (email, phone_number, first_name, last_name, role, password) VALUES (?, ?, ?, ?, ?, ?)",
+                rows);
+        return emails;
+    }
+
+    // Карты упорядочены по номеру: при skew > 0 чаще всего выбираются первые из них
+    private List<SeededCard> seedCards(List<String> emails, int cardsPerUser) {
+        Date expiration = Date.valueOf(LocalDate.now().plusYears(3));
+        List<Object[]> rows = new ArrayList<>();
+        for (int card = 0; card < cardsPerUser; card++) {
+            for (int user = 0; user < emails.size(); user++) {
+                String number = String.format("9%015d", rows.size());
+                rows.add(new Object[]{number, expiration, INITIAL_BALANCE, emails.get(user)});
+            }
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO cards (card_number, expiration_date, balance, status, user_id) "
+                        + "SELECT ?, ?, ?, 'ACTIVE', id FROM users WHERE email = ?",
+                rows);
+        return jdbcTemplate.query(
+                "SELECT c.id, u.email FROM cards c JOIN users u ON u.id = c.user_id "
+                        + "WHERE u.email LIKE 'benchmark-%' ORDER BY c.card_number",
+                (row, index) -> new SeededCard(row.getObject("id", UUID.class), row.getString("email")));
+    }
+
+    private List<String> login(List<String> emails, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> tokens = new ArrayList<>();
+            for (String email : emails) {
+                tokens.add(pool.submit(() -> {
+                    HttpResponse<String> response = post("/auth/login", null, loginBody(email));
+                    if (response.statusCode() != 200) {
+                        throw new IllegalStateException("Не удалось войти как " + email + ": " + response.body());
+                    }
+                    return objectMapper.readTree(response.body()).get("token").asText();
+                }));
+            }
+            List<String> result = new ArrayList<>(tokens.size());
+            for (Future<String> token : tokens) {
+                result.add(token.get());
+            }
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private String loginBody(String email) {
+        return "{\"email\":\"" + email + "\",\"password\":\"" + PASSWORD + "\"}";
+    }
+
+    private String transferBody(UUID fromCardId, UUID toCardId) {
+        return "{\"fromCardId\":\"" + fromCardId + "\",\"toCardId\":\"" + toCardId
+                + "\",\"amount\":" + TRANSFER_AMOUNT + "}";
+    }
+
+    private HttpResponse<String> post(String path, String token, String body) throws Exception {
+        return http.send(request(path, token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path, String token) throws Exception {
+        return http.send(request(path, token).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String path, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .timeout(Duration.ofSeconds(30));
+        return token == null ? builder : builder.header("Authorization", "Bearer " + token);
+    }
+
+    private void report(BenchmarkSettings settings, List<LoadRunner.Result> results) throws IOException {
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT,
+                "%nmode=%s users=%d cards=%d threads=%d skew=%.2f duration=%s%n%-12s %10s %9s %9s %9s %9s %8s%n",
+                transferMode, settings.users(), settings.users() * settings.cardsPerUser(), settings.threads(),
+                settings.skew(), settings.duration(),
+                "scenario", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors"));
+        StringBuilder csv = new StringBuilder();
+        for (LoadRunner.Result result : results) {
+            LatencyRecorder latencies = result.latencies();
+            table.append(String.format(Locale.ROOT, "%-12s %10.1f %9.2f %9.2f %9.2f %9.2f %8d%n",
+                    result.scenario(), result.opsPerSecond(),
+                    latencies.percentileMillis(0.50), latencies.percentileMillis(0.99),
+                    latencies.percentileMillis(0.999), latencies.percentileMillis(1.0), latencies.errors()));
+            csv.append(String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%.2f,%s,%.1f,%.3f,%.3f,%.3f,%d%n",
+                    Instant.now(), transferMode, settings.users(), settings.users() * settings.cardsPerUser(),
+                    settings.threads(), settings.skew(), result.scenario(), result.opsPerSecond(),
+                    latencies.percentileMillis(0.50), latencies.percentileMillis(0.99),
+                    latencies.percentileMillis(0.999), latencies.errors()));
+        }
+        System.out.println(table);
+
+        Files.createDirectories(RESULTS.getParent());
+        if (Files.notExists(RESULTS)) {
+            Files.writeString(RESULTS, "timestamp,mode,users,cards,threads,skew,scenario,ops_per_sec,p50_ms,p99_ms,p999_ms,errors\n");
+        }
+        Files.writeString(RESULTS, csv, StandardOpenOption.APPEND);
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.builder().start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось запустить встроенный PostgreSQL", e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.bankcards.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Выбор индекса из [0, n) по закону Ципфа: индекс k выпадает с вероятностью, пропорциональной 1 / (k + 1)^skew.
+ * skew = 0 даёт равномерное распределение, skew около 1 и выше сосредотачивает нагрузку на первых индексах.
+ */
+final class ZipfSampler {
+    private final double[] cumulative;
+
+    ZipfSampler(int n, double skew) {
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    int next(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        int position = index >= 0 ? index : -index - 1;
+        return Math.min(position, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.bankcards.config;
+
+import com.example.bankcards.util.GzipEncoding;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON-конвертер ответов контроллеров со сжатием от порога размера. Первые minResponseSize байт
+ * копятся в памяти: ответ, уложившийся в порог, уходит целиком с Content-Length и без сжатия,
+ * поэтому короткие ответы и ошибки не сжимаются. Превысивший порог ответ пишется дальше потоком
+ * и сжимается в gzip здесь же, если клиент его принимает.
+ * <p>
+ * Сжатие Tomcat сюда не подходит: без Content-Length оно не знает размер ответа, а ответы с сильным
+ * ETag не сжимает вовсе. ETag таких ответов различает кодировку сам, см. ConditionalResponses.
+ */
+class CompressingJsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+    private final boolean compression;
+    private final int minResponseSize;
+
+    CompressingJsonHttpMessageConverter(ObjectMapper objectMapper, boolean compression, int minResponseSize) {
+        super(objectMapper);
+        this.compression = compression;
+        this.minResponseSize = minResponseSize;
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException {
+        SizeAwareBody body = new SizeAwareBody(outputMessage);
+        super.writeInternal(object, type, new HttpOutputMessage() {
+            @Override
+            public OutputStream getBody() {
+                return body;
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return outputMessage.getHeaders();
+            }
+        });
+        body.finish();
+    }
+
+    private boolean gzipAccepted() {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return false;
+        }
+        HttpServletRequest request = attributes.getRequest();
+        return GzipEncoding.accepted(Collections.list(request.getHeaders(HttpHeaders.ACCEPT_ENCODING))
+                .toArray(String[]::new));
+    }
+
+    /**
+     * Тело ответа: до порога копится в буфере, после порога пишется в ответ, при необходимости через gzip.
+     * Заголовки ответа меняются только до первого обращения к телу ответа, которое их отправляет.
+     */
+    private final class SizeAwareBody extends OutputStream {
+        private final HttpOutputMessage message;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.min(minResponseSize, 1024));
+        private OutputStream target;
+        private GZIPOutputStream gzip;
+
+        SizeAwareBody(HttpOutputMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (target == null && buffer.size() + length >= minResponseSize) {
+                open();
+            }
+            if (target != null) {
+                target.write(bytes, offset, length);
+            } else {
+                buffer.write(bytes, offset, length);
+            }
+        }
+
+        // Пока ответ в пределах порога, flush ничего не отправляет: иначе ответ ушёл бы без Content-Length
+        @Override
+        public void flush() throws IOException {
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        void finish() throws IOException {
+            if (target == null) {
+                message.getHeaders().setContentLength(buffer.size());
+                buffer.writeTo(message.getBody());
+            } else if (gzip != null) {
+                gzip.finish();
+            }
+        }
+
+        private void open() throws IOException {
+            HttpHeaders headers = message.getHeaders();
+            if (compression) {
+                addVary(headers);
+                if (gzipAccepted()) {
+                    headers.set(HttpHeaders.CONTENT_ENCODING, GzipEncoding.GZIP);
+                    gzip = new GZIPOutputStream(message.getBody(), 8192, true);
+                }
+            }
+            target = gzip != null ? gzip : message.getBody();
+            buffer.writeTo(target);
+            buffer = null;
+        }
+
+        private void addVary(HttpHeaders headers) {
+            List<String> vary = new ArrayList<>(headers.getVary());
+            if (vary.stream().noneMatch(HttpHeaders.ACCEPT_ENCODING::equalsIgnoreCase)) {
+                vary.add(HttpHeaders.ACCEPT_ENCODING);
+                headers.setVary(vary);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.bankcards.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.web.server.Compression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+/**
+ * Настройка сериализации ответов. Модуль Blackbird заменяет рефлексивные вызовы методов доступа
+ * DTO сгенерированными через LambdaMetafactory; Spring Boot добавляет бины Module в ObjectMapper
+ * приложения, поэтому модуль действует и в конвертерах MVC, и в потоковой выгрузке карт.
+ * Сравнение с настройкой по умолчанию - JsonSerializationBenchmark в профиле benchmark.
+ * <p>
+ * JSON-ответы контроллеров сжимает {@link CompressingJsonHttpMessageConverter} с порогом
+ * server.compression.min-response-size; он заменяет конвертер Jackson из автоконфигурации.
+ */
+@Configuration
+public class JacksonConfig {
+
+    @Bean
+    public BlackbirdModule blackbirdModule() {
+        return new BlackbirdModule();
+    }
+
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper,
+                                                                                   ServerProperties serverProperties) {
+        Compression compression = serverProperties.getCompression();
+        return new CompressingJsonHttpMessageConverter(objectMapper, compression.getEnabled(),
+                (int) compression.getMinResponseSize().toBytes());
+    }
+}
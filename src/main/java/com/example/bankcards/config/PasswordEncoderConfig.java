@@ -0,0 +1,74 @@
+package com.example.bankcards.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Хеширование паролей. Новые хеши пишутся с префиксом {bcrypt} через DelegatingPasswordEncoder,
+ * так что алгоритм можно сменить без миграции. Стоимость BCrypt подбирается при старте
+ * под auth.password-hashing.target-latency на этом хосте либо задаётся явно через strength.
+ * Хеши без префикса и с меньшей стоимостью по-прежнему проверяются, а при успешном входе
+ * AuthService перезаписывает их текущими настройками.
+ */
+@Slf4j
+@Configuration
+public class PasswordEncoderConfig {
+    private static final String BCRYPT = "bcrypt";
+    private static final String CALIBRATION_PASSWORD = "calibration-password";
+    private static final int CALIBRATION_RUNS = 3;
+
+    @Bean
+    public PasswordEncoder passwordEncoder(
+            @Value("${auth.password-hashing.strength:0}") int strength,
+            @Value("${auth.password-hashing.target-latency:PT0.25S}") Duration targetLatency,
+            @Value("${auth.password-hashing.min-strength:10}") int minStrength,
+            @Value("${auth.password-hashing.max-strength:16}") int maxStrength) {
+        int bcryptStrength = strength > 0
+                ? strength
+                : calibrateStrength(targetLatency, minStrength, maxStrength, PasswordEncoderConfig::measureBCrypt);
+        log.info("Стоимость BCrypt для новых хешей паролей: {}", bcryptStrength);
+
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder(BCRYPT,
+                Map.of(BCRYPT, new BCryptPasswordEncoder(bcryptStrength)));
+        // Хеши, записанные до перехода на префиксы (в том числе значение по умолчанию из миграции)
+        encoder.setDefaultPasswordEncoderForMatches(new BCryptPasswordEncoder());
+        return encoder;
+    }
+
+    /**
+     * Наибольшая стоимость из [minStrength, maxStrength], при которой хеш укладывается в targetLatency.
+     * Замеряется только minStrength: каждая следующая ступень BCrypt вдвое дороже предыдущей.
+     * Если даже minStrength дольше цели, берётся minStrength - ниже него стоимость не опускается.
+     */
+    static int calibrateStrength(Duration targetLatency, int minStrength, int maxStrength,
+                                 IntFunction<Duration> measure) {
+        long nanos = measure.apply(minStrength).toNanos();
+        int strength = minStrength;
+        while (strength < maxStrength && nanos * 2 <= targetLatency.toNanos()) {
+            nanos *= 2;
+            strength++;
+        }
+        return strength;
+    }
+
+    private static Duration measureBCrypt(int strength) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+        encoder.encode(CALIBRATION_PASSWORD);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_RUNS; i++) {
+            long start = System.nanoTime();
+            encoder.encode(CALIBRATION_PASSWORD);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return Duration.ofNanos(best);
+    }
+}
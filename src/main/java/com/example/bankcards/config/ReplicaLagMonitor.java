@@ -0,0 +1,67 @@
+package com.example.bankcards.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.Duration;
+
+/**
+ * Периодически меряет отставание реплики. Реплика считается доступной, пока запрос к ней проходит
+ * и отставание не больше maxLag; иначе читающие транзакции идут в основную базу.
+ * <p>
+ * Отставание - время с последней применённой транзакции, но только если реплика получила WAL,
+ * который ещё не применила: при простое основной базы время последней транзакции растёт,
+ * хотя реплика ни от чего не отстаёт.
+ */
+@Slf4j
+public class ReplicaLagMonitor {
+    static final String LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery() "
+            + "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final JdbcTemplate replica;
+    private final Duration maxLag;
+    private volatile double lagSeconds = Double.NaN;
+    private volatile boolean available;
+
+    public ReplicaLagMonitor(JdbcTemplate replica, Duration maxLag, MeterRegistry meterRegistry) {
+        this.replica = replica;
+        this.maxLag = maxLag;
+        Gauge.builder("cards.datasource.replica.lag", this, monitor -> monitor.lagSeconds)
+                .description("Отставание реплики в секундах; NaN - реплика недоступна")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("cards.datasource.replica.available", this, monitor -> monitor.available ? 1 : 0)
+                .description("1 - читающие транзакции идут в реплику, 0 - в основную базу")
+                .register(meterRegistry);
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @Scheduled(fixedDelayString = "${cards.datasource.replica.lag-check-interval-ms:1000}")
+    public void check() {
+        boolean wasAvailable = available;
+        try {
+            Double lag = replica.queryForObject(LAG_QUERY, Double.class);
+            lagSeconds = lag == null ? 0 : lag;
+            available = lagSeconds <= maxLag.toMillis() / 1000.0;
+        } catch (DataAccessException e) {
+            lagSeconds = Double.NaN;
+            available = false;
+        }
+        if (wasAvailable != available) {
+            if (available) {
+                log.info("Реплика доступна, отставание {} с: чтение переключено на реплику", lagSeconds);
+            } else {
+                log.warn("Реплика недоступна или отстаёт ({} с при допустимых {}): чтение переключено на основную базу",
+                        lagSeconds, maxLag);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.bankcards.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Направляет соединения транзакций {@code @Transactional(readOnly = true)} в реплику, остальные -
+ * в основную базу. Признак readOnly выставляется после начала транзакции, поэтому источник
+ * оборачивается в LazyConnectionDataSourceProxy: соединение берётся при первом запросе.
+ * Пока реплика недоступна или отстаёт, читающие транзакции тоже идут в основную базу.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private final BooleanSupplier replicaAvailable;
+
+    public ReplicaRoutingDataSource(BooleanSupplier replicaAvailable) {
+        this.replicaAvailable = replicaAvailable;
+    }
+
+    @Override
+    protected Target determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && replicaAvailable.getAsBoolean()) {
+            return Target.REPLICA;
+        }
+        return Target.PRIMARY;
+    }
+}
@@ -3,6 +3,7 @@ package com.example.bankcards.config;
 import com.example.bankcards.security.JwtAuthenticationEntryPoint;
 import com.example.bankcards.service.auth.JwtService;
 import com.example.bankcards.security.JwtAuthenticationFilter;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -12,8 +13,6 @@ import org.springframework.security.config.annotation.authentication.configurati
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
@@ -29,6 +28,9 @@ public class SecurityConfig {
         http
                 .csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(auth -> auth
+                        // Повторная передача запроса после асинхронного ответа: сам запрос уже проверен,
+                        // а фильтр JWT при ней не выполняется
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers(
                                 "/v3/api-docs/**",
                                 "/swagger-ui/**",
@@ -39,14 +41,23 @@ public class SecurityConfig {
                         ).permitAll()
                         .requestMatchers("/auth/**").permitAll()
                         .requestMatchers(HttpMethod.GET, "/cards/admin").hasRole("ADMIN")
+                        .requestMatchers(HttpMethod.POST, "/cards/admin/balance-summary/rebuild").hasRole("ADMIN")
+                        .requestMatchers(HttpMethod.POST, "/cards/admin/lookup").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.POST, "/cards").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.PATCH, "/cards/{cardId}/status").hasRole("ADMIN")
+                        .requestMatchers(HttpMethod.PATCH, "/cards/{cardId}/hot").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.DELETE, "/cards/{id}").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.GET, "/cards/user").hasRole("USER")
                         .requestMatchers(HttpMethod.POST, "/cards/{cardId}/block-request").hasRole("USER")
                         .requestMatchers(HttpMethod.GET, "api/cards/balance").hasRole("USER")
                         .requestMatchers(HttpMethod.POST, "/cards/transfer").hasRole("USER")
+                        .requestMatchers(HttpMethod.POST, "/cards/transfer/batch").hasRole("USER")
+                        .requestMatchers(HttpMethod.POST, "/cards/transfer/async").hasRole("USER")
+                        .requestMatchers(HttpMethod.GET, "/cards/transfer/{transferId}").hasRole("USER")
                         .requestMatchers("/users/**").hasRole("ADMIN")
+                        // Пробы живости и готовности вызываются без токена; без show-details ответ - только статус
+                        .requestMatchers(HttpMethod.GET, "/actuator/health", "/actuator/health/**").permitAll()
+                        .requestMatchers("/actuator/**").hasRole("ADMIN")
                         .anyRequest().authenticated()
                 )
                 .sessionManagement(session -> session
@@ -60,11 +71,6 @@ public class SecurityConfig {
         return http.build();
     }
 
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
-    }
-
     @Bean
     public AuthenticationManager authenticationManager(AuthenticationConfiguration config) throws Exception {
         return config.getAuthenticationManager();
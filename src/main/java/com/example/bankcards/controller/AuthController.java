@@ -27,7 +27,8 @@ public class AuthController {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Успешная аутентификация"),
             @ApiResponse(responseCode = "400", description = "Неверные данные запроса"),
-            @ApiResponse(responseCode = "401", description = "Неверные учетные данные")
+            @ApiResponse(responseCode = "401", description = "Неверные учетные данные"),
+            @ApiResponse(responseCode = "429", description = "Очередь проверки паролей заполнена, повторить после Retry-After")
     })
     @PostMapping("/login")
     public ResponseEntity<AuthResponse> login(@RequestBody @Valid LoginRequest request) {
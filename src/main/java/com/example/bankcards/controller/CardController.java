@@ -2,19 +2,33 @@ package com.example.bankcards.controller;
 
 import com.example.bankcards.dto.card.BlockCardRequest;
 import com.example.bankcards.dto.card.BlockCardResponse;
+import com.example.bankcards.dto.card.CardLookupRequest;
 import com.example.bankcards.dto.card.CreateCardRequest;
 import com.example.bankcards.dto.card.ResponseDto;
 import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.dto.card.TransferStatusResponse;
 import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.service.card.AsyncTransfer;
+import com.example.bankcards.service.card.AsyncTransferService;
 import com.example.bankcards.service.card.CardService;
+import com.example.bankcards.service.user.UserVersions;
+import com.example.bankcards.util.NdjsonIterator;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -24,13 +38,25 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequiredArgsConstructor
@@ -38,31 +64,109 @@ import java.util.UUID;
 @Tag(name = "Card Management", description = "API для управления банковскими картами")
 @SecurityRequirement(name = "bearerAuth")
 public class CardController {
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+    private static final long MAX_TRANSFER_WAIT_MS = 30_000;
+    private static final int MAX_CARDS_PAGE_SIZE = 1000;
+    private static final int MAX_USER_CARDS_PAGE_SIZE = 100;
+
     private final CardService cardService;
+    private final AsyncTransferService asyncTransferService;
+    private final UserVersions userVersions;
+    private final ObjectMapper objectMapper;
 
-    @Operation(summary = "Получить все карты (админ)", description = "Возвращает список всех карт в системе. Только для администраторов.")
+    @Operation(summary = "Получить все карты (админ)",
+            description = "Выгружает все карты потоком без загрузки таблицы в память: JSON-массивом "
+                    + "или NDJSON при Accept: application/x-ndjson. С параметром limit возвращает страницу "
+                    + "карт с id больше after и ссылку на следующую страницу в заголовке Link. Только для администраторов.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Успешное получение списка карт"),
+            @ApiResponse(responseCode = "400", description = "Некорректный размер страницы"),
+            @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
+    })
+    @GetMapping(value = "/admin", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAllCards() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(output -> writeCards(output, false));
+    }
+
+    @GetMapping(value = "/admin", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAllCardsNdjson() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON_VALUE))
+                .body(output -> writeCards(output, true));
+    }
+
+    @GetMapping(value = "/admin", params = "limit")
+    public ResponseEntity<?> getCardsPage(
+            @Parameter(description = "Идентификатор последней карты предыдущей страницы")
+            @RequestParam(required = false) UUID after,
+            @RequestParam int limit) {
+        if (limit < 1 || limit > MAX_CARDS_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body("limit должен быть от 1 до " + MAX_CARDS_PAGE_SIZE);
+        }
+        List<ResponseDto> cards = cardService.getCardsAfter(after, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (cards.size() == limit) {
+            UUID last = cards.get(cards.size() - 1).id();
+            response.header(HttpHeaders.LINK, "</cards/admin?after=" + last + "&limit=" + limit + ">; rel=\"next\"");
+        }
+        return response.body(cards);
+    }
+
+    @Operation(summary = "Пересчитать итоги балансов пользователей",
+            description = "Пересчитывает итоги по картам всех пользователей, по которым читается баланс, "
+                    + "и исправляет разошедшиеся с картами. Возвращает число исправленных итогов. "
+                    + "Только для администраторов.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Итоги пересчитаны"),
             @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
     })
-    @GetMapping("/admin")
-    public List<ResponseDto> getAllCards() {
-        return cardService.getAllCards();
+    @PostMapping("/admin/balance-summary/rebuild")
+    public int rebuildBalanceSummaries() {
+        return cardService.rebuildBalanceSummaries();
     }
 
-    @Operation(summary = "Получить карты пользователя", description = "Возвращает пагинированный список карт текущего пользователя")
+    @Operation(summary = "Найти карту по номеру",
+            description = "Возвращает карту с маскированным номером по полному номеру карты. Номер передаётся "
+                    + "в теле запроса, чтобы не попадать в журналы запросов. Только для администраторов.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Карта найдена"),
+            @ApiResponse(responseCode = "400", description = "Некорректный номер карты"),
+            @ApiResponse(responseCode = "401", description = "Пользователь не авторизован"),
+            @ApiResponse(responseCode = "404", description = "Карта не найдена")
+    })
+    @PostMapping("/admin/lookup")
+    public ResponseDto findCardByNumber(@Valid @RequestBody CardLookupRequest request) {
+        return cardService.findByCardNumber(request.cardNumber());
+    }
+
+    @Operation(summary = "Получить карты пользователя",
+            description = "Возвращает карты текущего пользователя от новых к старым. Следующая часть списка "
+                    + "запрашивается с курсором nextCursor из предыдущего ответа. Ответ содержит ETag; "
+                    + "с If-None-Match, пока карты и данные пользователя не менялись, возвращается 304")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Успешное получение списка карт"),
+            @ApiResponse(responseCode = "304", description = "Карты не изменились с ответа с этим ETag"),
+            @ApiResponse(responseCode = "400", description = "Некорректный размер или курсор"),
             @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
     })
     @GetMapping("/user")
-    public Page<ResponseDto> getUserCards(
+    public ResponseEntity<?> getUserCards(
             Authentication authentication,
-            @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size
+            @Parameter(description = "Курсор nextCursor из предыдущего ответа; без него возвращается начало списка")
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            WebRequest webRequest
     ) {
+        if (size < 1 || size > MAX_USER_CARDS_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body("size должен быть от 1 до " + MAX_USER_CARDS_PAGE_SIZE);
+        }
         String userEmail = authentication.getName();
-        return cardService.getUserCards(userEmail, page, size);
+        return ConditionalResponses.of(userVersions.readIfModified(userEmail, ConditionalResponses.notModified(webRequest),
+                () -> cardService.getUserCards(userEmail, cursor, size)));
     }
 
     @Operation(summary = "Создать новую карту", description = "Создает новую банковскую карту")
@@ -86,9 +190,22 @@ public class CardController {
         return cardService.updateCardStatus(cardId, status);
     }
 
+    @Operation(summary = "Обновить признак горячей карты",
+            description = "Горячая карта получает зачисления в несколько частей баланса вместо одной строки")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Признак горячей карты успешно обновлен"),
+            @ApiResponse(responseCode = "404", description = "Карта не найдена")
+    })
+    @PatchMapping("/{cardId}/hot")
+    public ResponseDto updateCardHot(@PathVariable UUID cardId,
+                                     @RequestParam boolean hot) {
+        return cardService.updateCardHot(cardId, hot);
+    }
+
     @Operation(summary = "Удалить карту", description = "Удаляет карту по её идентификатору")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Карта успешно удалена"),
+            @ApiResponse(responseCode = "400", description = "Карта участвует в переводах, ещё не сохранённых в БД"),
             @ApiResponse(responseCode = "404", description = "Карта не найдена")
     })
     @DeleteMapping("/{id}")
@@ -96,6 +213,8 @@ public class CardController {
         try {
             cardService.delete(id);
             return ResponseEntity.ok().build();
+        } catch (BadRequestException e) {
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
@@ -111,7 +230,7 @@ public class CardController {
     public ResponseEntity<BlockCardResponse> requestCardBlock(
             @PathVariable UUID cardId,
             @RequestBody BlockCardRequest request,
-            @AuthenticationPrincipal UUID userId){
+            @AuthenticationPrincipal(expression = "userId()") UUID userId){
         try {
             BlockCardResponse response = cardService.requestCardBlock(cardId, request, userId);
 
@@ -129,44 +248,187 @@ public class CardController {
         }
     }
 
-    @Operation(summary = "Получить общий баланс", description = "Рассчитывает общий баланс всех карт пользователя")
+    @Operation(summary = "Получить общий баланс",
+            description = "Рассчитывает общий баланс активных карт пользователя или, с byStatus=true, баланс по статусам карт. "
+                    + "Ответ содержит ETag; с If-None-Match, пока карты пользователя не менялись, возвращается 304")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Баланс успешно рассчитан"),
+            @ApiResponse(responseCode = "304", description = "Баланс не изменился с ответа с этим ETag"),
             @ApiResponse(responseCode = "400", description = "Ошибка при расчете баланса")
     })
     @GetMapping("/balance")
     public ResponseEntity<?> getBalance(Authentication authentication,
-                                        @RequestParam(defaultValue = "0") int page,
-                                        @RequestParam(defaultValue = "10") int size) {
+                                        @Parameter(description = "Вернуть баланс отдельно по каждому статусу карт")
+                                        @RequestParam(defaultValue = "false") boolean byStatus,
+                                        WebRequest webRequest) {
         try {
             String userEmail = authentication.getName();
-            Page<ResponseDto> userCards = cardService.getUserCards(userEmail, page, size);
-            BigDecimal totalBalance = userCards.stream()
-                    .map(ResponseDto::balance)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-            return ResponseEntity.ok(totalBalance);
+            return ConditionalResponses.of(userVersions.readIfModified(userEmail, ConditionalResponses.notModified(webRequest),
+                    () -> byStatus ? cardService.getUserBalanceByStatus(userEmail) : cardService.getUserBalance(userEmail)));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body("Ошибка: " + e.getMessage());
         }
     }
 
-    @Operation(summary = "Перевод средств", description = "Выполняет перевод средств между картами")
+    @Operation(summary = "Перевод средств", description = "Выполняет перевод средств между картами. "
+            + "Повтор запроса с тем же Idempotency-Key возвращает исходный ответ без повторного списания")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Перевод успешно выполнен"),
-            @ApiResponse(responseCode = "400", description = "Ошибка при выполнении перевода")
+            @ApiResponse(responseCode = "400", description = "Ошибка при выполнении перевода"),
+            @ApiResponse(responseCode = "503", description = "Очередь переводов переполнена")
     })
     @PostMapping("/transfer")
     public ResponseEntity<String> transfer(
-            @RequestBody TransferRequest request,
+            @Valid @RequestBody TransferRequest request,
+            @Parameter(description = "Ключ идемпотентности, уникальный для каждого перевода клиента")
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
             Authentication authentication) {
 
+        if (isInvalidIdempotencyKey(idempotencyKey)) {
+            return invalidIdempotencyKey();
+        }
         try {
             String userEmail = authentication.getName();
-            String result = cardService.transfer(userEmail, request);
+            String result = cardService.transfer(userEmail, request, idempotencyKey);
             return ResponseEntity.ok(result);
 
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body("Очередь переводов переполнена, повторите позже");
         } catch (RuntimeException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
+
+    @Operation(summary = "Асинхронный перевод средств",
+            description = "Ставит перевод в очередь и сразу возвращает его идентификатор. "
+                    + "Результат - в GET /cards/transfer/{transferId}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Перевод принят к выполнению"),
+            @ApiResponse(responseCode = "400", description = "Некорректный Idempotency-Key"),
+            @ApiResponse(responseCode = "503", description = "Очередь переводов переполнена")
+    })
+    @PostMapping("/transfer/async")
+    public ResponseEntity<?> transferAsync(
+            @Valid @RequestBody TransferRequest request,
+            @Parameter(description = "Ключ идемпотентности, уникальный для каждого перевода клиента")
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Authentication authentication) {
+
+        if (isInvalidIdempotencyKey(idempotencyKey)) {
+            return invalidIdempotencyKey();
+        }
+        try {
+            AsyncTransfer transfer = asyncTransferService.submit(authentication.getName(), request, idempotencyKey);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/cards/transfer/" + transfer.id()))
+                    .body(TransferStatusResponse.pending(transfer.id()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body("Очередь переводов переполнена, повторите позже");
+        }
+    }
+
+    @Operation(summary = "Состояние асинхронного перевода",
+            description = "Возвращает состояние перевода. С параметром waitMs ждёт завершения перевода "
+                    + "до указанного времени (не больше 30 секунд), не занимая поток сервера")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Состояние перевода"),
+            @ApiResponse(responseCode = "404", description = "Перевод не найден или результат уже удалён")
+    })
+    @GetMapping("/transfer/{transferId}")
+    public CompletableFuture<ResponseEntity<TransferStatusResponse>> getTransferStatus(
+            @PathVariable UUID transferId,
+            @RequestParam(defaultValue = "0") long waitMs,
+            Authentication authentication) {
+
+        Optional<AsyncTransfer> transfer = asyncTransferService.find(authentication.getName(), transferId);
+        if (transfer.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+        long wait = Math.min(Math.max(waitMs, 0), MAX_TRANSFER_WAIT_MS);
+        return transfer.get().result()
+                .handle((message, error) -> ResponseEntity.ok(error == null
+                        ? TransferStatusResponse.success(transferId, message)
+                        : TransferStatusResponse.error(transferId, unwrap(error).getMessage())))
+                .completeOnTimeout(ResponseEntity.ok(TransferStatusResponse.pending(transferId)), wait, TimeUnit.MILLISECONDS);
+    }
+
+    @Operation(summary = "Пакетный перевод средств",
+            description = "Выполняет массив переводов частями в отдельных транзакциях и возвращает результат по каждому переводу")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Пакет обработан, итог каждого перевода - в его результате"),
+            @ApiResponse(responseCode = "400", description = "Ошибка при чтении пакета")
+    })
+    @PostMapping(value = "/transfer/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> transferBatch(
+            @RequestBody List<TransferRequest> requests,
+            Authentication authentication) {
+        try {
+            String userEmail = authentication.getName();
+            return ResponseEntity.ok(cardService.transferBatch(userEmail, requests.iterator()));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Пакетный перевод средств (NDJSON)",
+            description = "Принимает поток переводов по одному JSON-объекту на строку и обрабатывает его по мере чтения")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Пакет обработан, итог каждого перевода - в его результате"),
+            @ApiResponse(responseCode = "400", description = "Ошибка при чтении пакета")
+    })
+    @PostMapping(value = "/transfer/batch", consumes = NDJSON_VALUE)
+    public ResponseEntity<?> transferBatchStream(
+            InputStream body,
+            Authentication authentication) {
+        try {
+            String userEmail = authentication.getName();
+            NdjsonIterator<TransferRequest> requests = new NdjsonIterator<>(body, objectMapper, TransferRequest.class);
+            return ResponseEntity.ok(cardService.transferBatch(userEmail, requests));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    private boolean isInvalidIdempotencyKey(String idempotencyKey) {
+        return idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH);
+    }
+
+    private ResponseEntity<String> invalidIdempotencyKey() {
+        return ResponseEntity.badRequest()
+                .body("Idempotency-Key должен содержать от 1 до " + MAX_IDEMPOTENCY_KEY_LENGTH + " символов");
+    }
+
+    private Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    // Карты пишутся в ответ по мере чтения из БД; сброс в сеть - по заполнении буфера, а не после каждой карты
+    private void writeCards(OutputStream output, boolean ndjson) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(ResponseDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.createGenerator(output)) {
+            if (ndjson) {
+                generator.setRootValueSeparator(null);
+            } else {
+                generator.writeStartArray();
+            }
+            cardService.exportCards(card -> {
+                try {
+                    writer.writeValue(generator, card);
+                    if (ndjson) {
+                        generator.writeRaw('\n');
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (!ndjson) {
+                generator.writeEndArray();
+            }
+        }
+    }
 }
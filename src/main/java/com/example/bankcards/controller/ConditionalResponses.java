@@ -0,0 +1,47 @@
+package com.example.bankcards.controller;
+
+import com.example.bankcards.util.GzipEncoding;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Ответы на условные GET. ETag и статус 304 выставляет WebRequest.checkNotModified ещё до загрузки
+ * данных, здесь ответ только получает тело или остаётся пустым. Cache-Control: no-cache, private
+ * заставляет клиента проверять сохранённый ответ при каждом запросе и запрещает общие кэши.
+ * <p>
+ * ETag сильный, поэтому ответ в gzip получает свой ETag с суффиксом -gzip: клиенту, который принимает
+ * gzip, он выдаётся, даже если ответ короче порога сжатия и ушёл без него. Один ETag так всегда
+ * соответствует одним и тем же байтам ответа, а Vary: Accept-Encoding разделяет варианты в кэшах.
+ */
+final class ConditionalResponses {
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    private ConditionalResponses() {
+    }
+
+    /**
+     * Проверка If-None-Match для ETag данных с учётом кодировки, в которой уйдёт ответ на этот запрос.
+     */
+    static Predicate<String> notModified(WebRequest request) {
+        boolean gzip = GzipEncoding.accepted(request.getHeaderValues(HttpHeaders.ACCEPT_ENCODING));
+        return etag -> request.checkNotModified(gzip ? gzipEtag(etag) : etag);
+    }
+
+    static ResponseEntity<?> of(Optional<?> body) {
+        return body.<ResponseEntity<?>>map(value -> ResponseEntity.ok()
+                        .cacheControl(REVALIDATE).varyBy(HttpHeaders.ACCEPT_ENCODING).body(value))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .cacheControl(REVALIDATE).varyBy(HttpHeaders.ACCEPT_ENCODING).build());
+    }
+
+    // "id-версия" -> "id-версия-gzip"
+    private static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-" + GzipEncoding.GZIP + "\"";
+    }
+}
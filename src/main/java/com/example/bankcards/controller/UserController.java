@@ -4,6 +4,7 @@ import com.example.bankcards.dto.user.CreateUserRequest;
 import com.example.bankcards.dto.user.UpdateUserRequest;
 import com.example.bankcards.dto.user.UserDto;
 import com.example.bankcards.service.user.UserService;
+import com.example.bankcards.service.user.UserVersions;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -20,6 +21,7 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 import java.util.UUID;
@@ -31,6 +33,7 @@ import java.util.UUID;
 @SecurityRequirement(name = "bearerAuth")
 public class UserController {
     private final UserService userService;
+    private final UserVersions userVersions;
 
     @Operation(summary = "Создать пользователя", description = "Создает нового пользователя в системе")
     @ApiResponses(value = {
@@ -55,16 +58,18 @@ public class UserController {
         return userService.getAllUsers();
     }
 
-    @Operation(summary = "Получить пользователя по ID", description = "Возвращает информацию о пользователе по его идентификатору")
+    @Operation(summary = "Получить пользователя по ID", description = "Возвращает информацию о пользователе по его идентификатору. "
+            + "Ответ содержит ETag; с If-None-Match, пока пользователь не менялся, возвращается 304")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Пользователь найден"),
+            @ApiResponse(responseCode = "304", description = "Пользователь не изменился с ответа с этим ETag"),
             @ApiResponse(responseCode = "404", description = "Пользователь не найден")
     })
     @GetMapping("/{id}")
-    public ResponseEntity<?> getUserById(@PathVariable UUID id) {
+    public ResponseEntity<?> getUserById(@PathVariable UUID id, WebRequest webRequest) {
         try {
-            UserDto user = userService.getUserById(id);
-            return ResponseEntity.ok(user);
+            return ConditionalResponses.of(userVersions.readIfModified(id, ConditionalResponses.notModified(webRequest),
+                    () -> userService.getUserById(id)));
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
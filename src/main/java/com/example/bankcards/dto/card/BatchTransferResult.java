@@ -0,0 +1,36 @@
+package com.example.bankcards.dto.card;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Результат одного перевода из пакета")
+public record BatchTransferResult(
+        @Schema(
+                description = "Порядковый номер перевода в пакете (начиная с 0)",
+                example = "0",
+                requiredMode = Schema.RequiredMode.REQUIRED
+        )
+        int index,
+
+        @Schema(
+                description = "Итог перевода",
+                example = "success",
+                requiredMode = Schema.RequiredMode.REQUIRED,
+                allowableValues = {"success", "error"}
+        )
+        String status,
+
+        @Schema(
+                description = "Сообщение о результате или причина отказа",
+                example = "Перевод 100.50 выполнен",
+                requiredMode = Schema.RequiredMode.REQUIRED
+        )
+        String message
+) {
+    public static BatchTransferResult success(int index, String message) {
+        return new BatchTransferResult(index, "success", message);
+    }
+
+    public static BatchTransferResult error(int index, String message) {
+        return new BatchTransferResult(index, "error", message);
+    }
+}
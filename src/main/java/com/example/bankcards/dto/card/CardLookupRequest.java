@@ -0,0 +1,19 @@
+package com.example.bankcards.dto.card;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+
+@Schema(description = "Запрос на поиск карты по номеру")
+public record CardLookupRequest(
+        @Schema(
+                description = "Номер банковской карты (16 цифр)",
+                example = "1234567812345678",
+                requiredMode = Schema.RequiredMode.REQUIRED,
+                minLength = 16,
+                maxLength = 16
+        )
+        @NotBlank(message = "Номер карты не может быть пустым")
+        @Pattern(regexp = "\\d{16}", message = "Номер карты должен состоять из 16 цифр")
+        String cardNumber
+) {}
@@ -0,0 +1,20 @@
+package com.example.bankcards.dto.card;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Часть списка карт пользователя и курсор следующей части")
+public record CardSliceResponse(
+        @Schema(
+                description = "Карты от новых к старым",
+                requiredMode = Schema.RequiredMode.REQUIRED
+        )
+        List<ResponseDto> content,
+
+        @Schema(
+                description = "Курсор следующей части для параметра cursor; null, если карт больше нет",
+                example = "MjAyNi0xMC0xOFQxMjowMDowMFp8MTIzZTQ1NjctZTg5Yi0xMmQzLWE0NTYtNDI2NjE0MTc0MDAw"
+        )
+        String nextCursor
+) {}
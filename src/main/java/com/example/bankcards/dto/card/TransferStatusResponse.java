@@ -0,0 +1,41 @@
+package com.example.bankcards.dto.card;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.UUID;
+
+@Schema(description = "Состояние асинхронного перевода")
+public record TransferStatusResponse(
+        @Schema(
+                description = "Идентификатор асинхронного перевода",
+                example = "7f9c2b1e-3d4a-4b5c-8d6e-1f2a3b4c5d6e",
+                requiredMode = Schema.RequiredMode.REQUIRED
+        )
+        UUID transferId,
+
+        @Schema(
+                description = "Состояние перевода",
+                example = "success",
+                requiredMode = Schema.RequiredMode.REQUIRED,
+                allowableValues = {"pending", "success", "error"}
+        )
+        String status,
+
+        @Schema(
+                description = "Сообщение о результате или причина отказа; у ожидающего перевода отсутствует",
+                example = "Перевод 100.50 выполнен"
+        )
+        String message
+) {
+    public static TransferStatusResponse pending(UUID transferId) {
+        return new TransferStatusResponse(transferId, "pending", null);
+    }
+
+    public static TransferStatusResponse success(UUID transferId, String message) {
+        return new TransferStatusResponse(transferId, "success", message);
+    }
+
+    public static TransferStatusResponse error(UUID transferId, String message) {
+        return new TransferStatusResponse(transferId, "error", message);
+    }
+}
@@ -12,12 +12,17 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.hibernate.annotations.CreationTimestamp;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.UUID;
 
@@ -37,6 +42,13 @@ public class Card{
     @Column(name = "card_number")
     private String cardNumber;
 
+    /**
+     * HMAC номера карты для поиска по номеру. Номер карты не меняется, поэтому колонка
+     * пишется только при вставке и не затирается при сохранении загруженной раньше карты.
+     */
+    @Column(name = "card_number_hash", updatable = false)
+    private String cardNumberHash;
+
     @Column(name = "expiration_date")
     private LocalDate expirationDate;
 
@@ -47,10 +59,23 @@ public class Card{
     @Column(name = "status")
     private Status status;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private User user;
 
+    @Version
+    @Column(name = "version")
+    private Long version;
+
+    @Column(name = "hot")
+    private boolean hot;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private Instant createdAt;
+
     public String getMaskedCardNumber(){
         if (cardNumber == null || cardNumber.length() != 16) {
             throw new IllegalArgumentException("Card number must be 16 digits");
@@ -0,0 +1,46 @@
+package com.example.bankcards.entity.card;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Часть баланса горячей карты. Зачисления на горячую карту распределяются по частям, чтобы не
+ * упираться в блокировку одной строки cards; полный баланс карты - balance карты плюс сумма частей.
+ */
+@Entity
+@Table(name = "card_balance_stripes")
+@IdClass(CardBalanceStripe.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardBalanceStripe {
+
+    @Id
+    @Column(name = "card_id")
+    private UUID cardId;
+
+    @Id
+    @Column(name = "stripe")
+    private int stripe;
+
+    @Column(name = "balance")
+    private BigDecimal balance;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private UUID cardId;
+        private int stripe;
+    }
+}
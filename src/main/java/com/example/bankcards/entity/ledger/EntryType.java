@@ -0,0 +1,12 @@
+package com.example.bankcards.entity.ledger;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Тип проводки по карте", enumAsRef = true)
+public enum EntryType {
+    @Schema(description = "Списание с карты-отправителя")
+    DEBIT,
+
+    @Schema(description = "Зачисление на карту-получателя")
+    CREDIT
+}
@@ -0,0 +1,67 @@
+package com.example.bankcards.entity.ledger;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Проводка журнала переводов. Каждый перевод порождает пару DEBIT/CREDIT с общим transferId,
+ * поэтому сумма amount по всем проводкам перевода равна нулю. Строки только добавляются:
+ * изменение и удаление запрещены триггером в БД.
+ * <p>
+ * id берётся из ledger_entries_seq блоками по размеру JDBC-пакета, так что вставка пакета проводок
+ * не ждёт nextval на каждую строку. Порядок id между экземплярами приложения поэтому не совпадает
+ * с порядком записи, см. {@code LedgerEntryRepository#findAfter}.
+ */
+@Entity
+@Immutable
+@Table(name = "ledger_entries")
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ledger_entries_seq")
+    @SequenceGenerator(name = "ledger_entries_seq", sequenceName = "ledger_entries_seq", allocationSize = 50)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "transfer_id")
+    private UUID transferId;
+
+    @Column(name = "card_id")
+    private UUID cardId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "entry_type")
+    private EntryType entryType;
+
+    @Column(name = "amount")
+    private BigDecimal amount;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    public static LedgerEntry debit(UUID transferId, UUID cardId, BigDecimal amount, Instant createdAt) {
+        return new LedgerEntry(null, transferId, cardId, EntryType.DEBIT, amount.negate(), createdAt);
+    }
+
+    public static LedgerEntry credit(UUID transferId, UUID cardId, BigDecimal amount, Instant createdAt) {
+        return new LedgerEntry(null, transferId, cardId, EntryType.CREDIT, amount, createdAt);
+    }
+}
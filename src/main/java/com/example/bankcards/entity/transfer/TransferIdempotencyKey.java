@@ -0,0 +1,62 @@
+package com.example.bankcards.entity.transfer;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Выполненный перевод, повтор которого с тем же Idempotency-Key должен вернуть сохранённый ответ.
+ * Параметры исходного запроса хранятся, чтобы отличить повтор от повторного использования ключа.
+ * <p>
+ * В режиме IN_MEMORY ключ занимается до перевода строкой с completed = false и id перевода движка,
+ * а завершённой строка становится в транзакции, которая сохраняет перевод в БД.
+ */
+@Entity
+@Table(name = "transfer_idempotency_keys")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferIdempotencyKey {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Column(name = "id")
+    private UUID id;
+
+    @Column(name = "user_email")
+    private String userEmail;
+
+    @Column(name = "idempotency_key")
+    private String idempotencyKey;
+
+    @Column(name = "from_card_id")
+    private UUID fromCardId;
+
+    @Column(name = "to_card_id")
+    private UUID toCardId;
+
+    @Column(name = "amount")
+    private BigDecimal amount;
+
+    @Column(name = "result")
+    private String result;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    @Column(name = "transfer_id")
+    private UUID transferId;
+
+    @Column(name = "completed")
+    private boolean completed;
+}
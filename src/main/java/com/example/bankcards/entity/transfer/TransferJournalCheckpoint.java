@@ -0,0 +1,29 @@
+package com.example.bankcards.entity.transfer;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Последняя запись журнала раздела движка переводов, изменения которой уже сохранены в cards.
+ * Обновляется в одной транзакции с балансами, поэтому при восстановлении повторяются
+ * ровно записи с большим номером.
+ */
+@Entity
+@Table(name = "transfer_journal_checkpoints")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferJournalCheckpoint {
+
+    @Id
+    @Column(name = "partition_id")
+    private Integer partitionId;
+
+    @Column(name = "last_sequence")
+    private long lastSequence;
+}
@@ -0,0 +1,40 @@
+package com.example.bankcards.entity.user;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Итоги по картам пользователя. Части баланса горячей карты входят в итоги после их переноса в balance карты.
+ * Строка меняется приращениями в транзакциях операций с картами, см. UserBalanceSummaries.
+ */
+@Entity
+@Table(name = "user_balance_summary")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserBalanceSummary {
+
+    @Id
+    @Column(name = "user_id")
+    private UUID userId;
+
+    @Column(name = "total")
+    private BigDecimal total;
+
+    @Column(name = "active_total")
+    private BigDecimal activeTotal;
+
+    @Column(name = "card_count")
+    private int cardCount;
+
+    @Column(name = "version")
+    private long version;
+}
@@ -2,7 +2,11 @@ package com.example.bankcards.exception;
 
 import com.example.bankcards.dto.ErrorResponse;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -39,6 +43,19 @@ public class GlobalExceptionHandler {
         );
     }
 
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(MethodArgumentNotValidException.class)
+    public ErrorResponse handleValidation(MethodArgumentNotValidException e, HttpServletRequest request) {
+        FieldError fieldError = e.getBindingResult().getFieldError();
+        return new ErrorResponse(
+                request.getRequestURI(),
+                formatStatus(HttpStatus.BAD_REQUEST),
+                BAD_REQUEST_MESSAGE,
+                fieldError != null ? fieldError.getDefaultMessage() : "Некорректный запрос",
+                LocalDateTime.now()
+        );
+    }
+
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     @ExceptionHandler(Exception.class)
     public ErrorResponse handleAll(Exception e, HttpServletRequest request) {
@@ -87,6 +104,20 @@ public class GlobalExceptionHandler {
         );
     }
 
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ErrorResponse handleTooManyRequests(TooManyRequestsException e, HttpServletRequest request,
+                                               HttpServletResponse response) {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfter().toSeconds())));
+        return new ErrorResponse(
+                request.getRequestURI(),
+                formatStatus(HttpStatus.TOO_MANY_REQUESTS),
+                "TOO MANY REQUESTS",
+                e.getMessage(),
+                LocalDateTime.now()
+        );
+    }
+
     private String formatStatus(HttpStatus status) {
         return status.value() + " " + status.getReasonPhrase().toUpperCase();
     }
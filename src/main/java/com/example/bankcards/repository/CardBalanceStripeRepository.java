@@ -0,0 +1,46 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.card.CardBalanceStripe;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface CardBalanceStripeRepository extends JpaRepository<CardBalanceStripe, CardBalanceStripe.Key> {
+
+    /**
+     * Зачисляет сумму в часть баланса, если карта горячая и не заблокирована; строка карты при этом
+     * только читается. Часть создаётся при первом зачислении. Возвращает 0, если зачисление не выполнено.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO card_balance_stripes (card_id, stripe, balance) " +
+            "SELECT c.id, :stripe, :amount FROM cards c " +
+            "WHERE c.id = :cardId AND c.hot AND c.status <> 'BLOCKED' " +
+            "ON CONFLICT (card_id, stripe) DO UPDATE SET balance = card_balance_stripes.balance + EXCLUDED.balance")
+    int creditIfHot(@Param("cardId") UUID cardId, @Param("stripe") int stripe, @Param("amount") BigDecimal amount);
+
+    /**
+     * Загружает все части баланса карты с блокировкой строк в порядке номера части.
+     * Вызывается только после блокировки строки самой карты.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM CardBalanceStripe s WHERE s.cardId = :cardId ORDER BY s.stripe")
+    List<CardBalanceStripe> findByCardIdForUpdate(@Param("cardId") UUID cardId);
+
+    /**
+     * Зачисления карты, ещё не перенесённые из частей баланса в balance.
+     */
+    @Query("SELECT COALESCE(SUM(s.balance), 0) FROM CardBalanceStripe s WHERE s.cardId = :cardId")
+    BigDecimal sumByCardId(@Param("cardId") UUID cardId);
+
+    @Query("SELECT DISTINCT s.cardId FROM CardBalanceStripe s WHERE s.balance <> 0")
+    List<UUID> findCardIdsWithUnfoldedBalance();
+}
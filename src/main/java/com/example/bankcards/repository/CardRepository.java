@@ -1,16 +1,208 @@
 package com.example.bankcards.repository;
 
+import com.example.bankcards.dto.card.ResponseDto;
 import com.example.bankcards.entity.card.Card;
-import com.example.bankcards.entity.user.User;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import com.example.bankcards.entity.card.Status;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface CardRepository extends JpaRepository<Card, UUID> {
-    Page<Card> findByUser(User user, Pageable pageable);
+    int EXPORT_FETCH_SIZE = 500;
+
+    /**
+     * Карты пользователя с полным балансом: balance и части баланса горячей карты.
+     */
+    String USER_AVAILABLE_BALANCES = "FROM cards c JOIN users u ON u.id = c.user_id "
+            + "LEFT JOIN LATERAL (SELECT SUM(s.balance) AS total FROM card_balance_stripes s "
+            + "WHERE s.card_id = c.id) stripes ON true "
+            + "WHERE u.email = :email ";
+
+    /**
+     * Поля ResponseDto, вычисляемые в запросе: маска номера, имя держателя и полный баланс
+     * (balance и части баланса горячей карты). Из users читаются только имя и фамилия,
+     * сущности в контекст персистентности не попадают.
+     */
+    String CARD_VIEW_COLUMNS = "c.id, CONCAT('**** **** **** ', SUBSTRING(c.cardNumber, 13, 4)), "
+            + "CONCAT(u.firstName, ' ', u.lastName), c.expirationDate, "
+            + "c.balance + COALESCE((SELECT SUM(s.balance) FROM CardBalanceStripe s WHERE s.cardId = c.id), 0), c.status";
+    String CARD_VIEW_FROM = "FROM Card c JOIN c.user u ";
+
+    /**
+     * Строка списка карт пользователя: ответ и ключ created_at для курсора следующей страницы.
+     */
+    record UserCardRow(UUID id, String maskedCardNumber, String cardHolder, LocalDate expirationDate,
+                       BigDecimal balance, Status status, Instant createdAt) {
+
+        public ResponseDto toDto() {
+            return new ResponseDto(id, maskedCardNumber, cardHolder, expirationDate, balance, status);
+        }
+    }
+
+    /**
+     * Сумма балансов карт пользователя одного статуса.
+     */
+    interface StatusBalance {
+        Status getStatus();
+
+        BigDecimal getBalance();
+    }
+
+    /**
+     * Баланс и статус одной карты без загрузки сущности.
+     */
+    interface CardBalance {
+        UUID getId();
+
+        Status getStatus();
+
+        BigDecimal getBalance();
+    }
+
+    /**
+     * Карты пользователя от новых к старым, начиная с первой. Следующие страницы читает
+     * {@link #findUserCardsBefore}; вместе они идут по индексу (user_id, created_at, id)
+     * без OFFSET и без подсчёта общего числа строк.
+     */
+    @Query("SELECT new com.example.bankcards.repository.CardRepository$UserCardRow(" + CARD_VIEW_COLUMNS
+            + ", c.createdAt) " + CARD_VIEW_FROM + "WHERE c.user.id = :userId ORDER BY c.createdAt DESC, c.id DESC")
+    List<UserCardRow> findUserCards(@Param("userId") UUID userId, Limit limit);
+
+    /**
+     * Карты пользователя, идущие после карты с ключом (createdAt, id) в порядке от новых к старым.
+     */
+    @Query("SELECT new com.example.bankcards.repository.CardRepository$UserCardRow(" + CARD_VIEW_COLUMNS
+            + ", c.createdAt) " + CARD_VIEW_FROM + "WHERE c.user.id = :userId "
+            + "AND (c.createdAt < :createdAt OR (c.createdAt = :createdAt AND c.id < :id)) "
+            + "ORDER BY c.createdAt DESC, c.id DESC")
+    List<UserCardRow> findUserCardsBefore(@Param("userId") UUID userId, @Param("createdAt") Instant createdAt,
+                                          @Param("id") UUID id, Limit limit);
+
+    /**
+     * Суммы балансов карт пользователя по статусам одним запросом, без загрузки сущностей.
+     * Статусы, по которым у пользователя нет карт, в результат не попадают.
+     */
+    @Query(value = "SELECT c.status AS status, SUM(c.balance + COALESCE(stripes.total, 0)) AS balance "
+            + USER_AVAILABLE_BALANCES + "GROUP BY c.status", nativeQuery = true)
+    List<StatusBalance> sumBalancesByStatus(@Param("email") String email);
+
+    /**
+     * Балансы карт пользователя по отдельности; нужны, когда баланс части карт берётся не из БД.
+     */
+    @Query(value = "SELECT c.id AS id, c.status AS status, c.balance + COALESCE(stripes.total, 0) AS balance "
+            + USER_AVAILABLE_BALANCES, nativeQuery = true)
+    List<CardBalance> findBalancesByEmail(@Param("email") String email);
+
+    List<Card> findByIdIn(Collection<UUID> ids);
+
+    /**
+     * Все карты с владельцами для загрузки движка переводов в память.
+     */
+    @Query("SELECT c FROM Card c JOIN FETCH c.user")
+    List<Card> findAllWithUser();
+
+    @Query("SELECT c FROM Card c JOIN FETCH c.user WHERE c.id = :id")
+    Optional<Card> findWithUserById(@Param("id") UUID id);
+
+    /**
+     * Все карты в порядке id сразу в виде ответов. Строки читаются курсором порциями
+     * по EXPORT_FETCH_SIZE, поэтому поток нужно читать внутри транзакции и закрыть после чтения.
+     */
+    @QueryHints(@QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "" + EXPORT_FETCH_SIZE))
+    @Query("SELECT new com.example.bankcards.dto.card.ResponseDto(" + CARD_VIEW_COLUMNS + ") "
+            + CARD_VIEW_FROM + "ORDER BY c.id")
+    Stream<ResponseDto> streamAllViews();
+
+    /**
+     * Страница карт с id больше after в порядке id (постраничная выборка по ключу).
+     */
+    @Query("SELECT new com.example.bankcards.dto.card.ResponseDto(" + CARD_VIEW_COLUMNS + ") "
+            + CARD_VIEW_FROM + "WHERE c.id > :after ORDER BY c.id")
+    List<ResponseDto> findViewsAfter(@Param("after") UUID after, Limit limit);
+
+    /**
+     * Карта по HMAC номера: один проход по уникальному индексу idx_cards_card_number_hash.
+     */
+    @Query("SELECT new com.example.bankcards.dto.card.ResponseDto(" + CARD_VIEW_COLUMNS + ") "
+            + CARD_VIEW_FROM + "WHERE c.cardNumberHash = :hash")
+    Optional<ResponseDto> findViewByCardNumberHash(@Param("hash") String hash);
+
+    boolean existsByCardNumberHash(String cardNumberHash);
+
+    /**
+     * Номер карты без HMAC; нужен для заполнения card_number_hash у карт, созданных до его появления.
+     */
+    interface CardNumber {
+        UUID getId();
+
+        String getCardNumber();
+    }
+
+    @Query("SELECT c.id AS id, c.cardNumber AS cardNumber FROM Card c "
+            + "WHERE c.cardNumberHash IS NULL AND c.id > :after ORDER BY c.id")
+    List<CardNumber> findUnhashedAfter(@Param("after") UUID after, Limit limit);
+
+    /**
+     * Записывает HMAC номера, если он ещё не записан и не занят другой картой с тем же номером.
+     * Возвращает число изменённых строк: 0 - карта пропущена.
+     */
+    @Modifying
+    @Query("UPDATE Card c SET c.cardNumberHash = :hash WHERE c.id = :id AND c.cardNumberHash IS NULL "
+            + "AND NOT EXISTS (SELECT 1 FROM Card o WHERE o.cardNumberHash = :hash)")
+    int setCardNumberHash(@Param("id") UUID id, @Param("hash") String hash);
+
+    /**
+     * Загружает карту с блокировкой строки (SELECT ... FOR UPDATE) до конца текущей транзакции.
+     * Вызывающий код обязан брать блокировки нескольких карт в фиксированном порядке id.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Card c WHERE c.id = :id")
+    Optional<Card> findByIdForUpdate(@Param("id") UUID id);
+
+    /**
+     * Списывает сумму одним UPDATE, если сумма положительна, карта принадлежит пользователю,
+     * не заблокирована и на ней достаточно средств. Возвращает число изменённых строк: 0 - списание не выполнено.
+     */
+    @Modifying
+    @Query("UPDATE Card c SET c.balance = c.balance - :amount, c.version = c.version + 1 " +
+            "WHERE c.id = :id AND c.status <> com.example.bankcards.entity.card.Status.BLOCKED " +
+            "AND :amount > 0 AND c.balance >= :amount " +
+            "AND c.user.id = (SELECT u.id FROM User u WHERE u.email = :email)")
+    int debitIfAllowed(@Param("id") UUID id, @Param("amount") BigDecimal amount, @Param("email") String email);
+
+    /**
+     * Зачисляет сумму одним UPDATE, если карта не заблокирована и не горячая: зачисления на горячую
+     * карту идут в части баланса. Возвращает число изменённых строк.
+     */
+    @Modifying
+    @Query("UPDATE Card c SET c.balance = c.balance + :amount, c.version = c.version + 1 " +
+            "WHERE c.id = :id AND c.status <> com.example.bankcards.entity.card.Status.BLOCKED " +
+            "AND c.hot = false")
+    int creditIfAllowed(@Param("id") UUID id, @Param("amount") BigDecimal amount);
+
+    /**
+     * Прибавляет к балансу карты накопленное изменение. Используется при сбросе движка переводов в БД.
+     */
+    @Modifying
+    @Query("UPDATE Card c SET c.balance = c.balance + :delta, c.version = c.version + 1 WHERE c.id = :id")
+    int addToBalance(@Param("id") UUID id, @Param("delta") BigDecimal delta);
 }
@@ -0,0 +1,31 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.ledger.LedgerEntry;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long> {
+    /**
+     * Проводки после курсора (created_at, id) в его порядке - для инкрементальной обработки журнала.
+     * Номера выделяются блоками по 50 на экземпляр приложения, поэтому курсором служит время проводки,
+     * а номер только различает проводки с одинаковым временем. Проводка видна лишь после коммита,
+     * так что потребитель передаёт upTo с отставанием от текущего времени больше самой длинной
+     * транзакции перевода и расхождения часов экземпляров.
+     * <p>
+     * В режиме IN_MEMORY проводки пишет фоновый сброс движка, и created_at - время начала сброса,
+     * а не подтверждения перевода клиенту: проводка появляется позже перевода на интервал сброса,
+     * а самой длинной транзакцией для отставания upTo считается транзакция сброса.
+     */
+    @Query("SELECT e FROM LedgerEntry e WHERE (e.createdAt > :afterCreatedAt " +
+            "OR (e.createdAt = :afterCreatedAt AND e.id > :afterId)) AND e.createdAt < :upTo " +
+            "ORDER BY e.createdAt, e.id")
+    List<LedgerEntry> findAfter(@Param("afterCreatedAt") Instant afterCreatedAt, @Param("afterId") Long afterId,
+                                @Param("upTo") Instant upTo, Limit limit);
+}
@@ -0,0 +1,57 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.transfer.TransferIdempotencyKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface TransferIdempotencyKeyRepository extends JpaRepository<TransferIdempotencyKey, UUID> {
+    Optional<TransferIdempotencyKey> findByUserEmailAndIdempotencyKey(String userEmail, String idempotencyKey);
+
+    /**
+     * Занимает ключ незавершённым переводом движка в отдельной короткой транзакции.
+     * Возвращает 0, если ключ уже занят.
+     */
+    @Transactional
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO transfer_idempotency_keys (user_email, idempotency_key, " +
+            "from_card_id, to_card_id, amount, result, created_at, transfer_id, completed) " +
+            "VALUES (:userEmail, :idempotencyKey, :fromCardId, :toCardId, :amount, :result, :createdAt, :transferId, false) " +
+            "ON CONFLICT (user_email, idempotency_key) DO NOTHING")
+    int insertPending(@Param("userEmail") String userEmail, @Param("idempotencyKey") String idempotencyKey,
+                      @Param("fromCardId") UUID fromCardId, @Param("toCardId") UUID toCardId,
+                      @Param("amount") BigDecimal amount, @Param("result") String result,
+                      @Param("createdAt") Instant createdAt, @Param("transferId") UUID transferId);
+
+    /**
+     * Удаляет ключ незавершённого перевода в отдельной короткой транзакции; завершённый ключ остаётся.
+     */
+    @Transactional
+    @Modifying
+    @Query(nativeQuery = true, value = "DELETE FROM transfer_idempotency_keys WHERE transfer_id = :transferId AND NOT completed")
+    int deletePending(@Param("transferId") UUID transferId);
+
+    @Modifying
+    @Query("UPDATE TransferIdempotencyKey k SET k.completed = true WHERE k.transferId IN :transferIds AND k.completed = false")
+    int markCompleted(@Param("transferIds") Collection<UUID> transferIds);
+
+    /**
+     * Удаляет не больше limit ключей, созданных раньше cutoff, в отдельной короткой транзакции.
+     * Возвращает число удалённых строк.
+     */
+    @Transactional
+    @Modifying
+    @Query(nativeQuery = true, value = "DELETE FROM transfer_idempotency_keys WHERE id IN (" +
+            "SELECT id FROM transfer_idempotency_keys WHERE created_at < :cutoff LIMIT :limit)")
+    int deleteCreatedBefore(@Param("cutoff") Instant cutoff, @Param("limit") int limit);
+}
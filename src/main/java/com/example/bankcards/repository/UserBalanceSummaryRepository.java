@@ -0,0 +1,131 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.user.UserBalanceSummary;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface UserBalanceSummaryRepository extends JpaRepository<UserBalanceSummary, UUID> {
+
+    /**
+     * Прибавляет приращения к итогам пользователя; строка итогов создаётся при первом изменении.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO user_balance_summary (user_id, total, active_total, card_count, version) " +
+            "VALUES (:userId, :total, :activeTotal, :cardCount, 1) " +
+            "ON CONFLICT (user_id) DO UPDATE SET total = user_balance_summary.total + EXCLUDED.total, " +
+            "active_total = user_balance_summary.active_total + EXCLUDED.active_total, " +
+            "card_count = user_balance_summary.card_count + EXCLUDED.card_count, " +
+            "version = user_balance_summary.version + 1")
+    int add(@Param("userId") UUID userId, @Param("total") BigDecimal total,
+            @Param("activeTotal") BigDecimal activeTotal, @Param("cardCount") int cardCount);
+
+    /**
+     * Прибавляет изменение баланса карты к итогам её владельца с учётом текущего статуса карты.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO user_balance_summary (user_id, total, active_total, card_count, version) " +
+            "SELECT c.user_id, :delta, CASE WHEN c.status = 'ACTIVE' THEN :delta ELSE 0 END, 0, 1 " +
+            "FROM cards c WHERE c.id = :cardId " +
+            "ON CONFLICT (user_id) DO UPDATE SET total = user_balance_summary.total + EXCLUDED.total, " +
+            "active_total = user_balance_summary.active_total + EXCLUDED.active_total, " +
+            "version = user_balance_summary.version + 1")
+    int addToCardOwner(@Param("cardId") UUID cardId, @Param("delta") BigDecimal delta);
+
+    /**
+     * Переносит сумму перевода между итогами владельцев карт и увеличивает их версии: балансы карт
+     * меняются, даже когда итоги остаются прежними (карты одного пользователя с одинаковой
+     * активностью). Строка итогов создаётся, если её ещё нет, как в {@link #add}. Строки пишутся
+     * в порядке возрастания user_id, поэтому встречные переводы между двумя пользователями
+     * не образуют взаимоблокировку.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO user_balance_summary (user_id, total, active_total, card_count, version) " +
+            "SELECT c.user_id, " +
+            "SUM((CASE WHEN c.id = :toCardId THEN 1 ELSE 0 END) - (CASE WHEN c.id = :fromCardId THEN 1 ELSE 0 END)) " +
+            "* :amount, " +
+            "SUM(CASE WHEN c.status <> 'ACTIVE' THEN 0 " +
+            "ELSE (CASE WHEN c.id = :toCardId THEN 1 ELSE 0 END) - (CASE WHEN c.id = :fromCardId THEN 1 ELSE 0 END) END) " +
+            "* :amount, 0, 1 " +
+            "FROM cards c WHERE c.id IN (:fromCardId, :toCardId) GROUP BY c.user_id ORDER BY c.user_id " +
+            "ON CONFLICT (user_id) DO UPDATE SET total = user_balance_summary.total + EXCLUDED.total, " +
+            "active_total = user_balance_summary.active_total + EXCLUDED.active_total, " +
+            "version = user_balance_summary.version + 1")
+    int applyTransfer(@Param("fromCardId") UUID fromCardId, @Param("toCardId") UUID toCardId,
+                      @Param("amount") BigDecimal amount);
+
+    @Query("SELECT s.version FROM UserBalanceSummary s WHERE s.userId = :userId")
+    Optional<Long> findVersion(@Param("userId") UUID userId);
+
+    /**
+     * Баланс активных карт пользователя: итог по balance карт и несвёрнутые части баланса активных карт.
+     * Части читаются тем же запросом, что и итог, поэтому перенос частей в balance не учитывается дважды.
+     */
+    @Query("SELECT s.activeTotal + COALESCE((SELECT SUM(st.balance) FROM CardBalanceStripe st, Card c " +
+            "WHERE st.cardId = c.id AND c.user.id = s.userId " +
+            "AND c.status = com.example.bankcards.entity.card.Status.ACTIVE), 0) " +
+            "FROM UserBalanceSummary s WHERE s.userId = :userId")
+    Optional<BigDecimal> findActiveBalance(@Param("userId") UUID userId);
+
+    /**
+     * Версия итогов пользователя вместе с несвёрнутыми частями баланса его карт. Оба значения читаются
+     * одним запросом из одного снимка: перенос частей между двумя чтениями дал бы пару, которой не было.
+     */
+    @Query("SELECT s.version AS version, COALESCE((SELECT SUM(st.balance) FROM CardBalanceStripe st, Card c " +
+            "WHERE st.cardId = c.id AND c.user.id = s.userId), 0) AS unfolded " +
+            "FROM UserBalanceSummary s WHERE s.userId = :userId")
+    Optional<CardsVersion> findCardsVersion(@Param("userId") UUID userId);
+
+    /**
+     * Создаёт нулевые итоги пользователям с картами, у которых строки итогов нет.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO user_balance_summary (user_id) " +
+            "SELECT DISTINCT c.user_id FROM cards c ON CONFLICT (user_id) DO NOTHING")
+    int insertMissing();
+
+    List<UserBalanceSummary> findByUserIdGreaterThanOrderByUserIdAsc(UUID after, Limit limit);
+
+    @Query(nativeQuery = true, value = "SELECT user_id FROM user_balance_summary " +
+            "WHERE user_id IN (:userIds) ORDER BY user_id FOR UPDATE")
+    List<UUID> lockAll(@Param("userIds") Collection<UUID> userIds);
+
+    /**
+     * Пересчитывает итоги пользователей по balance карт и записывает те, что разошлись с картами.
+     * Несвёрнутые части баланса горячих карт не учитываются: они прибавятся к итогам при переносе.
+     * Вызывается после {@link #lockAll}: пересчёт видит все переводы, уже изменившие эти итоги,
+     * а переводы, ещё не дошедшие до итогов, прибавят свои приращения к пересчитанным значениям.
+     * Возвращает число исправленных строк.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "UPDATE user_balance_summary s SET total = a.total, " +
+            "active_total = a.active_total, card_count = a.card_count, version = s.version + 1 " +
+            "FROM (SELECT u.id AS user_id, " +
+            "COALESCE(SUM(c.balance), 0) AS total, " +
+            "COALESCE(SUM(CASE WHEN c.status = 'ACTIVE' THEN c.balance ELSE 0 END), 0) AS active_total, " +
+            "COUNT(c.id) AS card_count " +
+            "FROM users u LEFT JOIN cards c ON c.user_id = u.id " +
+            "WHERE u.id IN (:userIds) GROUP BY u.id) a " +
+            "WHERE s.user_id = a.user_id " +
+            "AND (s.total, s.active_total, s.card_count) IS DISTINCT FROM (a.total, a.active_total, a.card_count)")
+    int recompute(@Param("userIds") Collection<UUID> userIds);
+
+    /**
+     * Версия итогов и сумма зачислений карт пользователя, ещё не перенесённых из частей баланса.
+     */
+    interface CardsVersion {
+        long getVersion();
+
+        BigDecimal getUnfolded();
+    }
+}
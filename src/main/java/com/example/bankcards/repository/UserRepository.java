@@ -2,7 +2,11 @@ package com.example.bankcards.repository;
 
 import com.example.bankcards.entity.user.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 import java.util.UUID;
@@ -11,4 +15,15 @@ import java.util.UUID;
 public interface UserRepository extends JpaRepository<User, UUID> {
     Optional<User> findByEmail(String email);
     boolean existsByEmail(String email);
+
+    /**
+     * Заменяет хеш пароля, только если он не менялся с момента чтения: параллельная смена
+     * пароля не перетирается. Возвращает число обновлённых строк.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.password = :newPassword WHERE u.id = :id AND u.password = :oldPassword")
+    int replacePassword(@Param("id") UUID id,
+                        @Param("oldPassword") String oldPassword,
+                        @Param("newPassword") String newPassword);
 }
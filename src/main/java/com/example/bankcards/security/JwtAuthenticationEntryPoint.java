@@ -33,8 +33,11 @@ public class JwtAuthenticationEntryPoint implements AuthenticationEntryPoint {
                 LocalDateTime.now()
         );
 
+        // С Content-Length короткий ответ не сжимается: порог сжатия Tomcat проверяет только по нему
+        byte[] body = objectMapper.writeValueAsBytes(errorResponse);
         response.setContentType("application/json");
         response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-        response.getWriter().write(objectMapper.writeValueAsString(errorResponse));
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
     }
 }
@@ -1,7 +1,6 @@
 package com.example.bankcards.security;
 
 import com.example.bankcards.service.auth.JwtService;
-import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -9,15 +8,12 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
 
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
@@ -54,18 +50,14 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         final String jwt = authHeader.substring(7);
 
         try {
-            if (!jwtService.isTokenValid(jwt)) {
-                throw new JwtException("Ошибка проверки подписи JWT токена");
-            }
-
-            String username = jwtService.extractUsername(jwt);
-            List<SimpleGrantedAuthority> authorities = extractAuthoritiesFromToken(jwt);
+            // Подпись проверяется один раз на токен: повторные запросы берут пользователя из кэша
+            JwtPrincipal principal = jwtService.authenticate(jwt);
 
-            if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+            if (principal.email() != null && SecurityContextHolder.getContext().getAuthentication() == null) {
                 UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        username,
+                        principal,
                         null,
-                        authorities
+                        principal.authorities()
                 );
                 authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authToken);
@@ -78,17 +70,4 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                     new org.springframework.security.core.AuthenticationException(e.getMessage()) {});
         }
     }
-
-    private List<SimpleGrantedAuthority> extractAuthoritiesFromToken(String token) {
-        try {
-            Claims claims = jwtService.extractAllClaims(token);
-            String role = claims.get("role", String.class);
-            if (role != null && !role.trim().isEmpty()) {
-                String authority = role.startsWith("ROLE_") ? role : "ROLE_" + role;
-                return List.of(new SimpleGrantedAuthority(authority));
-            }
-        } catch (JwtException ignored) {
-        }
-        return Collections.emptyList();
-    }
-}
+}
\ No newline at end of file
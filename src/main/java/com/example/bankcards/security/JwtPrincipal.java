@@ -0,0 +1,39 @@
+package com.example.bankcards.security;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Пользователь из проверенного access-токена. Собирается из уже разобранных claims, поэтому
+ * фильтру хватает одной проверки подписи на запрос. getName() возвращает email, так что
+ * Authentication.getName() в контроллерах не меняется.
+ */
+public record JwtPrincipal(String email, String role, UUID userId) implements Principal {
+
+    public static JwtPrincipal of(Claims claims) {
+        String userId = claims.get("userId", String.class);
+        return new JwtPrincipal(
+                claims.getSubject(),
+                claims.get("role", String.class),
+                userId == null ? null : UUID.fromString(userId)
+        );
+    }
+
+    @Override
+    public String getName() {
+        return email;
+    }
+
+    public List<SimpleGrantedAuthority> authorities() {
+        if (role == null || role.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        String authority = role.startsWith("ROLE_") ? role : "ROLE_" + role;
+        return List.of(new SimpleGrantedAuthority(authority));
+    }
+}
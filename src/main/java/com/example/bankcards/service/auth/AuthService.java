@@ -7,24 +7,35 @@ import com.example.bankcards.exception.InvalidCredentialsException;
 import com.example.bankcards.exception.JWTValidException;
 import com.example.bankcards.exception.NotFoundException;
 import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.service.user.UserLookup;
+import com.example.bankcards.service.user.UserLookupCache;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class AuthService {
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordVerifier passwordVerifier;
     private final JwtService jwtService;
+    private final UserLookupCache userLookupCache;
 
     public AuthResponse login(LoginRequest request) {
         User user = userRepository.findByEmail(request.email())
                 .orElseThrow(() -> new NotFoundException("Пользователь не найден"));
 
-        if (!passwordEncoder.matches(request.password(), user.getPassword())) {
+        PasswordVerifier.Verification verification = passwordVerifier.verify(request.password(), user.getPassword());
+        if (!verification.matches()) {
             throw new InvalidCredentialsException("Неверный пароль");
         }
+        if (verification.upgradedPassword() != null) {
+            upgradePassword(user, verification.upgradedPassword());
+        }
+        // Пароль проверяется только по базе, а данные для последующих запросов берутся из кэша
+        userLookupCache.remember(user);
 
         String accessToken = jwtService.generateToken(user);
         String refreshToken = jwtService.generateRefreshToken(user);
@@ -38,19 +49,33 @@ public class AuthService {
         );
     }
 
+    /**
+     * Переписывает хеш пароля текущим алгоритмом и стоимостью. Ошибка записи не мешает входу:
+     * хеш обновится при следующем входе.
+     */
+    private void upgradePassword(User user, String upgradedPassword) {
+        try {
+            if (userRepository.replacePassword(user.getId(), user.getPassword(), upgradedPassword) == 1) {
+                user.setPassword(upgradedPassword);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Не удалось обновить хеш пароля пользователя {}", user.getId(), e);
+        }
+    }
+
     public AuthResponse refreshToken(LoginRequest request) {
-        User user = userRepository.findByEmail(request.email())
+        UserLookup user = userLookupCache.find(request.email())
                 .orElseThrow(() -> new NotFoundException("Пользователь не найден"));
 
-        String newAccessToken = jwtService.generateToken(user);
-        String newRefreshToken = jwtService.generateRefreshToken(user);
+        String newAccessToken = jwtService.generateToken(user.id(), user.email(), user.role(), user.fullName());
+        String newRefreshToken = jwtService.generateRefreshToken(user.id(), user.email(), user.role(), user.fullName());
 
         return new AuthResponse(
                 newAccessToken,
                 newRefreshToken,
-                user.getEmail(),
-                user.getRole().name(),
-                user.getFullName()
+                user.email(),
+                user.role().name(),
+                user.fullName()
         );
     }
 }
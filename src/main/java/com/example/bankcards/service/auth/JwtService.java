@@ -1,27 +1,46 @@
 package com.example.bankcards.service.auth;
 
+import com.example.bankcards.entity.user.Role;
 import com.example.bankcards.entity.user.User;
 import com.example.bankcards.exception.JWTValidException;
 import com.example.bankcards.exception.JwtAuthenticationException;
+import com.example.bankcards.security.JwtPrincipal;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class JwtService {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String VERIFIED_CACHE_NAME = "jwt.verified";
+
     @Value("${jwt.secret}")
     private String secret;
 
@@ -31,38 +50,98 @@ public class JwtService {
     @Value("${jwt.refresh-expiration}")
     private long refreshTokenExpiration;
 
-    private Key getSigningKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(secret);
-        return Keys.hmacShaKeyFor(keyBytes);
+    private volatile SigningKey signingKey;
+
+    private final MessageDigest digestPrototype;
+    private final Cache<ByteBuffer, VerifiedToken> verifiedTokens;
+
+    public JwtService(MeterRegistry meterRegistry,
+                      @Value("${jwt.verified-cache.size:10000}") long verifiedCacheSize) {
+        try {
+            digestPrototype = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Не удалось инициализировать дайджест токена", e);
+        }
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheSize)
+                .expireAfter(new Expiry<ByteBuffer, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(ByteBuffer key, VerifiedToken value, long currentTime) {
+                        long left = value.expiresAt().getTime() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(left, 0));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(ByteBuffer key, VerifiedToken value, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(ByteBuffer key, VerifiedToken value, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, VERIFIED_CACHE_NAME);
+        Gauge.builder("cache.hit.ratio", verifiedTokens, cache -> cache.stats().hitRate())
+                .tag("cache", VERIFIED_CACHE_NAME)
+                .description("Доля запросов, прошедших без проверки подписи токена")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ключ подписи и парсер собираются один раз: JwtParser неизменяем и потокобезопасен.
+     * Повторный вызов после смены jwt.secret заменяет их целиком, так что запросы видят
+     * либо старую, либо новую пару.
+     */
+    @PostConstruct
+    public void init() {
+        Key key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret));
+        signingKey = new SigningKey(key, Jwts.parserBuilder().setSigningKey(key).build());
+        // Смена ключа отзывает все выданные токены, поэтому проверенные ранее тоже забываются
+        verifiedTokens.invalidateAll();
     }
 
     public String generateToken(User user) {
+        return generateToken(user.getId(), user.getEmail(), user.getRole(), user.getFullName());
+    }
+
+    public String generateToken(UUID userId, String email, Role role, String fullName) {
         Map<String, Object> claims = new HashMap<>();
-        claims.put("role", user.getRole());
-        claims.put("fullName", user.getFullName());
+        claims.put("userId", userId);
+        claims.put("role", role);
+        claims.put("fullName", fullName);
         claims.put("type", "access");
 
         return Jwts.builder()
                 .setClaims(claims)
-                .setSubject(user.getEmail())
+                .setSubject(email)
                 .setIssuedAt(new Date())
                 .setExpiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .signWith(signingKey.key(), SignatureAlgorithm.HS256)
                 .compact();
     }
 
     public String generateRefreshToken(User user) {
+        return generateRefreshToken(user.getId(), user.getEmail(), user.getRole(), user.getFullName());
+    }
+
+    public String generateRefreshToken(UUID userId, String email, Role role, String fullName) {
         Map<String, Object> claims = new HashMap<>();
-        claims.put("role", user.getRole());
-        claims.put("fullName", user.getFullName());
+        claims.put("userId", userId);
+        claims.put("role", role);
+        claims.put("fullName", fullName);
         claims.put("type", "refresh");
 
         return Jwts.builder()
                 .setClaims(claims)
-                .setSubject(user.getEmail())
+                .setSubject(email)
                 .setIssuedAt(new Date())
                 .setExpiration(new Date(System.currentTimeMillis() + refreshTokenExpiration))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .signWith(signingKey.key(), SignatureAlgorithm.HS256)
                 .compact();
     }
 
@@ -76,9 +155,7 @@ public class JwtService {
 
     public Claims extractAllClaims(String token) {
         try {
-            return Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
+            return signingKey.parser()
                     .parseClaimsJws(token)
                     .getBody();
         } catch (ExpiredJwtException e) {
@@ -95,13 +172,59 @@ public class JwtService {
     }
 
     public boolean isTokenValid(String token) {
+        validateToken(token);
+        return true;
+    }
+
+    /**
+     * Проверяет токен так же, как isTokenValid, и возвращает его claims, чтобы вызывающему
+     * не приходилось разбирать и проверять подпись повторно.
+     */
+    public Claims validateToken(String token) {
         try {
-            extractAllClaims(token);
-            return true;
+            return extractAllClaims(token);
         } catch (JWTValidException | JwtAuthenticationException e) {
             throw e;
         } catch (Exception e) {
             throw new JWTValidException("Ошибка при валидации JWT: " + e.getMessage());
         }
     }
+
+    /**
+     * Проверяет access-токен и возвращает пользователя из него. Проверенные токены кэшируются
+     * по SHA-256 до своего exp, так что повторный запрос с тем же токеном не проверяет подпись
+     * и не разбирает claims. Токены с ошибкой не кэшируются. Кэш сбрасывается вместе со сменой
+     * ключа в {@link #init()}; других способов отзыва токенов нет, и если они появятся, проверку
+     * отзыва нужно делать на каждом запросе, а не только при промахе кэша.
+     * Доля попаданий публикуется метрикой cache.hit.ratio с тегом cache=jwt.verified.
+     */
+    public JwtPrincipal authenticate(String token) {
+        ByteBuffer digest = digest(token);
+        VerifiedToken cached = verifiedTokens.getIfPresent(digest);
+        if (cached != null) {
+            return cached.principal();
+        }
+        Claims claims = validateToken(token);
+        JwtPrincipal principal = JwtPrincipal.of(claims);
+        if (claims.getExpiration() != null) {
+            verifiedTokens.put(digest, new VerifiedToken(principal, claims.getExpiration()));
+        }
+        return principal;
+    }
+
+    private ByteBuffer digest(String token) {
+        try {
+            // MessageDigest не потокобезопасен: каждый вызов работает с копией прототипа
+            MessageDigest digest = (MessageDigest) digestPrototype.clone();
+            return ByteBuffer.wrap(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record SigningKey(Key key, JwtParser parser) {
+    }
+
+    private record VerifiedToken(JwtPrincipal principal, Date expiresAt) {
+    }
 }
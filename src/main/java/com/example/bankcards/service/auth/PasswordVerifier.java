@@ -0,0 +1,113 @@
+package com.example.bankcards.service.auth;
+
+import com.example.bankcards.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Проверка пароля при входе в отдельном ограниченном пуле. BCrypt намеренно дорогой, и на потоках
+ * Tomcat волна входов заняла бы все ядра и задержала переводы; пул ограничивает долю процессора,
+ * которую получают входы. Если пул и его очередь заняты, вход сразу отклоняется
+ * {@link TooManyRequestsException} (429 с Retry-After), а не ждёт в очереди неограниченно.
+ * <p>
+ * Если хеш записан старым алгоритмом или с меньшей стоимостью, в той же задаче пула пароль
+ * хешируется заново текущими настройками PasswordEncoder, чтобы вход мог обновить хранимый хеш.
+ * <p>
+ * Загрузка пула публикуется метриками executor.* с тегом name=auth.password, доля занятых
+ * потоков - метрикой auth.password.utilization, отказы - счётчиком auth.password.rejected.
+ */
+@Component
+public class PasswordVerifier {
+    private static final String NAME = "auth.password";
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final Duration retryAfter;
+    private final Counter rejected;
+
+    public PasswordVerifier(PasswordEncoder passwordEncoder,
+                            MeterRegistry meterRegistry,
+                            @Value("${auth.password-verification.threads:2}") int threads,
+                            @Value("${auth.password-verification.queue-capacity:50}") int queueCapacity,
+                            @Value("${auth.password-verification.retry-after:PT1S}") Duration retryAfter) {
+        this.passwordEncoder = passwordEncoder;
+        this.retryAfter = retryAfter;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "password-verify-" + threadNumber.incrementAndGet()));
+        new ExecutorServiceMetrics(executor, NAME, Tags.empty()).bindTo(meterRegistry);
+        Gauge.builder(NAME + ".utilization", executor,
+                        pool -> (double) pool.getActiveCount() / pool.getMaximumPoolSize())
+                .description("Доля потоков проверки пароля, занятых работой")
+                .register(meterRegistry);
+        this.rejected = Counter.builder(NAME + ".rejected")
+                .description("Входы, отклонённые из-за заполненной очереди проверки пароля")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Сверяет пароль с хешем в пуле проверки и ждёт результата. Поток запроса при этом
+     * не занимает процессор.
+     */
+    public Verification verify(String rawPassword, String encodedPassword) {
+        Future<Verification> result;
+        try {
+            result = executor.submit(() -> check(rawPassword, encodedPassword));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new TooManyRequestsException("Слишком много попыток входа, повторите позже", retryAfter);
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Проверка пароля прервана", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Ошибка проверки пароля", e.getCause());
+        }
+    }
+
+    private Verification check(String rawPassword, String encodedPassword) {
+        if (!passwordEncoder.matches(rawPassword, encodedPassword)) {
+            return Verification.MISMATCH;
+        }
+        String upgradedPassword = passwordEncoder.upgradeEncoding(encodedPassword)
+                ? passwordEncoder.encode(rawPassword)
+                : null;
+        return new Verification(true, upgradedPassword);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Очередь ограничена, так что ждущие входы успевают получить ответ
+        executor.shutdown();
+    }
+
+    /**
+     * Результат проверки. upgradedPassword - новый хеш, если хранимый пора обновить, иначе null.
+     */
+    public record Verification(boolean matches, String upgradedPassword) {
+        static final Verification MISMATCH = new Verification(false, null);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.bankcards.service.card;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Перевод, принятый к асинхронному выполнению. result завершается сообщением о переводе
+ * или исключением, с которым перевод был отклонён.
+ */
+public record AsyncTransfer(
+        UUID id,
+        String userEmail,
+        CompletableFuture<String> result
+) {}
@@ -0,0 +1,94 @@
+package com.example.bankcards.service.card;
+
+import com.example.bankcards.dto.card.TransferRequest;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Асинхронное выполнение переводов: перевод ставится в ограниченную очередь и выполняется
+ * пулом потоков, а поток запроса сразу освобождается. Результат хранится в памяти
+ * cards.transfer.async.result-ttl после завершения и доступен только автору перевода.
+ * Число хранимых результатов ограничено cards.transfer.async.result-cache-size: при всплеске
+ * переводов вытесняются самые старые, и их состояние больше не находится.
+ * <p>
+ * Результаты не переживают перезапуск и не видны другим экземплярам приложения.
+ */
+@Slf4j
+@Component
+public class AsyncTransferService {
+    private final CardService cardService;
+    private final ThreadPoolExecutor executor;
+    private final Cache<UUID, AsyncTransfer> transfers;
+
+    public AsyncTransferService(CardService cardService,
+                                @Value("${cards.transfer.async.threads:8}") int threads,
+                                @Value("${cards.transfer.async.queue-capacity:1000}") int queueCapacity,
+                                @Value("${cards.transfer.async.result-ttl:PT10M}") Duration resultTtl,
+                                @Value("${cards.transfer.async.result-cache-size:100000}") long resultCacheSize) {
+        this.cardService = cardService;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "transfer-async-" + threadNumber.incrementAndGet()));
+        this.transfers = Caffeine.newBuilder()
+                .maximumSize(resultCacheSize)
+                .expireAfterWrite(resultTtl)
+                .build();
+    }
+
+    /**
+     * Ставит перевод в очередь. Если очередь заполнена, бросает RejectedExecutionException.
+     */
+    public AsyncTransfer submit(String userEmail, TransferRequest request, String idempotencyKey) {
+        AsyncTransfer transfer = new AsyncTransfer(UUID.randomUUID(), userEmail, new CompletableFuture<>());
+        transfers.put(transfer.id(), transfer);
+        try {
+            executor.execute(() -> execute(transfer, request, idempotencyKey));
+        } catch (RejectedExecutionException e) {
+            transfers.invalidate(transfer.id());
+            throw e;
+        }
+        return transfer;
+    }
+
+    /**
+     * Перевод пользователя по идентификатору. Чужие и устаревшие переводы не находятся.
+     */
+    public Optional<AsyncTransfer> find(String userEmail, UUID transferId) {
+        return Optional.ofNullable(transfers.getIfPresent(transferId))
+                .filter(transfer -> transfer.userEmail().equals(userEmail));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // Принятые переводы дорабатывают: клиент уже получил 202 и будет спрашивать результат
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Не все асинхронные переводы завершились до остановки: {}", executor.getQueue().size());
+        }
+    }
+
+    private void execute(AsyncTransfer transfer, TransferRequest request, String idempotencyKey) {
+        try {
+            transfer.result().complete(cardService.transfer(transfer.userEmail(), request, idempotencyKey));
+        } catch (RuntimeException e) {
+            transfer.result().completeExceptionally(e);
+        }
+        // Срок хранения результата отсчитывается от завершения перевода
+        transfers.put(transfer.id(), transfer);
+    }
+}
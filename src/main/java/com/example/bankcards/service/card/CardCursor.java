@@ -0,0 +1,34 @@
+package com.example.bankcards.service.card;
+
+import com.example.bankcards.exception.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Курсор постраничной выборки карт пользователя: ключ (createdAt, id) последней отданной карты,
+ * закодированный в непрозрачную для клиента строку.
+ */
+record CardCursor(Instant createdAt, UUID id) {
+    private static final String SEPARATOR = "|";
+
+    String encode() {
+        String value = createdAt + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static CardCursor decode(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.indexOf(SEPARATOR);
+            Instant createdAt = Instant.parse(value.substring(0, separator));
+            UUID id = UUID.fromString(value.substring(separator + 1));
+            return new CardCursor(createdAt, id);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new BadRequestException("Некорректный курсор");
+        }
+    }
+}
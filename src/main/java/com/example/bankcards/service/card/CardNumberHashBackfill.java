@@ -0,0 +1,59 @@
+package com.example.bankcards.service.card;
+
+import com.example.bankcards.repository.CardRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Заполняет card_number_hash у карт, созданных до появления колонки. Ключ HMAC есть только
+ * у приложения, поэтому заполнение идёт при запуске, а не в миграции. Карты с номером,
+ * который уже занят другой картой, пропускаются: уникальный индекс не допускает двух одинаковых хешей.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CardNumberHashBackfill {
+    private static final int BATCH = 500;
+
+    private final CardRepository cardRepository;
+    private final CardNumberHasher cardNumberHasher;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Проходит карты без хеша частями по BATCH в отдельных транзакциях. Возвращает число заполненных.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public int backfill() {
+        int filled = 0;
+        int skipped = 0;
+        UUID after = new UUID(0, 0);
+        while (true) {
+            List<CardRepository.CardNumber> cards = cardRepository.findUnhashedAfter(after, Limit.of(BATCH));
+            if (cards.isEmpty()) {
+                break;
+            }
+            int updated = transactionTemplate.execute(status -> {
+                int count = 0;
+                for (CardRepository.CardNumber card : cards) {
+                    count += cardRepository.setCardNumberHash(card.getId(), cardNumberHasher.hash(card.getCardNumber()));
+                }
+                return count;
+            });
+            filled += updated;
+            skipped += cards.size() - updated;
+            after = cards.get(cards.size() - 1).getId();
+        }
+        if (filled > 0 || skipped > 0) {
+            log.info("Заполнены HMAC номеров карт: {}, пропущено карт с повторяющимся номером: {}", filled, skipped);
+        }
+        return filled;
+    }
+}
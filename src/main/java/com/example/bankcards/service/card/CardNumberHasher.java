@@ -0,0 +1,42 @@
+package com.example.bankcards.service.card;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * HMAC-SHA256 номера карты для cards.card_number_hash. По хешу карта находится одним проходом
+ * по уникальному индексу, а сам номер не попадает в условия запросов. Без ключа хеш
+ * шестнадцатизначного номера подбирается перебором, поэтому ключ хранится только в настройках.
+ */
+@Component
+public class CardNumberHasher {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final Mac prototype;
+
+    public CardNumberHasher(@Value("${cards.number-hash.secret}") String secret) {
+        try {
+            prototype = Mac.getInstance(ALGORITHM);
+            prototype.init(new SecretKeySpec(Base64.getDecoder().decode(secret), ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Не удалось инициализировать HMAC номера карты", e);
+        }
+    }
+
+    public String hash(String cardNumber) {
+        try {
+            // Mac не потокобезопасен: каждый вызов работает с копией инициализированного экземпляра
+            Mac mac = (Mac) prototype.clone();
+            return HexFormat.of().formatHex(mac.doFinal(cardNumber.getBytes(StandardCharsets.US_ASCII)));
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,23 +1,36 @@
 package com.example.bankcards.service.card;
 
 
+import com.example.bankcards.dto.card.BatchTransferResult;
 import com.example.bankcards.dto.card.BlockCardRequest;
 import com.example.bankcards.dto.card.BlockCardResponse;
+import com.example.bankcards.dto.card.CardSliceResponse;
 import com.example.bankcards.dto.card.CreateCardRequest;
 import com.example.bankcards.dto.card.ResponseDto;
 import com.example.bankcards.dto.card.TransferRequest;
 import com.example.bankcards.entity.card.Status;
-import org.springframework.data.domain.Page;
 
+import java.math.BigDecimal;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public interface CardService {
-    List<ResponseDto> getAllCards();
+    void exportCards(Consumer<ResponseDto> consumer);
+    List<ResponseDto> getCardsAfter(UUID after, int limit);
     void createCard(CreateCardRequest request);
     ResponseDto updateCardStatus(UUID cardId, Status newStatus);
-    Page<ResponseDto> getUserCards(String userEmail, int page, int size);
+    ResponseDto updateCardHot(UUID cardId, boolean hot);
+    ResponseDto findByCardNumber(String cardNumber);
+    CardSliceResponse getUserCards(String userEmail, String cursor, int size);
+    BigDecimal getUserBalance(String userEmail);
+    Map<Status, BigDecimal> getUserBalanceByStatus(String userEmail);
+    int rebuildBalanceSummaries();
     void delete(UUID id);
     BlockCardResponse requestCardBlock(UUID cardId, BlockCardRequest request, UUID userId);
     String transfer(String userEmail, TransferRequest request);
+    String transfer(String userEmail, TransferRequest request, String idempotencyKey);
+    List<BatchTransferResult> transferBatch(String userEmail, Iterator<TransferRequest> requests);
 }
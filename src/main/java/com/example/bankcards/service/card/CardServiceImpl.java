@@ -1,55 +1,164 @@
 package com.example.bankcards.service.card;
 
+import com.example.bankcards.dto.card.BatchTransferResult;
 import com.example.bankcards.dto.card.BlockCardRequest;
 import com.example.bankcards.dto.card.BlockCardResponse;
+import com.example.bankcards.dto.card.CardSliceResponse;
 import com.example.bankcards.dto.card.CreateCardRequest;
 import com.example.bankcards.dto.card.ResponseDto;
 import com.example.bankcards.dto.card.TransferRequest;
 import com.example.bankcards.entity.card.Card;
 import com.example.bankcards.entity.card.Status;
-import com.example.bankcards.entity.user.User;
 import com.example.bankcards.exception.BadRequestException;
 import com.example.bankcards.exception.NotFoundException;
 import com.example.bankcards.repository.CardRepository;
-import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.service.card.engine.InMemoryTransferEngine;
+import com.example.bankcards.service.user.UserLookup;
+import com.example.bankcards.service.user.UserLookupCache;
 import com.example.bankcards.util.CardMapper;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class CardServiceImpl implements CardService {
+    private static final int MAX_STRIPE_FOLDS = 3;
+    private static final String CARD_NUMBER_HASH_INDEX = "idx_cards_card_number_hash";
+
     private  final CardRepository cardRepository;
     private final CardMapper cardMapper;
-    private final UserRepository userRepository;
+    private final CardTransferProcessor transferProcessor;
+    private final TransferMetrics transferMetrics;
+    private final TransferIdempotencyStore idempotencyStore;
+    private final TransactionTemplate transactionTemplate;
+    private final HotCardStripes hotCardStripes;
+    private final UserBalanceSummaries userBalanceSummaries;
+    private final UserLookupCache userLookupCache;
+    private final CardNumberHasher cardNumberHasher;
+    private final ObjectProvider<InMemoryTransferEngine> inMemoryEngine;
+
+    @Value("${cards.transfer.mode:CONDITIONAL}")
+    private TransferMode transferMode;
+
+    @Value("${cards.transfer.optimistic.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${cards.transfer.optimistic.backoff-ms:5}")
+    private long backoffMillis;
+
+    @Value("${cards.transfer.optimistic.max-backoff-ms:200}")
+    private long maxBackoffMillis;
+
+    @Value("${cards.transfer.batch.chunk-size:500}")
+    private int batchChunkSize;
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportCards(Consumer<ResponseDto> consumer) {
+        // Строки читаются сразу в ответы, поэтому контекст персистентности не растёт вместе с таблицей
+        try (Stream<ResponseDto> cards = cardRepository.streamAllViews()) {
+            Iterator<ResponseDto> iterator = cards.iterator();
+            while (iterator.hasNext()) {
+                consumer.accept(withEngineBalance(iterator.next()));
+            }
+        }
+    }
 
     @Override
-    public List<ResponseDto> getAllCards(){
-        List<Card> cards = cardRepository.findAll();
-        return cardMapper.toDtoList(cards);
+    @Transactional(readOnly = true)
+    public List<ResponseDto> getCardsAfter(UUID after, int limit) {
+        UUID from = after != null ? after : new UUID(0, 0);
+        return cardRepository.findViewsAfter(from, Limit.of(limit)).stream().map(this::withEngineBalance).toList();
     }
 
     @Override
+    @Transactional
     public void createCard(CreateCardRequest request){
         Card card = cardMapper.toResponse(request);
-        cardRepository.save(card);
+        String cardNumberHash = cardNumberHasher.hash(card.getCardNumber());
+        if (cardRepository.existsByCardNumberHash(cardNumberHash)) {
+            throw new BadRequestException("Карта с таким номером уже существует");
+        }
+        card.setCardNumberHash(cardNumberHash);
+        try {
+            cardRepository.saveAndFlush(card);
+        } catch (DataIntegrityViolationException e) {
+            // Параллельное создание карты с тем же номером проходит проверку выше и упирается в уникальный индекс
+            if (isCardNumberConflict(e)) {
+                throw new BadRequestException("Карта с таким номером уже существует");
+            }
+            throw e;
+        }
+        userBalanceSummaries.cardAdded(card);
+    }
+
+    private static boolean isCardNumberConflict(DataIntegrityViolationException e) {
+        return e.getCause() instanceof ConstraintViolationException violation
+                && CARD_NUMBER_HASH_INDEX.equalsIgnoreCase(violation.getConstraintName());
     }
 
     @Override
+    @Transactional
     public ResponseDto updateCardStatus(UUID cardId, Status newStatus) {
-        Card card = findCardById(cardId);
+        Card card = cardRepository.findByIdForUpdate(cardId)
+                .orElseThrow(() -> new NotFoundException("Карта не найдена: " + cardId));
+        Status previousStatus = card.getStatus();
         card.setStatus(newStatus);
         Card savedCard = cardRepository.save(card);
+        userBalanceSummaries.statusChanged(savedCard, previousStatus);
+        afterCommit(() -> inMemoryEngine.ifAvailable(engine -> engine.cardStatusChanged(cardId, newStatus)));
 
-        return cardMapper.toDto(savedCard);
+        return toDto(savedCard);
+    }
+
+    /**
+     * Включает или выключает распределение зачислений карты по частям баланса. Уже накопленные части
+     * при выключении продолжают учитываться в балансе и сворачиваются компактором.
+     */
+    @Override
+    @Transactional
+    public ResponseDto updateCardHot(UUID cardId, boolean hot) {
+        Card card = findCardById(cardId);
+        card.setHot(hot);
+        Card savedCard = cardRepository.saveAndFlush(card);
+        if (hot) {
+            hotCardStripes.prepare(cardId);
+        }
+        return toDto(savedCard);
+    }
+
+    /**
+     * Ищет карту по номеру через HMAC номера, так что в запрос номер не попадает.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public ResponseDto findByCardNumber(String cardNumber) {
+        return cardRepository.findViewByCardNumberHash(cardNumberHasher.hash(cardNumber))
+                .map(this::withEngineBalance)
+                .orElseThrow(() -> new NotFoundException("Карта с таким номером не найдена"));
     }
 
     private Card findCardById(UUID cardId) {
@@ -59,20 +168,129 @@ public class CardServiceImpl implements CardService {
 
     @Override
     @Transactional(readOnly = true)
-    public Page<ResponseDto> getUserCards(String userEmail, int page, int size) {
-        User user = userRepository.findByEmail(userEmail)
+    public CardSliceResponse getUserCards(String userEmail, String cursor, int size) {
+        UserLookup user = userLookupCache.find(userEmail)
                 .orElseThrow(() -> new NotFoundException("Пользователь с email " + userEmail + " не найден"));
 
-        Pageable pageable = PageRequest.of(page, size, Sort.by("id").descending());
-        Page<Card> userCards = cardRepository.findByUser(user, pageable);
-        return userCards.map(cardMapper::toDto);
+        // Лишняя строка показывает, есть ли следующая страница
+        Limit limit = Limit.of(size + 1);
+        List<CardRepository.UserCardRow> rows;
+        if (cursor == null) {
+            rows = cardRepository.findUserCards(user.id(), limit);
+        } else {
+            CardCursor after = CardCursor.decode(cursor);
+            rows = cardRepository.findUserCardsBefore(user.id(), after.createdAt(), after.id(), limit);
+        }
+        boolean hasNext = rows.size() > size;
+        List<CardRepository.UserCardRow> page = hasNext ? rows.subList(0, size) : rows;
+        List<ResponseDto> content = page.stream()
+                .map(CardRepository.UserCardRow::toDto)
+                .map(this::withEngineBalance)
+                .toList();
+        String nextCursor = null;
+        if (hasNext) {
+            CardRepository.UserCardRow last = page.get(page.size() - 1);
+            nextCursor = new CardCursor(last.createdAt(), last.id()).encode();
+        }
+        return new CardSliceResponse(content, nextCursor);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public BigDecimal getUserBalance(String userEmail) {
+        if (transferMode == TransferMode.IN_MEMORY) {
+            return getUserBalanceByStatus(userEmail).getOrDefault(Status.ACTIVE, BigDecimal.ZERO);
+        }
+        return userLookupCache.find(userEmail)
+                .flatMap(user -> userBalanceSummaries.activeBalance(user.id()))
+                .orElse(BigDecimal.ZERO);
+    }
+
+    @Override
+    public int rebuildBalanceSummaries() {
+        return userBalanceSummaries.rebuild();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Status, BigDecimal> getUserBalanceByStatus(String userEmail) {
+        Map<Status, BigDecimal> balances = new EnumMap<>(Status.class);
+        if (transferMode == TransferMode.IN_MEMORY) {
+            InMemoryTransferEngine engine = inMemoryEngine.getObject();
+            for (CardRepository.CardBalance card : cardRepository.findBalancesByEmail(userEmail)) {
+                BigDecimal balance = engine.balance(card.getId()).orElse(card.getBalance());
+                balances.merge(card.getStatus(), balance, BigDecimal::add);
+            }
+        } else {
+            for (CardRepository.StatusBalance status : cardRepository.sumBalancesByStatus(userEmail)) {
+                balances.put(status.getStatus(), status.getBalance());
+            }
+        }
+        return balances;
+    }
+
+    @Override
+    @Transactional
     public void delete(UUID id) {
-        if (!cardRepository.existsById(id)) {
-            throw new NotFoundException("Карта с id " + id + " не найдена");
+        Card card = cardRepository.findByIdForUpdate(id)
+                .orElseThrow(() -> new NotFoundException("Карта с id " + id + " не найдена"));
+        inMemoryEngine.ifAvailable(engine -> {
+            Status status = card.getStatus();
+            engine.cardDeleting(card);
+            afterCompletion(() -> engine.cardDeleted(id), () -> engine.cardStatusChanged(id, status));
+        });
+        cardRepository.delete(card);
+        userBalanceSummaries.cardRemoved(card);
+    }
+
+    // Движок узнаёт об изменении карты только после фиксации: откат не должен оставить в памяти
+    // статус или удаление, которых нет в БД
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
         }
-        cardRepository.deleteById(id);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void afterCompletion(Runnable committed, Runnable rolledBack) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            committed.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                (status == STATUS_COMMITTED ? committed : rolledBack).run();
+            }
+        });
+    }
+
+    // Части баланса горячей карты в сущность не загружаются: полный баланс складывается здесь
+    private ResponseDto toDto(Card card) {
+        ResponseDto dto = cardMapper.toDto(card);
+        BigDecimal unfolded = hotCardStripes.unfolded(card.getId());
+        if (unfolded.signum() == 0) {
+            return dto;
+        }
+        return new ResponseDto(dto.id(), dto.maskedCardNumber(), dto.cardHolder(),
+                dto.expirationDate(), dto.balance().add(unfolded), dto.status());
+    }
+
+    // В режиме IN_MEMORY баланс в cards отстаёт от движка на интервал сброса
+    private ResponseDto withEngineBalance(ResponseDto dto) {
+        if (transferMode != TransferMode.IN_MEMORY) {
+            return dto;
+        }
+        return inMemoryEngine.getObject().balance(dto.id())
+                .map(balance -> new ResponseDto(dto.id(), dto.maskedCardNumber(), dto.cardHolder(),
+                        dto.expirationDate(), balance, dto.status()))
+                .orElse(dto);
     }
 
     @Override
@@ -91,33 +309,139 @@ public class CardServiceImpl implements CardService {
         );
     }
 
+    @Override
     public String transfer(String userEmail, TransferRequest request) {
-        Card fromCard = cardRepository.findById(request.fromCardId())
-                .orElseThrow(() -> new NotFoundException("Карта отправителя не найдена"));
+        return transfer(userEmail, request, null);
+    }
 
-        if (!fromCard.getUser().getEmail().equals(userEmail)) {
-            throw new BadRequestException("Карта не принадлежит данному пользователю");
+    /**
+     * Перевод с необязательным Idempotency-Key. Повтор с тем же ключом возвращает сохранённый ответ
+     * и не списывает деньги второй раз. Ключ записывается в транзакции перевода, поэтому первый запрос
+     * не делает лишнего чтения: уже использованный ключ обнаруживается уникальным индексом при записи,
+     * перевод откатывается, и ответ читается из базы.
+     */
+    @Override
+    public String transfer(String userEmail, TransferRequest request, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return executeTransfer(userEmail, request, null);
+        }
+        Optional<String> cached = idempotencyStore.findCached(userEmail, idempotencyKey, request);
+        if (cached.isPresent()) {
+            return cached.get();
         }
+        try {
+            return executeTransfer(userEmail, request, idempotencyKey);
+        } catch (DataIntegrityViolationException e) {
+            return idempotencyStore.findStored(userEmail, idempotencyKey, request)
+                    .orElseThrow(() -> e);
+        }
+    }
 
-        Card toCard = cardRepository.findById(request.toCardId())
-                .orElseThrow(() -> new NotFoundException("Карта получателя не найдена"));
+    @Override
+    public List<BatchTransferResult> transferBatch(String userEmail, Iterator<TransferRequest> requests) {
+        if (transferMode == TransferMode.IN_MEMORY) {
+            return inMemoryEngine.getObject().transferBatch(userEmail, requests);
+        }
+        List<BatchTransferResult> results = new ArrayList<>();
+        List<TransferRequest> chunk = new ArrayList<>(batchChunkSize);
+        while (requests.hasNext()) {
+            chunk.add(requests.next());
+            if (chunk.size() == batchChunkSize) {
+                results.addAll(transferChunk(userEmail, chunk, results.size()));
+                chunk = new ArrayList<>(batchChunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(transferChunk(userEmail, chunk, results.size()));
+        }
+        return results;
+    }
 
-        if (fromCard.getStatus() == Status.BLOCKED) {
-            throw new BadRequestException("Карта отправителя заблокирована");
+    private List<BatchTransferResult> transferChunk(String userEmail, List<TransferRequest> chunk, int firstIndex) {
+        try {
+            return withStripeFolds(() -> withOptimisticRetry(() -> transferProcessor.transferChunk(userEmail, chunk, firstIndex)));
+        } catch (RuntimeException e) {
+            // Транзакция части откатилась целиком: ни один перевод из неё не выполнен
+            List<BatchTransferResult> failed = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                failed.add(BatchTransferResult.error(firstIndex + i, "Пакет переводов не выполнен: " + e.getMessage()));
+            }
+            return failed;
         }
-        if (toCard.getStatus() == Status.BLOCKED) {
-            throw new BadRequestException("Карта получателя заблокирована");
+    }
+
+    private String executeTransfer(String userEmail, TransferRequest request, String idempotencyKey) {
+        Supplier<String> attempt = () -> attemptTransfer(userEmail, request, idempotencyKey);
+        return withStripeFolds(() -> transferMode == TransferMode.OPTIMISTIC ? withOptimisticRetry(attempt) : attempt.get());
+    }
+
+    // С ключом идемпотентности перевод и запись ключа выполняются в одной внешней транзакции,
+    // к которой присоединяется метод процессора. Повтор после конфликта версий открывает новую.
+    private String attemptTransfer(String userEmail, TransferRequest request, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return transferOnce(userEmail, request);
         }
-        if (fromCard.getBalance().compareTo(request.amount()) < 0) {
-            throw new BadRequestException("Недостаточно средств на карте");
+        if (transferMode == TransferMode.IN_MEMORY) {
+            // Перевод движка не входит в транзакцию БД: ключ ведёт сам движок
+            return inMemoryEngine.getObject().transfer(userEmail, request, idempotencyKey);
         }
+        return transactionTemplate.execute(status -> {
+            String result = transferOnce(userEmail, request);
+            idempotencyStore.record(userEmail, idempotencyKey, request, result);
+            return result;
+        });
+    }
 
-        fromCard.setBalance(fromCard.getBalance().subtract(request.amount()));
-        toCard.setBalance(toCard.getBalance().add(request.amount()));
+    private String transferOnce(String userEmail, TransferRequest request) {
+        return switch (transferMode) {
+            case PESSIMISTIC -> transferProcessor.transferWithRowLocks(userEmail, request);
+            case OPTIMISTIC -> transferProcessor.transferWithVersionCheck(userEmail, request);
+            case CONDITIONAL -> transferProcessor.transferWithConditionalUpdates(userEmail, request);
+            case IN_MEMORY -> inMemoryEngine.getObject().transfer(userEmail, request);
+        };
+    }
 
-        cardRepository.save(fromCard);
-        cardRepository.save(toCard);
+    private <T> T withOptimisticRetry(Supplier<T> attempt) {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                return attempt.get();
+            } catch (ObjectOptimisticLockingFailureException e) {
+                transferMetrics.optimisticConflict();
+                if (attemptNumber >= maxAttempts) {
+                    transferMetrics.optimisticExhausted();
+                    throw new BadRequestException("Карта изменяется другим переводом, повторите попытку позже");
+                }
+                transferMetrics.optimisticRetry();
+                backoff(attemptNumber);
+            }
+        }
+    }
 
-        return "Перевод " + request.amount() + " выполнен";
+    // Списание с горячей карты, которому не хватает её balance, откатывается; накопленные части баланса
+    // переносятся в balance отдельной транзакцией, и попытка повторяется.
+    private <T> T withStripeFolds(Supplier<T> attempt) {
+        for (int fold = 0; ; fold++) {
+            try {
+                return attempt.get();
+            } catch (StripeFoldRequiredException e) {
+                if (fold >= MAX_STRIPE_FOLDS) {
+                    throw new BadRequestException("Перевод не выполнен, повторите попытку");
+                }
+                hotCardStripes.fold(e.getCardId());
+            }
+        }
+    }
+
+    // Экспоненциальная задержка с полным джиттером: случайная пауза в [0, base * 2^(attempt-1)],
+    // чтобы повторы конфликтующих переводов не сталкивались снова в тот же момент.
+    private void backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BadRequestException("Перевод прерван");
+        }
     }
 }
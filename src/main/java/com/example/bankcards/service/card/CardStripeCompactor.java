@@ -0,0 +1,33 @@
+package com.example.bankcards.service.card;
+
+import com.example.bankcards.repository.CardBalanceStripeRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Периодически переносит зачисления из частей баланса горячих карт в balance карты,
+ * чтобы списаниям с горячей карты редко приходилось делать это самим.
+ * Каждая карта сворачивается в отдельной короткой транзакции.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CardStripeCompactor {
+    private final HotCardStripes hotCardStripes;
+    private final CardBalanceStripeRepository stripeRepository;
+
+    @Scheduled(fixedDelayString = "${cards.transfer.hot.compaction-interval-ms:1000}")
+    public void compact() {
+        for (UUID cardId : stripeRepository.findCardIdsWithUnfoldedBalance()) {
+            try {
+                hotCardStripes.fold(cardId);
+            } catch (RuntimeException e) {
+                log.warn("Не удалось свернуть части баланса карты {}: {}", cardId, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.bankcards.service.card;
+
+import com.example.bankcards.dto.card.BatchTransferResult;
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.entity.card.Card;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.entity.ledger.LedgerEntry;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.exception.NotFoundException;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.LedgerEntryRepository;
+import com.example.bankcards.service.user.UserLookupCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Транзакционные варианты перевода между картами. Каждый метод - одна попытка в своей транзакции,
+ * поэтому повтор после конфликта выполняется снаружи, в {@link CardServiceImpl}.
+ * Выполненный перевод записывается в журнал проводок в той же транзакции, что и изменение балансов.
+ * Зачисление на горячую карту идёт в части её баланса ({@link HotCardStripes}) после всех операций
+ * со строками cards, а итоги пользователей ({@link UserBalanceSummaries}) меняются последними.
+ * Итоги владельца горячей карты при зачислении в её части не меняются, см. {@link HotCardStripes}.
+ */
+@Component
+@RequiredArgsConstructor
+public class CardTransferProcessor {
+    private final CardRepository cardRepository;
+    private final LedgerEntryRepository ledgerEntryRepository;
+    private final HotCardStripes hotCardStripes;
+    private final UserBalanceSummaries userBalanceSummaries;
+    private final UserLookupCache userLookupCache;
+
+    @Transactional
+    public String transferWithRowLocks(String userEmail, TransferRequest request) {
+        requireWellFormed(request);
+        UUID fromCardId = request.fromCardId();
+        UUID toCardId = request.toCardId();
+
+        // Блокировки строк берутся всегда в порядке возрастания id,
+        // поэтому встречные переводы A -> B и B -> A не образуют взаимоблокировку.
+        // Порядок - UUID.compareTo, как у сортировки UPDATE в Hibernate (order_updates) и остальных способов
+        // перевода; с порядком uuid в PostgreSQL он совпадать не обязан: запросов, блокирующих несколько
+        // строк cards с ORDER BY id, нет. Проверяется CardTransferLockOrderPostgresTest.
+        Card fromCard;
+        Card toCard;
+        if (fromCardId.compareTo(toCardId) <= 0) {
+            fromCard = lockCard(fromCardId, "Карта отправителя не найдена");
+            toCard = lockCard(toCardId, "Карта получателя не найдена");
+        } else {
+            toCard = lockCard(toCardId, "Карта получателя не найдена");
+            fromCard = lockCard(fromCardId, "Карта отправителя не найдена");
+        }
+
+        String result = apply(userEmail, request, fromCard, toCard);
+        updateSummaries(fromCardId, toCardId, request.amount(), creditIfHot(toCard, request.amount()));
+        return result;
+    }
+
+    /**
+     * Перевод без блокировок: конкурентное изменение любой из карт обнаруживается по колонке version
+     * при flush и приводит к ObjectOptimisticLockingFailureException с откатом транзакции.
+     */
+    @Transactional
+    public String transferWithVersionCheck(String userEmail, TransferRequest request) {
+        requireWellFormed(request);
+        Card fromCard = cardRepository.findById(request.fromCardId())
+                .orElseThrow(() -> new NotFoundException("Карта отправителя не найдена"));
+        Card toCard = cardRepository.findById(request.toCardId())
+                .orElseThrow(() -> new NotFoundException("Карта получателя не найдена"));
+
+        String result = apply(userEmail, request, fromCard, toCard);
+        cardRepository.flush();
+        updateSummaries(fromCard.getId(), toCard.getId(), request.amount(), creditIfHot(toCard, request.amount()));
+        return result;
+    }
+
+    /**
+     * Перевод двумя условными UPDATE без загрузки сущностей: владелец, статус и остаток проверяются
+     * в предикате списания. Операторы выполняются в порядке возрастания id карт, чтобы встречные
+     * переводы не блокировали строки крест-накрест. Горячая карта получателя не проходит условие
+     * зачисления в строку cards и получает сумму в часть баланса после списания. Причина отказа
+     * выясняется чтением карт только после неудачного UPDATE.
+     */
+    @Transactional
+    public String transferWithConditionalUpdates(String userEmail, TransferRequest request) {
+        // Предикат списания balance >= amount пропускает отрицательную сумму, поэтому она отсекается до UPDATE
+        requireWellFormed(request);
+        UUID fromCardId = request.fromCardId();
+        UUID toCardId = request.toCardId();
+        BigDecimal amount = request.amount();
+
+        boolean debited;
+        boolean creditedCard;
+        if (fromCardId.compareTo(toCardId) <= 0) {
+            debited = cardRepository.debitIfAllowed(fromCardId, amount, userEmail) == 1;
+            creditedCard = debited && cardRepository.creditIfAllowed(toCardId, amount) == 1;
+        } else {
+            creditedCard = cardRepository.creditIfAllowed(toCardId, amount) == 1;
+            debited = cardRepository.debitIfAllowed(fromCardId, amount, userEmail) == 1;
+        }
+        boolean creditedStripe = debited && !creditedCard && hotCardStripes.credit(toCardId, amount);
+
+        if (!debited || !(creditedCard || creditedStripe)) {
+            throw explainRejectedTransfer(userEmail, request);
+        }
+        ledgerEntryRepository.saveAll(ledgerEntries(fromCardId, toCardId, amount, Instant.now()));
+        updateSummaries(fromCardId, toCardId, amount, creditedStripe);
+        return "Перевод " + amount + " выполнен";
+    }
+
+    /**
+     * Выполняет часть пакета переводов в одной транзакции. Карты всех переводов читаются одним запросом,
+     * переводы применяются к ним в памяти по порядку, а изменённые балансы уходят одним упорядоченным
+     * по id JDBC-пакетом UPDATE с проверкой version. Ошибка отдельного перевода попадает в его результат
+     * и не откатывает остальные; конкурентное изменение карты откатывает всю часть целиком.
+     */
+    @Transactional
+    public List<BatchTransferResult> transferChunk(String userEmail, List<TransferRequest> chunk, int firstIndex) {
+        Set<UUID> cardIds = new HashSet<>();
+        for (TransferRequest request : chunk) {
+            if (request != null) {
+                cardIds.add(request.fromCardId());
+                cardIds.add(request.toCardId());
+            }
+        }
+        cardIds.remove(null);
+        Map<UUID, Card> cards = new HashMap<>();
+        for (Card card : cardRepository.findByIdIn(cardIds)) {
+            cards.put(card.getId(), card);
+        }
+
+        List<BatchTransferResult> results = new ArrayList<>(chunk.size());
+        List<LedgerEntry> entries = new ArrayList<>();
+        Map<UUID, BigDecimal> hotCredits = new TreeMap<>();
+        Map<UUID, BigDecimal> deltas = new HashMap<>();
+        Instant now = Instant.now();
+        for (int i = 0; i < chunk.size(); i++) {
+            TransferRequest request = chunk.get(i);
+            int index = firstIndex + i;
+            if (!isWellFormed(request)) {
+                results.add(BatchTransferResult.error(index, "Некорректный перевод: требуются карты и положительная сумма"));
+                continue;
+            }
+            try {
+                Card fromCard = Optional.ofNullable(cards.get(request.fromCardId()))
+                        .orElseThrow(() -> new NotFoundException("Карта отправителя не найдена"));
+                Card toCard = Optional.ofNullable(cards.get(request.toCardId()))
+                        .orElseThrow(() -> new NotFoundException("Карта получателя не найдена"));
+                validate(userEmail, request, fromCard, toCard);
+                moveFunds(fromCard, toCard, request.amount());
+                if (toCard.isHot()) {
+                    hotCredits.merge(toCard.getId(), request.amount(), BigDecimal::add);
+                }
+                deltas.merge(fromCard.getId(), request.amount().negate(), BigDecimal::add);
+                if (!toCard.isHot()) {
+                    deltas.merge(toCard.getId(), request.amount(), BigDecimal::add);
+                }
+                entries.addAll(ledgerEntries(fromCard.getId(), toCard.getId(), request.amount(), now));
+                results.add(BatchTransferResult.success(index, "Перевод " + request.amount() + " выполнен"));
+            } catch (BadRequestException | NotFoundException e) {
+                results.add(BatchTransferResult.error(index, e.getMessage()));
+            }
+        }
+
+        ledgerEntryRepository.saveAll(entries);
+        cardRepository.flush();
+        // Части баланса нескольких горячих карт блокируются в порядке id карт
+        for (Map.Entry<UUID, BigDecimal> credit : hotCredits.entrySet()) {
+            if (!hotCardStripes.credit(credit.getKey(), credit.getValue())) {
+                throw new BadRequestException("Перевод не выполнен, повторите попытку");
+            }
+        }
+        userBalanceSummaries.balancesChanged(cards.values(), deltas);
+        return results;
+    }
+
+    // Владелец сравнивается по id: так ленивая связь карты с пользователем не загружается
+    private boolean isOwner(Card card, String userEmail) {
+        UUID ownerId = card.getUser().getId();
+        return userLookupCache.find(userEmail)
+                .map(user -> user.id().equals(ownerId))
+                .orElse(false);
+    }
+
+    private boolean isWellFormed(TransferRequest request) {
+        return request != null
+                && request.fromCardId() != null
+                && request.toCardId() != null
+                && request.amount() != null
+                && request.amount().signum() > 0;
+    }
+
+    private void requireWellFormed(TransferRequest request) {
+        if (!isWellFormed(request)) {
+            throw new BadRequestException("Некорректный перевод: требуются карты и положительная сумма");
+        }
+    }
+
+    private RuntimeException explainRejectedTransfer(String userEmail, TransferRequest request) {
+        Card fromCard = cardRepository.findById(request.fromCardId())
+                .orElseThrow(() -> new NotFoundException("Карта отправителя не найдена"));
+        Card toCard = cardRepository.findById(request.toCardId())
+                .orElseThrow(() -> new NotFoundException("Карта получателя не найдена"));
+        try {
+            validate(userEmail, request, fromCard, toCard);
+        } catch (BadRequestException e) {
+            return e;
+        }
+        // Карты изменились между UPDATE и диагностическим чтением
+        return new BadRequestException("Перевод не выполнен, повторите попытку");
+    }
+
+    private String apply(String userEmail, TransferRequest request, Card fromCard, Card toCard) {
+        validate(userEmail, request, fromCard, toCard);
+        moveFunds(fromCard, toCard, request.amount());
+
+        cardRepository.save(fromCard);
+        cardRepository.save(toCard);
+        ledgerEntryRepository.saveAll(ledgerEntries(fromCard.getId(), toCard.getId(), request.amount(), Instant.now()));
+
+        return "Перевод " + request.amount() + " выполнен";
+    }
+
+    private void validate(String userEmail, TransferRequest request, Card fromCard, Card toCard) {
+        if (!isOwner(fromCard, userEmail)) {
+            throw new BadRequestException("Карта не принадлежит данному пользователю");
+        }
+        if (fromCard.getStatus() == Status.BLOCKED) {
+            throw new BadRequestException("Карта отправителя заблокирована");
+        }
+        if (toCard.getStatus() == Status.BLOCKED) {
+            throw new BadRequestException("Карта получателя заблокирована");
+        }
+        if (fromCard.getBalance().compareTo(request.amount()) < 0) {
+            // Части баланса читаются только при нехватке balance: обычный перевод их не касается
+            if (fromCard.getBalance().add(hotCardStripes.unfolded(fromCard.getId())).compareTo(request.amount()) >= 0) {
+                throw new StripeFoldRequiredException(fromCard.getId());
+            }
+            throw new BadRequestException("Недостаточно средств на карте");
+        }
+    }
+
+    // Горячей карте сумма зачисляется отдельно, в часть баланса: см. creditIfHot
+    private void moveFunds(Card fromCard, Card toCard, BigDecimal amount) {
+        fromCard.setBalance(fromCard.getBalance().subtract(amount));
+        if (!toCard.isHot()) {
+            toCard.setBalance(toCard.getBalance().add(amount));
+        }
+    }
+
+    // Возвращает true, если сумма зачислена в часть баланса горячей карты
+    private boolean creditIfHot(Card toCard, BigDecimal amount) {
+        if (!toCard.isHot()) {
+            return false;
+        }
+        if (!hotCardStripes.credit(toCard.getId(), amount)) {
+            // Карту заблокировали или сняли признак горячей после чтения
+            throw new BadRequestException("Перевод не выполнен, повторите попытку");
+        }
+        return true;
+    }
+
+    private void updateSummaries(UUID fromCardId, UUID toCardId, BigDecimal amount, boolean creditedStripe) {
+        if (creditedStripe) {
+            userBalanceSummaries.transferredToStripes(fromCardId, amount);
+        } else {
+            userBalanceSummaries.transferred(fromCardId, toCardId, amount);
+        }
+    }
+
+    private List<LedgerEntry> ledgerEntries(UUID fromCardId, UUID toCardId, BigDecimal amount, Instant createdAt) {
+        UUID transferId = UUID.randomUUID();
+        return List.of(
+                LedgerEntry.debit(transferId, fromCardId, amount, createdAt),
+                LedgerEntry.credit(transferId, toCardId, amount, createdAt));
+    }
+
+    private Card lockCard(UUID cardId, String notFoundMessage) {
+        return cardRepository.findByIdForUpdate(cardId)
+                .orElseThrow(() -> new NotFoundException(notFoundMessage));
+    }
+}
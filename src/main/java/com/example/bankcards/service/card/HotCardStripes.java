@@ -0,0 +1,81 @@
+package com.example.bankcards.service.card;
+
+import com.example.bankcards.entity.card.Card;
+import com.example.bankcards.entity.card.CardBalanceStripe;
+import com.example.bankcards.exception.NotFoundException;
+import com.example.bankcards.repository.CardBalanceStripeRepository;
+import com.example.bankcards.repository.CardRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Части баланса горячих карт. Зачисление идёт в случайную часть и не трогает ни строку cards,
+ * ни итоги владельца в user_balance_summary, поэтому конкурентные зачисления на одну карту не ждут
+ * друг друга. Списание выполняется только из balance карты: когда его не хватает, части переносятся
+ * в balance методом {@link #fold(UUID)}, который и прибавляет перенесённую сумму к итогам владельца.
+ * <p>
+ * Порядок блокировок: сначала строки cards всех карт перевода, затем части баланса, затем итоги
+ * пользователей. Операции с частями поэтому выполняются после операций со строками cards.
+ */
+@Component
+@RequiredArgsConstructor
+public class HotCardStripes {
+    private final CardBalanceStripeRepository stripeRepository;
+    private final CardRepository cardRepository;
+    private final UserBalanceSummaries userBalanceSummaries;
+
+    @Value("${cards.transfer.hot.stripes:8}")
+    private int stripes;
+
+    /**
+     * Зачисляет сумму в случайную часть баланса в текущей транзакции.
+     * Возвращает false, если карта не горячая или заблокирована.
+     */
+    public boolean credit(UUID cardId, BigDecimal amount) {
+        return stripeRepository.creditIfHot(cardId, ThreadLocalRandom.current().nextInt(stripes), amount) == 1;
+    }
+
+    /**
+     * Создаёт нулевые части баланса, чтобы зачисления сразу шли обновлением существующих строк.
+     */
+    public void prepare(UUID cardId) {
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            stripeRepository.creditIfHot(cardId, stripe, BigDecimal.ZERO);
+        }
+    }
+
+    /**
+     * Зачисления карты, ещё не перенесённые из частей баланса в balance. У карты, которая
+     * не была горячей, частей нет. Сущность Card этих зачислений не содержит.
+     */
+    public BigDecimal unfolded(UUID cardId) {
+        return stripeRepository.sumByCardId(cardId);
+    }
+
+    /**
+     * Переносит накопленные в частях зачисления в balance карты и в итоги её владельца.
+     * Возвращает перенесённую сумму.
+     */
+    @Transactional
+    public BigDecimal fold(UUID cardId) {
+        Card card = cardRepository.findByIdForUpdate(cardId)
+                .orElseThrow(() -> new NotFoundException("Карта не найдена: " + cardId));
+
+        BigDecimal folded = BigDecimal.ZERO;
+        for (CardBalanceStripe stripe : stripeRepository.findByCardIdForUpdate(cardId)) {
+            folded = folded.add(stripe.getBalance());
+            stripe.setBalance(BigDecimal.ZERO);
+        }
+        if (folded.signum() != 0) {
+            card.setBalance(card.getBalance().add(folded));
+            userBalanceSummaries.balanceChanged(cardId, folded);
+        }
+        return folded;
+    }
+}
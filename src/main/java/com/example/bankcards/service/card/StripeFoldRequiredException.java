@@ -0,0 +1,19 @@
+package com.example.bankcards.service.card;
+
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Списание с горячей карты не покрывается её balance, но покрывается вместе с частями баланса.
+ * Транзакция перевода откатывается, части сворачиваются отдельно, и перевод повторяется.
+ */
+@Getter
+public class StripeFoldRequiredException extends RuntimeException {
+    private final UUID cardId;
+
+    public StripeFoldRequiredException(UUID cardId) {
+        super("Требуется перенос частей баланса карты " + cardId);
+        this.cardId = cardId;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.bankcards.service.card;
+
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.entity.transfer.TransferIdempotencyKey;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.repository.TransferIdempotencyKeyRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Хранилище ответов на переводы с заголовком Idempotency-Key. Источник истины - таблица
+ * transfer_idempotency_keys с уникальным индексом (user_email, idempotency_key), запись в которую
+ * делается в транзакции перевода. Перед ней стоит ограниченный по размеру кэш с TTL, который
+ * отвечает на частые повторы без обращения к базе.
+ * <p>
+ * Перевод движка IN_MEMORY не входит в транзакцию БД, поэтому его ключ занимается отдельной
+ * транзакцией до перевода ({@link #reserve}) и завершается при сохранении перевода в БД,
+ * см. {@code InMemoryTransferEngine#transfer(String, TransferRequest, String)}.
+ * <p>
+ * Ключ защищает от повторного списания не меньше retention с момента перевода, затем удаляется
+ * по расписанию, и повтор с ним выполняется как новый перевод. Без удаления таблица и её уникальный
+ * индекс росли бы бесконечно.
+ */
+@Slf4j
+@Component
+public class TransferIdempotencyStore {
+    private static final int PURGE_CHUNK = 1_000;
+
+    private final TransferIdempotencyKeyRepository repository;
+    private final Duration retention;
+    private final Cache<CacheKey, TransferIdempotencyKey> cache;
+
+    public TransferIdempotencyStore(TransferIdempotencyKeyRepository repository,
+                                    @Value("${cards.transfer.idempotency.cache-size:10000}") long cacheSize,
+                                    @Value("${cards.transfer.idempotency.cache-ttl:PT10M}") Duration cacheTtl,
+                                    @Value("${cards.transfer.idempotency.retention:P1D}") Duration retention) {
+        this.repository = repository;
+        this.retention = retention;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtl)
+                .build();
+    }
+
+    /**
+     * Ответ на повтор из кэша, без обращения к базе.
+     */
+    public Optional<String> findCached(String userEmail, String idempotencyKey, TransferRequest request) {
+        return Optional.ofNullable(cache.getIfPresent(new CacheKey(userEmail, idempotencyKey)))
+                .map(stored -> replay(stored, request));
+    }
+
+    /**
+     * Ответ на повтор из базы. Вызывается, когда запись перевода с этим ключом
+     * не прошла уникальный индекс, то есть перевод уже был выполнен.
+     */
+    public Optional<String> findStored(String userEmail, String idempotencyKey, TransferRequest request) {
+        return find(userEmail, idempotencyKey, request)
+                .filter(TransferIdempotencyKey::isCompleted)
+                .map(TransferIdempotencyKey::getResult);
+    }
+
+    /**
+     * Запись ключа из базы, в том числе занятого незавершённым переводом движка. Ключ другого перевода
+     * отклоняется. В кэш попадают только завершённые записи.
+     */
+    public Optional<TransferIdempotencyKey> find(String userEmail, String idempotencyKey, TransferRequest request) {
+        return repository.findByUserEmailAndIdempotencyKey(userEmail, idempotencyKey)
+                .map(stored -> {
+                    replay(stored, request);
+                    if (stored.isCompleted()) {
+                        cache.put(new CacheKey(userEmail, idempotencyKey), stored);
+                    }
+                    return stored;
+                });
+    }
+
+    /**
+     * Занимает ключ для перевода движка IN_MEMORY до его выполнения. Строка фиксируется сразу, поэтому
+     * повтор видит ключ, пока перевод ждёт движок, а ожидание не держит соединение с БД.
+     * Возвращает false, если ключ уже занят.
+     */
+    public boolean reserve(String userEmail, String idempotencyKey, TransferRequest request, UUID transferId, String result) {
+        return repository.insertPending(userEmail, idempotencyKey, request.fromCardId(), request.toCardId(),
+                request.amount(), result, Instant.now(), transferId) == 1;
+    }
+
+    /**
+     * Освобождает ключ перевода движка, который не выполнен. Ключ сохранённого перевода не меняется.
+     */
+    public void release(UUID transferId) {
+        repository.deletePending(transferId);
+    }
+
+    /**
+     * Отмечает ключи переводов движка завершёнными в транзакции, которая сохраняет эти переводы в БД.
+     */
+    public void completed(Collection<UUID> transferIds) {
+        if (!transferIds.isEmpty()) {
+            repository.markCompleted(transferIds);
+        }
+    }
+
+    /**
+     * Сохраняет ответ в текущей транзакции перевода. Повтор того же ключа нарушает уникальный индекс
+     * и откатывает перевод с DataIntegrityViolationException. В кэш ответ попадает только после коммита,
+     * чтобы откаченный перевод не отвечал на повторы успехом.
+     */
+    public void record(String userEmail, String idempotencyKey, TransferRequest request, String result) {
+        TransferIdempotencyKey stored = repository.saveAndFlush(new TransferIdempotencyKey(
+                null, userEmail, idempotencyKey,
+                request.fromCardId(), request.toCardId(), request.amount(),
+                result, Instant.now(), null, true));
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cache.put(new CacheKey(userEmail, idempotencyKey), stored);
+            }
+        });
+    }
+
+    /**
+     * Удаляет ключи старше retention пачками по PURGE_CHUNK, каждую в своей транзакции,
+     * чтобы не держать долгую транзакцию и блокировки на большой таблице.
+     */
+    @Scheduled(fixedDelayString = "${cards.transfer.idempotency.purge-interval-ms:600000}")
+    public int purgeExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        int purged = 0;
+        int deleted;
+        do {
+            deleted = repository.deleteCreatedBefore(cutoff, PURGE_CHUNK);
+            purged += deleted;
+        } while (deleted == PURGE_CHUNK);
+        if (purged > 0) {
+            log.info("Удалено устаревших ключей идемпотентности переводов: {}", purged);
+        }
+        return purged;
+    }
+
+    private String replay(TransferIdempotencyKey stored, TransferRequest request) {
+        boolean sameRequest = Objects.equals(stored.getFromCardId(), request.fromCardId())
+                && Objects.equals(stored.getToCardId(), request.toCardId())
+                && stored.getAmount().compareTo(request.amount()) == 0;
+        if (!sameRequest) {
+            throw new BadRequestException("Idempotency-Key уже использован для другого перевода");
+        }
+        return stored.getResult();
+    }
+
+    private record CacheKey(String userEmail, String idempotencyKey) {
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.bankcards.service.card;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Счётчики оптимистичного режима перевода. Доля конфликтов относительно числа переводов
+ * показывает, когда выгоднее вернуться к режиму PESSIMISTIC.
+ */
+@Component
+public class TransferMetrics {
+    private final Counter optimisticConflicts;
+    private final Counter optimisticRetries;
+    private final Counter optimisticExhausted;
+
+    public TransferMetrics(MeterRegistry registry) {
+        this.optimisticConflicts = Counter.builder("cards.transfer.optimistic.conflicts")
+                .description("Конфликты версий карт при переводе")
+                .register(registry);
+        this.optimisticRetries = Counter.builder("cards.transfer.optimistic.retries")
+                .description("Повторные попытки перевода после конфликта версий")
+                .register(registry);
+        this.optimisticExhausted = Counter.builder("cards.transfer.optimistic.exhausted")
+                .description("Переводы, отклонённые после исчерпания попыток")
+                .register(registry);
+    }
+
+    public void optimisticConflict() {
+        optimisticConflicts.increment();
+    }
+
+    public void optimisticRetry() {
+        optimisticRetries.increment();
+    }
+
+    public void optimisticExhausted() {
+        optimisticExhausted.increment();
+    }
+}
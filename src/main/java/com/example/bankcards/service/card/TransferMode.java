@@ -0,0 +1,22 @@
+package com.example.bankcards.service.card;
+
+/**
+ * Способ защиты баланса карт от конкурентных переводов.
+ * Выбирается свойством {@code cards.transfer.mode}.
+ */
+public enum TransferMode {
+    /** Блокировка строк карт (SELECT ... FOR UPDATE) в порядке возрастания id. */
+    PESSIMISTIC,
+
+    /** Проверка версии строки (@Version) с автоматическим повтором при конфликте. */
+    OPTIMISTIC,
+
+    /** Условные UPDATE баланса без загрузки сущностей: два оператора на перевод. */
+    CONDITIONAL,
+
+    /**
+     * Балансы в памяти однопоточных обработчиков с журналом упреждающей записи на диске;
+     * в таблицу cards изменения попадают асинхронно. Допускает только один экземпляр приложения.
+     */
+    IN_MEMORY
+}
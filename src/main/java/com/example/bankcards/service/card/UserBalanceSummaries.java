@@ -0,0 +1,175 @@
+package com.example.bankcards.service.card;
+
+import com.example.bankcards.entity.card.Card;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.entity.user.UserBalanceSummary;
+import com.example.bankcards.repository.UserBalanceSummaryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Итоги по картам пользователя в user_balance_summary: сумма балансов всех и активных карт
+ * и число карт. Итоги меняются приращениями в транзакции каждой операции, которая меняет баланс,
+ * статус или состав карт, поэтому баланс пользователя читается одной строкой по ключу.
+ * <p>
+ * Зачисления в части баланса горячей карты в итоги сразу не попадают: иначе все зачисления на неё
+ * снова ждали бы одну строку итогов владельца. Они прибавляются к итогам при переносе частей
+ * в balance карты ({@link HotCardStripes#fold}), так что итоги учитывают только balance карт,
+ * а несвёрнутые части добавляются при чтении баланса ({@link #activeBalance}).
+ * <p>
+ * Версия итогов увеличивается при каждом изменении карт пользователя и его данных, по ней
+ * строятся ETag ответов, см. UserVersions. Поэтому версия меняется и тогда, когда сами итоги нет.
+ * <p>
+ * Порядок блокировок: строки cards, затем части баланса, затем итоги в порядке возрастания user_id.
+ * Все методы, кроме {@link #rebuild()}, поэтому вызываются последними в транзакции операции.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserBalanceSummaries {
+    private static final int REBUILD_BATCH = 500;
+    // Порядок uuid в PostgreSQL - побайтовый, как беззнаковое сравнение половин UUID,
+    // а не UUID.compareTo со знаковым сравнением
+    private static final Comparator<UUID> DATABASE_ORDER = Comparator
+            .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+            .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
+    private final UserBalanceSummaryRepository summaryRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Баланс активных карт пользователя вместе с зачислениями горячих карт, ещё не перенесёнными в итоги.
+     */
+    public Optional<BigDecimal> activeBalance(UUID userId) {
+        return summaryRepository.findActiveBalance(userId);
+    }
+
+    /**
+     * Версия итогов пользователя; пустая, если строки итогов нет, например, пользователь удалён.
+     */
+    public Optional<Long> version(UUID userId) {
+        return summaryRepository.findVersion(userId);
+    }
+
+    /**
+     * Версия итогов пользователя вместе с зачислениями его горячих карт, которые версию ещё не изменили.
+     */
+    public Optional<UserBalanceSummaryRepository.CardsVersion> cardsVersion(UUID userId) {
+        return summaryRepository.findCardsVersion(userId);
+    }
+
+    /**
+     * Увеличивает версию итогов пользователя при изменении его данных, не затрагивающем карты.
+     */
+    public void touch(UUID userId) {
+        summaryRepository.add(userId, BigDecimal.ZERO, BigDecimal.ZERO, 0);
+    }
+
+    public void transferred(UUID fromCardId, UUID toCardId, BigDecimal amount) {
+        summaryRepository.applyTransfer(fromCardId, toCardId, amount);
+    }
+
+    /**
+     * Вычитает сумму перевода из итогов отправителя, когда получатель - горячая карта и сумма ушла
+     * в часть её баланса: итоги получателя изменятся при переносе частей.
+     */
+    public void transferredToStripes(UUID fromCardId, BigDecimal amount) {
+        balanceChanged(fromCardId, amount.negate());
+    }
+
+    /**
+     * Прибавляет изменения балансов загруженных карт к итогам их владельцев.
+     */
+    public void balancesChanged(Collection<Card> cards, Map<UUID, BigDecimal> deltas) {
+        Map<UUID, BigDecimal[]> byUser = new TreeMap<>(DATABASE_ORDER);
+        for (Card card : cards) {
+            BigDecimal delta = deltas.get(card.getId());
+            if (delta == null || delta.signum() == 0) {
+                continue;
+            }
+            BigDecimal[] totals = byUser.computeIfAbsent(card.getUser().getId(),
+                    userId -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+            totals[0] = totals[0].add(delta);
+            if (card.getStatus() == Status.ACTIVE) {
+                totals[1] = totals[1].add(delta);
+            }
+        }
+        // Итоги с нулевой суммой приращений тоже записываются: версия должна измениться вместе с картами
+        byUser.forEach((userId, totals) -> summaryRepository.add(userId, totals[0], totals[1], 0));
+    }
+
+    /**
+     * Прибавляет изменение баланса карты к итогам её владельца.
+     */
+    public void balanceChanged(UUID cardId, BigDecimal delta) {
+        if (delta.signum() != 0) {
+            summaryRepository.addToCardOwner(cardId, delta);
+        }
+    }
+
+    public void cardAdded(Card card) {
+        BigDecimal balance = card.getBalance();
+        summaryRepository.add(card.getUser().getId(), balance, activePart(card.getStatus(), balance), 1);
+    }
+
+    // Несвёрнутые части баланса удаляемой карты в итогах не учтены
+    public void cardRemoved(Card card) {
+        BigDecimal balance = card.getBalance().negate();
+        summaryRepository.add(card.getUser().getId(), balance, activePart(card.getStatus(), balance), -1);
+    }
+
+    public void statusChanged(Card card, Status previous) {
+        if (previous == card.getStatus()) {
+            return;
+        }
+        BigDecimal activeDelta = BigDecimal.ZERO;
+        if ((previous == Status.ACTIVE) != (card.getStatus() == Status.ACTIVE)) {
+            BigDecimal balance = card.getBalance();
+            activeDelta = card.getStatus() == Status.ACTIVE ? balance : balance.negate();
+        }
+        summaryRepository.add(card.getUser().getId(), BigDecimal.ZERO, activeDelta, 0);
+    }
+
+    /**
+     * Пересчитывает итоги всех пользователей по картам и исправляет разошедшиеся.
+     * Итоги обрабатываются частями по REBUILD_BATCH в отдельных транзакциях, поэтому переводы
+     * во время пересчёта ждут только блокировку своей части. Возвращает число исправленных итогов.
+     */
+    public int rebuild() {
+        transactionTemplate.executeWithoutResult(status -> summaryRepository.insertMissing());
+        int corrected = 0;
+        UUID after = new UUID(0, 0);
+        while (true) {
+            List<UUID> userIds = summaryRepository.findByUserIdGreaterThanOrderByUserIdAsc(after, Limit.of(REBUILD_BATCH))
+                    .stream()
+                    .map(UserBalanceSummary::getUserId)
+                    .toList();
+            if (userIds.isEmpty()) {
+                break;
+            }
+            corrected += transactionTemplate.execute(status -> {
+                summaryRepository.lockAll(userIds);
+                return summaryRepository.recompute(userIds);
+            });
+            after = userIds.get(userIds.size() - 1);
+        }
+        log.info("Пересчёт итогов по картам пользователей завершён, исправлено: {}", corrected);
+        return corrected;
+    }
+
+    private static BigDecimal activePart(Status status, BigDecimal balance) {
+        return status == Status.ACTIVE ? balance : BigDecimal.ZERO;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.bankcards.service.card.engine;
+
+import com.example.bankcards.entity.card.Status;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Состояние карты в памяти движка. Баланс уменьшает только поток раздела, которому принадлежит карта,
+ * поэтому проверка остатка и списание не разделены гонкой: остальные потоки баланс только увеличивают.
+ * Счётчик изменений общий для всех карт владельца и увеличивается после каждого изменения баланса.
+ * <p>
+ * Перевод отмечается на обеих картах до проверки их статусов, а отметка снимается после сохранения
+ * перевода в БД или отказа. Удаление карты сначала блокирует её, затем проверяет отметки: так либо
+ * удаление видит несохранённый перевод, либо перевод видит заблокированную карту.
+ */
+final class CardBalance {
+    final UUID id;
+    final String ownerEmail;
+    volatile Status status;
+    private final AtomicLong cents;
+    private final AtomicLong ownerChanges;
+    private final AtomicInteger unsavedTransfers = new AtomicInteger();
+
+    CardBalance(UUID id, String ownerEmail, Status status, long cents, AtomicLong ownerChanges) {
+        this.id = id;
+        this.ownerEmail = ownerEmail;
+        this.status = status;
+        this.cents = new AtomicLong(cents);
+        this.ownerChanges = ownerChanges;
+    }
+
+    long cents() {
+        return cents.get();
+    }
+
+    void debit(long amount) {
+        cents.addAndGet(-amount);
+        ownerChanges.incrementAndGet();
+    }
+
+    void credit(long amount) {
+        cents.addAndGet(amount);
+        ownerChanges.incrementAndGet();
+    }
+
+    void transferStarted() {
+        unsavedTransfers.incrementAndGet();
+    }
+
+    void transferFinished() {
+        unsavedTransfers.decrementAndGet();
+    }
+
+    boolean hasUnsavedTransfers() {
+        return unsavedTransfers.get() > 0;
+    }
+}
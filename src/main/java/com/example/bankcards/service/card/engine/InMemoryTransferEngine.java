@@ -0,0 +1,514 @@
+package com.example.bankcards.service.card.engine;
+
+import com.example.bankcards.dto.card.BatchTransferResult;
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.entity.card.Card;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.entity.ledger.LedgerEntry;
+import com.example.bankcards.entity.transfer.TransferIdempotencyKey;
+import com.example.bankcards.entity.transfer.TransferJournalCheckpoint;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.repository.CardBalanceStripeRepository;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.LedgerEntryRepository;
+import com.example.bankcards.repository.TransferJournalCheckpointRepository;
+import com.example.bankcards.service.card.HotCardStripes;
+import com.example.bankcards.service.card.TransferIdempotencyStore;
+import com.example.bankcards.service.card.UserBalanceSummaries;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Движок переводов в памяти (режим {@code cards.transfer.mode=IN_MEMORY}).
+ * <p>
+ * Карты распределены по разделам по хэшу id; перевод выполняет поток раздела карты отправителя,
+ * поэтому списания одной карты никогда не конкурируют, а зачисления делаются атомарным сложением.
+ * Перевод подтверждается после записи в журнал раздела на диске. Изменения балансов и проводки
+ * сохраняются в БД фоновым сбросом одной транзакцией вместе с контрольной точкой журнала;
+ * при запуске записи журнала после контрольной точки досохраняются, и состояние читается из БД.
+ * <p>
+ * Движок считает себя единственным писателем балансов: в этом режиме должен работать
+ * ровно один экземпляр приложения.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "cards.transfer.mode", havingValue = "IN_MEMORY")
+public class InMemoryTransferEngine implements SmartLifecycle {
+    private static final Pattern JOURNAL_FILE = Pattern.compile("journal-(\\d+)\\.dat");
+    private static final int FLUSH_CHUNK = 5_000;
+    private static final int MAX_KEY_ATTEMPTS = 3;
+
+    private final CardRepository cardRepository;
+    private final LedgerEntryRepository ledgerEntryRepository;
+    private final TransferJournalCheckpointRepository checkpointRepository;
+    private final CardBalanceStripeRepository stripeRepository;
+    private final HotCardStripes hotCardStripes;
+    private final UserBalanceSummaries userBalanceSummaries;
+    private final TransferIdempotencyStore idempotencyStore;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${cards.transfer.in-memory.partitions:4}")
+    private int partitionCount;
+
+    @Value("${cards.transfer.in-memory.ring-size:65536}")
+    private int ringSize;
+
+    @Value("${cards.transfer.in-memory.journal-dir:data/journal}")
+    private Path journalDir;
+
+    @Value("${cards.transfer.in-memory.journal-records:262144}")
+    private int journalRecords;
+
+    @Value("${cards.transfer.in-memory.fsync:false}")
+    private boolean fsync;
+
+    @Value("${cards.transfer.in-memory.flush-interval-ms:50}")
+    private long flushIntervalMillis;
+
+    @Value("${cards.transfer.in-memory.timeout-ms:5000}")
+    private long timeoutMillis;
+
+    private final Map<UUID, CardBalance> cards = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> ownerChanges = new ConcurrentHashMap<>();
+    // Переводы с Idempotency-Key, ключ которых занят и ещё не завершён в БД
+    private final Map<UUID, TransferPartition.Command> keyed = new ConcurrentHashMap<>();
+    private final List<JournalRecord> unflushed = new ArrayList<>();
+    private TransferPartition[] partitions;
+    private ScheduledExecutorService flusher;
+    private volatile String startedAt;
+    private volatile boolean running;
+
+    @Override
+    public synchronized void start() {
+        try {
+            Files.createDirectories(journalDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось создать каталог журнала " + journalDir, e);
+        }
+        // Зачисления в части баланса горячих карт движок не ведёт: переносим их в balance до загрузки
+        for (UUID cardId : stripeRepository.findCardIdsWithUnfoldedBalance()) {
+            hotCardStripes.fold(cardId);
+        }
+
+        Map<Integer, Long> checkpoints = new HashMap<>();
+        for (TransferJournalCheckpoint checkpoint : checkpointRepository.findAll()) {
+            checkpoints.put(checkpoint.getPartitionId(), checkpoint.getLastSequence());
+        }
+        partitions = new TransferPartition[partitionCount];
+        int journals = Math.max(partitionCount, existingJournals());
+        for (int index = 0; index < journals; index++) {
+            long checkpoint = checkpoints.getOrDefault(index, 0L);
+            TransferJournal journal = TransferJournal.open(journalDir.resolve("journal-" + index + ".dat"), index, journalRecords);
+            List<JournalRecord> recovered = journal.recover(checkpoint);
+            unflushed.addAll(recovered);
+            long lastSequence = recovered.isEmpty() ? checkpoint : recovered.get(recovered.size() - 1).sequence();
+            if (index < partitionCount) {
+                partitions[index] = new TransferPartition(index, ringSize, journal, fsync, lastSequence, cards::get);
+            } else {
+                closeQuietly(journal);
+            }
+        }
+        if (!unflushed.isEmpty()) {
+            log.info("Восстановлено из журнала переводов: {}", unflushed.size());
+        }
+        flushUnflushed(true);
+
+        for (Card card : cardRepository.findAllWithUser()) {
+            cards.put(card.getId(), toBalance(card));
+        }
+        for (TransferPartition partition : partitions) {
+            partition.start();
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "transfer-journal-flusher"));
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        startedAt = Long.toString(System.currentTimeMillis(), 36);
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        try {
+            for (TransferPartition partition : partitions) {
+                partition.stop();
+            }
+            flusher.shutdown();
+            flusher.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        for (TransferPartition partition : partitions) {
+            closeQuietly(partition.journal());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Запускается раньше веб-сервера и останавливается после него
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    public String transfer(String userEmail, TransferRequest request) {
+        return await(submit(new TransferPartition.Command(userEmail, request)));
+    }
+
+    /**
+     * Перевод с Idempotency-Key. Ключ занимается строкой с id перевода, которая фиксируется до постановки
+     * в очередь, и завершается в транзакции сброса, сохраняющей сам перевод, поэтому ни ожидание движка,
+     * ни ошибка сброса после ответа клиенту не теряют ключ. Ключ перевода, который не выполнен,
+     * освобождается.
+     * <p>
+     * Повтор с занятым ключом возвращает сохранённый ответ или дожидается исходного перевода. Незавершённый
+     * ключ без перевода в памяти остался от запуска, перевод которого не попал в журнал: записи журнала
+     * сохраняются и завершают свои ключи при запуске, так что такой ключ освобождается и занимается заново.
+     */
+    public String transfer(String userEmail, TransferRequest request, String idempotencyKey) {
+        if (!running || !valid(request)) {
+            return transfer(userEmail, request);
+        }
+        TransferPartition.Command command = new TransferPartition.Command(userEmail, request);
+        // Команда видна повторам раньше строки ключа и пропадает после её завершения или удаления
+        keyed.put(command.transferId(), command);
+        try {
+            Optional<String> replayed = reserveKey(idempotencyKey, command);
+            if (replayed.isPresent()) {
+                keyed.remove(command.transferId());
+                return replayed.get();
+            }
+        } catch (RuntimeException e) {
+            keyed.remove(command.transferId());
+            throw e;
+        }
+        try {
+            return await(submit(command));
+        } catch (RuntimeException e) {
+            // Прерванное ожидание принятого перевода не освобождает ключ: перевод ещё может выполниться
+            if (command.cancelled() || command.result().isCompletedExceptionally()) {
+                releaseKey(command);
+            }
+            throw e;
+        }
+    }
+
+    public List<BatchTransferResult> transferBatch(String userEmail, Iterator<TransferRequest> requests) {
+        List<TransferPartition.Command> submitted = new ArrayList<>();
+        while (requests.hasNext()) {
+            submitted.add(submit(new TransferPartition.Command(userEmail, requests.next())));
+        }
+        List<BatchTransferResult> results = new ArrayList<>(submitted.size());
+        for (int index = 0; index < submitted.size(); index++) {
+            try {
+                results.add(BatchTransferResult.success(index, await(submitted.get(index))));
+            } catch (RuntimeException e) {
+                results.add(BatchTransferResult.error(index, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Текущий баланс карты в памяти движка; в БД он может отставать на интервал сброса.
+     */
+    public Optional<BigDecimal> balance(UUID cardId) {
+        return Optional.ofNullable(cards.get(cardId))
+                .map(card -> BigDecimal.valueOf(card.cents(), 2));
+    }
+
+    /**
+     * Метка изменений балансов карт владельца в памяти движка: время запуска движка и число списаний
+     * и зачислений с запуска, включая ещё не сохранённые в БД. Метка меняется вместе с балансами,
+     * которые видит клиент, а время запуска не даёт совпасть меткам до и после перезапуска.
+     */
+    public String changes(String ownerEmail) {
+        AtomicLong changes = ownerChanges.get(ownerEmail);
+        return startedAt + "." + (changes == null ? 0 : changes.get());
+    }
+
+    public void cardStatusChanged(UUID cardId, Status status) {
+        CardBalance card = cards.get(cardId);
+        if (card != null) {
+            card.status = status;
+        }
+    }
+
+    /**
+     * Готовит карту к удалению: блокирует её в памяти, так что новые переводы с ней отклоняются,
+     * и отклоняет удаление, пока у карты есть переводы, ещё не сохранённые в БД, - иначе их изменение
+     * баланса было бы некуда сохранить. Вызывается под блокировкой строки карты; при откате удаления
+     * статус возвращается через {@link #cardStatusChanged}.
+     */
+    public void cardDeleting(Card card) {
+        CardBalance balance = cards.computeIfAbsent(card.getId(), id -> toBalance(card));
+        Status previous = balance.status;
+        balance.status = Status.BLOCKED;
+        if (balance.hasUnsavedTransfers()) {
+            balance.status = previous;
+            throw new BadRequestException("Карта участвует в переводах, ещё не сохранённых в БД, повторите удаление позже");
+        }
+    }
+
+    public void cardDeleted(UUID cardId) {
+        cards.remove(cardId);
+    }
+
+    // Пустой результат - ключ занят этой командой, иначе ответ на повтор
+    private Optional<String> reserveKey(String idempotencyKey, TransferPartition.Command command) {
+        String userEmail = command.userEmail();
+        TransferRequest request = command.request();
+        for (int attempt = 0; attempt < MAX_KEY_ATTEMPTS; attempt++) {
+            if (idempotencyStore.reserve(userEmail, idempotencyKey, request, command.transferId(),
+                    TransferPartition.resultOf(request))) {
+                return Optional.empty();
+            }
+            Optional<TransferIdempotencyKey> stored = idempotencyStore.find(userEmail, idempotencyKey, request);
+            if (stored.isEmpty()) {
+                continue;
+            }
+            if (stored.get().isCompleted()) {
+                return Optional.of(stored.get().getResult());
+            }
+            TransferPartition.Command original = keyed.get(stored.get().getTransferId());
+            if (original != null) {
+                Optional<String> result = awaitOriginal(original);
+                if (result.isPresent()) {
+                    return result;
+                }
+                releaseKey(original);
+            } else {
+                idempotencyStore.release(stored.get().getTransferId());
+            }
+        }
+        throw new BadRequestException("Перевод с этим Idempotency-Key ещё выполняется, повторите попытку");
+    }
+
+    // Ответ исходного перевода для повтора; пустой, если исходный перевод не выполнен
+    private Optional<String> awaitOriginal(TransferPartition.Command original) {
+        try {
+            return Optional.of(original.result().get(timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException e) {
+            return Optional.empty();
+        } catch (TimeoutException e) {
+            throw new BadRequestException("Перевод с этим Idempotency-Key ещё выполняется, повторите попытку");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BadRequestException("Перевод прерван");
+        }
+    }
+
+    // Строка удаляется раньше команды: повтор, не нашедший команду, сам удалит уже удалённую строку
+    private void releaseKey(TransferPartition.Command command) {
+        try {
+            idempotencyStore.release(command.transferId());
+        } finally {
+            keyed.remove(command.transferId(), command);
+        }
+    }
+
+    /**
+     * Ставит перевод в очередь раздела. Переполненная очередь - перегрузка, а не ошибка запроса:
+     * перевод отклоняется RejectedExecutionException, как и асинхронные переводы.
+     */
+    private TransferPartition.Command submit(TransferPartition.Command command) {
+        TransferRequest request = command.request();
+        if (!running) {
+            command.result().completeExceptionally(new BadRequestException("Движок переводов остановлен"));
+            return command;
+        }
+        if (!valid(request)) {
+            command.result().completeExceptionally(
+                    new BadRequestException("Некорректный перевод: требуются карты и положительная сумма"));
+            return command;
+        }
+        loadIfAbsent(request.fromCardId());
+        loadIfAbsent(request.toCardId());
+        TransferPartition partition = partitions[Math.floorMod(request.fromCardId().hashCode(), partitions.length)];
+        if (!partition.offer(command)) {
+            command.result().completeExceptionally(
+                    new RejectedExecutionException("Очередь переводов переполнена, повторите попытку"));
+        }
+        return command;
+    }
+
+    /**
+     * Ждёт ответа не дольше timeout-ms. По таймауту команда отменяется, и раздел её не выполнит,
+     * поэтому отказ безопасно повторять, в том числе с тем же Idempotency-Key. Если раздел уже принял
+     * команду, осталась только запись в журнал, и ответ дожидается её.
+     */
+    private String await(TransferPartition.Command command) {
+        try {
+            try {
+                return command.result().get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (command.cancel()) {
+                    throw new BadRequestException("Перевод не выполнен: движок не принял его вовремя, повторите попытку");
+                }
+                return command.result().get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (command.cancel()) {
+                throw new BadRequestException("Перевод прерван");
+            }
+            throw new IllegalStateException("Ожидание перевода прервано, перевод может быть выполнен");
+        }
+    }
+
+    private static boolean valid(TransferRequest request) {
+        return request != null && request.fromCardId() != null && request.toCardId() != null
+                && request.amount() != null && request.amount().signum() > 0;
+    }
+
+    // Карты, созданные после запуска, читаются из БД в потоке запроса до постановки в очередь:
+    // поток раздела один на все его переводы и не ждёт JDBC. Отсутствующую карту раздел отклонит сам
+    private void loadIfAbsent(UUID cardId) {
+        if (!cards.containsKey(cardId)) {
+            cardRepository.findWithUserById(cardId).ifPresent(card -> cards.putIfAbsent(cardId, toBalance(card)));
+        }
+    }
+
+    private void transferSaved(UUID cardId) {
+        CardBalance card = cards.get(cardId);
+        if (card != null) {
+            card.transferFinished();
+        }
+    }
+
+    private CardBalance toBalance(Card card) {
+        String ownerEmail = card.getUser().getEmail();
+        return new CardBalance(card.getId(), ownerEmail, card.getStatus(), TransferPartition.toCents(card.getBalance()),
+                ownerChanges.computeIfAbsent(ownerEmail, email -> new AtomicLong()));
+    }
+
+    private void flush() {
+        for (TransferPartition partition : partitions) {
+            partition.drainUnflushed(unflushed);
+        }
+        try {
+            flushUnflushed(false);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось сохранить переводы в БД, повтор через {} мс: {}", flushIntervalMillis, e.getMessage());
+        }
+    }
+
+    // Восстановленные при запуске записи завершают ключи без проверки: команд прошлого запуска в памяти нет
+    private void flushUnflushed(boolean recovered) {
+        while (!unflushed.isEmpty()) {
+            List<JournalRecord> chunk = unflushed.subList(0, Math.min(FLUSH_CHUNK, unflushed.size()));
+            List<UUID> keyedTransfers = chunk.stream()
+                    .map(JournalRecord::transferId)
+                    .filter(transferId -> recovered || keyed.containsKey(transferId))
+                    .toList();
+            Map<Integer, Long> checkpoints = transactionTemplate.execute(status -> save(chunk, keyedTransfers));
+            for (JournalRecord journalRecord : chunk) {
+                transferSaved(journalRecord.fromCardId());
+                transferSaved(journalRecord.toCardId());
+            }
+            keyedTransfers.forEach(keyed::remove);
+            chunk.clear();
+            checkpoints.forEach((index, sequence) -> {
+                if (index < partitions.length && partitions[index] != null) {
+                    partitions[index].markFlushed(sequence);
+                }
+            });
+        }
+    }
+
+    private Map<Integer, Long> save(List<JournalRecord> records, List<UUID> keyedTransfers) {
+        // Строки карт обновляются в порядке возрастания id, как и во всех остальных переводах
+        Map<UUID, Long> deltas = new TreeMap<>();
+        Map<Integer, Long> checkpoints = new HashMap<>();
+        List<LedgerEntry> entries = new ArrayList<>(records.size() * 2);
+        // Время проводок - время сброса, а не перевода: курсор findAfter по created_at не должен
+        // пропустить проводки, которые записаны позже, чем потребитель прочитал это время
+        Instant createdAt = Instant.now();
+        for (JournalRecord journalRecord : records) {
+            deltas.merge(journalRecord.fromCardId(), -journalRecord.amountCents(), Long::sum);
+            deltas.merge(journalRecord.toCardId(), journalRecord.amountCents(), Long::sum);
+            checkpoints.merge(journalRecord.partition(), journalRecord.sequence(), Math::max);
+
+            BigDecimal amount = BigDecimal.valueOf(journalRecord.amountCents(), 2);
+            entries.add(LedgerEntry.debit(journalRecord.transferId(), journalRecord.fromCardId(), amount, createdAt));
+            entries.add(LedgerEntry.credit(journalRecord.transferId(), journalRecord.toCardId(), amount, createdAt));
+        }
+        deltas.forEach((cardId, delta) -> {
+            if (delta != 0 && cardRepository.addToBalance(cardId, BigDecimal.valueOf(delta, 2)) == 0) {
+                // Удаление карты с несохранёнными переводами отклоняется, так что сюда попадает только
+                // карта, удалённая в обход движка. Сброс откатывается и повторяется, пока её не вернут
+                log.error("Карта {} из журнала переводов не найдена в БД, изменение баланса {} не сохранено",
+                        cardId, BigDecimal.valueOf(delta, 2));
+                throw new IllegalStateException("Карта " + cardId + " из журнала переводов не найдена в БД");
+            }
+        });
+        // Итоги пользователей - после всех строк cards. Сброс выполняет один поток, а остальные операции
+        // с картами меняют итоги одного пользователя, поэтому порядок итогов здесь не важен
+        deltas.forEach((cardId, delta) -> userBalanceSummaries.balanceChanged(cardId, BigDecimal.valueOf(delta, 2)));
+        ledgerEntryRepository.saveAll(entries);
+        idempotencyStore.completed(keyedTransfers);
+        List<TransferJournalCheckpoint> updated = new ArrayList<>();
+        checkpoints.forEach((index, sequence) -> updated.add(new TransferJournalCheckpoint(index, sequence)));
+        checkpointRepository.saveAll(updated);
+        return checkpoints;
+    }
+
+    private int existingJournals() {
+        try (var files = Files.list(journalDir)) {
+            return files.map(file -> JOURNAL_FILE.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .mapToInt(matcher -> Integer.parseInt(matcher.group(1)) + 1)
+                    .max()
+                    .orElse(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать каталог журнала " + journalDir, e);
+        }
+    }
+
+    private void closeQuietly(TransferJournal journal) {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть журнал переводов: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.bankcards.service.card.engine;
+
+import java.util.UUID;
+
+/**
+ * Принятый движком перевод в том виде, в каком он записан в журнал раздела.
+ */
+public record JournalRecord(
+        int partition,
+        long sequence,
+        UUID transferId,
+        UUID fromCardId,
+        UUID toCardId,
+        long amountCents,
+        long createdAtMillis
+) {}
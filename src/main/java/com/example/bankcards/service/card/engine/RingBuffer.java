@@ -0,0 +1,68 @@
+package com.example.bankcards.service.card.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограниченная очередь без блокировок для многих производителей и одного потребителя.
+ * Каждая ячейка хранит номер, по которому производитель и потребитель узнают, чья сейчас очередь:
+ * производители занимают позицию CAS-ом, потребитель читает ячейки по порядку без синхронизации.
+ */
+final class RingBuffer<T> {
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    RingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ёмкость очереди должна быть степенью двойки: " + capacity);
+        }
+        this.items = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Добавляет элемент; возвращает false, если очередь заполнена. Может вызываться из любого потока.
+     */
+    boolean offer(T item) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items[index] = item;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Забирает следующий элемент или возвращает null. Вызывается только потоком-потребителем.
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        T item = (T) items[index];
+        items[index] = null;
+        sequences.set(index, head + mask + 1);
+        head++;
+        return item;
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.bankcards.service.card.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал упреждающей записи одного раздела движка: отображённый в память файл из записей
+ * фиксированной длины, используемый по кругу. Запись с номером n лежит в ячейке (n - 1) % capacity,
+ * поэтому перезаписать её можно только после того, как её изменения сохранены в БД.
+ * Каждая запись заканчивается CRC32, так что недописанная при сбое запись при восстановлении отбрасывается.
+ * Пишет в журнал только поток своего раздела.
+ */
+public final class TransferJournal implements Closeable {
+    static final int RECORD_SIZE = 80;
+    private static final int CHECKSUM_OFFSET = 72;
+
+    private final int partition;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private TransferJournal(int partition, int capacity, FileChannel channel, MappedByteBuffer buffer) {
+        this.partition = partition;
+        this.capacity = capacity;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    public static TransferJournal open(Path file, int partition, int capacity) {
+        try {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+            return new TransferJournal(partition, capacity, channel, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть журнал переводов " + file, e);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Записи с номером больше afterSequence, идущие подряд без пропусков, в порядке номеров.
+     * Записи после пропуска не подтверждались клиенту и не восстанавливаются. Они стираются на диске:
+     * номера после восстановленных выдаются заново, и после следующего сбоя уцелевшие старые записи
+     * продолжили бы новые без пропуска и были бы применены повторно.
+     */
+    public List<JournalRecord> recover(long afterSequence) {
+        List<JournalRecord> found = new ArrayList<>();
+        byte[] bytes = new byte[RECORD_SIZE];
+        for (int slot = 0; slot < capacity; slot++) {
+            buffer.get(slot * RECORD_SIZE, bytes);
+            ByteBuffer data = ByteBuffer.wrap(bytes);
+            long sequence = data.getLong(0);
+            if (sequence > afterSequence && checksum(bytes) == data.getInt(CHECKSUM_OFFSET)) {
+                found.add(new JournalRecord(partition, sequence,
+                        new UUID(data.getLong(8), data.getLong(16)),
+                        new UUID(data.getLong(24), data.getLong(32)),
+                        new UUID(data.getLong(40), data.getLong(48)),
+                        data.getLong(56), data.getLong(64)));
+            }
+        }
+        found.sort(Comparator.comparingLong(JournalRecord::sequence));
+
+        List<JournalRecord> recovered = new ArrayList<>(found.size());
+        long expected = afterSequence + 1;
+        for (JournalRecord journalRecord : found) {
+            if (journalRecord.sequence() != expected) {
+                break;
+            }
+            recovered.add(journalRecord);
+            expected++;
+        }
+        if (recovered.size() < found.size()) {
+            for (JournalRecord stale : found.subList(recovered.size(), found.size())) {
+                erase(stale.sequence());
+            }
+            force();
+        }
+        return recovered;
+    }
+
+    public void append(JournalRecord journalRecord) {
+        record.clear();
+        record.putLong(journalRecord.sequence())
+                .putLong(journalRecord.transferId().getMostSignificantBits())
+                .putLong(journalRecord.transferId().getLeastSignificantBits())
+                .putLong(journalRecord.fromCardId().getMostSignificantBits())
+                .putLong(journalRecord.fromCardId().getLeastSignificantBits())
+                .putLong(journalRecord.toCardId().getMostSignificantBits())
+                .putLong(journalRecord.toCardId().getLeastSignificantBits())
+                .putLong(journalRecord.amountCents())
+                .putLong(journalRecord.createdAtMillis());
+        record.putInt(CHECKSUM_OFFSET, checksum(record.array()));
+        int slot = (int) ((journalRecord.sequence() - 1) % capacity);
+        buffer.put(slot * RECORD_SIZE, record.array());
+    }
+
+    /**
+     * Стирает запись, которая так и не была подтверждена. Пустая ячейка не проходит проверку CRC
+     * и при восстановлении не читается.
+     */
+    public void erase(long sequence) {
+        int slot = (int) ((sequence - 1) % capacity);
+        buffer.put(slot * RECORD_SIZE, new byte[RECORD_SIZE]);
+    }
+
+    /**
+     * Сбрасывает записанное на диск. Без этого записи переживают падение процесса,
+     * но не отключение питания.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int checksum(byte[] bytes) {
+        crc.reset();
+        crc.update(bytes, 0, CHECKSUM_OFFSET);
+        return (int) crc.getValue();
+    }
+}
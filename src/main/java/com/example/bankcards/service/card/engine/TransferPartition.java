@@ -0,0 +1,284 @@
+package com.example.bankcards.service.card.engine;
+
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.exception.NotFoundException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Раздел движка: один поток, который выполняет переводы со своих карт в порядке поступления.
+ * Перевод сначала пишется в журнал раздела и только затем списывается; ответ клиенту и зачисление
+ * получателю происходят после записи всей пачки, так что видимый другим переводам баланс всегда
+ * подкреплён журналом. Если пачку не удалось сбросить на диск, её записи стираются из журнала,
+ * списания возвращаются, а переводы завершаются ошибкой; поток раздела продолжает работу.
+ */
+@Slf4j
+final class TransferPartition implements Runnable {
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    /**
+     * Перевод в очереди раздела. Поток раздела принимает команду перед записью в журнал,
+     * а ожидающий ответа поток может отменить её по таймауту, пока она не принята:
+     * отменённая команда не выполняется, так что отказ по таймауту означает, что деньги не двигались.
+     */
+    record Command(String userEmail, TransferRequest request, UUID transferId,
+                   CompletableFuture<String> result, AtomicInteger state) {
+        private static final int PENDING = 0;
+        private static final int ACCEPTED = 1;
+        private static final int CANCELLED = 2;
+
+        Command(String userEmail, TransferRequest request) {
+            this(userEmail, request, UUID.randomUUID(), new CompletableFuture<>(), new AtomicInteger(PENDING));
+        }
+
+        boolean accept() {
+            return state.compareAndSet(PENDING, ACCEPTED);
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        boolean cancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+    private final int index;
+    private final RingBuffer<Command> commands;
+    private final TransferJournal journal;
+    private final boolean fsync;
+    private final Function<UUID, CardBalance> cards;
+    private final Queue<JournalRecord> unflushed = new ConcurrentLinkedQueue<>();
+
+    private final List<JournalRecord> batchRecords = new ArrayList<>(MAX_BATCH);
+    private final List<CardBalance> batchSenders = new ArrayList<>(MAX_BATCH);
+    private final List<CardBalance> batchReceivers = new ArrayList<>(MAX_BATCH);
+    private final List<Command> batchCommands = new ArrayList<>(MAX_BATCH);
+
+    private long sequence;
+    private volatile long flushedSequence;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    TransferPartition(int index, int ringSize, TransferJournal journal, boolean fsync,
+                      long lastSequence, Function<UUID, CardBalance> cards) {
+        this.index = index;
+        this.commands = new RingBuffer<>(ringSize);
+        this.journal = journal;
+        this.fsync = fsync;
+        this.sequence = lastSequence;
+        this.flushedSequence = lastSequence;
+        this.cards = cards;
+    }
+
+    void start() {
+        thread = new Thread(this, "transfer-partition-" + index);
+        thread.start();
+    }
+
+    boolean offer(Command command) {
+        if (!commands.offer(command)) {
+            return false;
+        }
+        LockSupport.unpark(thread);
+        return true;
+    }
+
+    /**
+     * Останавливает поток после обработки уже принятых команд.
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+        Command command;
+        while ((command = commands.poll()) != null) {
+            command.result().completeExceptionally(new BadRequestException("Движок переводов остановлен"));
+        }
+    }
+
+    void drainUnflushed(Collection<JournalRecord> target) {
+        JournalRecord journalRecord;
+        while ((journalRecord = unflushed.poll()) != null) {
+            target.add(journalRecord);
+        }
+    }
+
+    void markFlushed(long lastSequence) {
+        flushedSequence = Math.max(flushedSequence, lastSequence);
+    }
+
+    TransferJournal journal() {
+        return journal;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Command command = commands.poll();
+            if (command == null) {
+                if (!running) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            int processed = 0;
+            do {
+                process(command);
+                processed++;
+            } while (processed < MAX_BATCH && (command = commands.poll()) != null);
+            commit();
+        }
+    }
+
+    private void process(Command command) {
+        CardBalance from;
+        CardBalance to;
+        long amount;
+        try {
+            TransferRequest request = command.request();
+            amount = toCents(request.amount());
+            from = cards.apply(request.fromCardId());
+            if (from == null) {
+                throw new NotFoundException("Карта отправителя не найдена");
+            }
+            to = cards.apply(request.toCardId());
+            if (to == null) {
+                throw new NotFoundException("Карта получателя не найдена");
+            }
+        } catch (RuntimeException e) {
+            command.result().completeExceptionally(e);
+            return;
+        }
+        // Отметка ставится до проверки статусов, см. CardBalance; снимается после сохранения в БД
+        from.transferStarted();
+        to.transferStarted();
+        try {
+            validate(command.userEmail(), from, to, amount);
+
+            awaitJournalSpace(sequence + 1, command);
+            if (!command.accept()) {
+                throw new BadRequestException("Перевод отменён по таймауту");
+            }
+            // Номер занимается только после записи: при ошибке записи в журнале не остаётся пропуска
+            JournalRecord journalRecord = new JournalRecord(index, sequence + 1, command.transferId(),
+                    from.id, to.id, amount, System.currentTimeMillis());
+            journal.append(journalRecord);
+            sequence++;
+            from.debit(amount);
+
+            batchRecords.add(journalRecord);
+            batchSenders.add(from);
+            batchReceivers.add(to);
+            batchCommands.add(command);
+        } catch (RuntimeException e) {
+            from.transferFinished();
+            to.transferFinished();
+            command.result().completeExceptionally(e);
+        }
+    }
+
+    private void commit() {
+        if (batchRecords.isEmpty()) {
+            return;
+        }
+        if (fsync) {
+            try {
+                journal.force();
+            } catch (RuntimeException e) {
+                abort(e);
+                return;
+            }
+        }
+        for (int i = 0; i < batchRecords.size(); i++) {
+            JournalRecord journalRecord = batchRecords.get(i);
+            batchReceivers.get(i).credit(journalRecord.amountCents());
+            unflushed.add(journalRecord);
+            batchCommands.get(i).result().complete(resultOf(batchCommands.get(i).request()));
+        }
+        clearBatch();
+    }
+
+    // Пачка не подтверждена диском и клиентам не отвечала: переводы отменяются целиком,
+    // а их номера занимают следующие переводы
+    private void abort(RuntimeException cause) {
+        log.error("Не удалось записать пачку переводов раздела {} в журнал", index, cause);
+        for (int i = batchRecords.size() - 1; i >= 0; i--) {
+            JournalRecord journalRecord = batchRecords.get(i);
+            journal.erase(journalRecord.sequence());
+            batchSenders.get(i).credit(journalRecord.amountCents());
+            batchSenders.get(i).transferFinished();
+            batchReceivers.get(i).transferFinished();
+            batchCommands.get(i).result().completeExceptionally(
+                    new IllegalStateException("Перевод не записан в журнал и не выполнен, повторите попытку", cause));
+        }
+        if (!batchRecords.isEmpty()) {
+            sequence = batchRecords.get(0).sequence() - 1;
+        }
+        clearBatch();
+    }
+
+    private void clearBatch() {
+        batchRecords.clear();
+        batchSenders.clear();
+        batchReceivers.clear();
+        batchCommands.clear();
+    }
+
+    // Ячейка журнала освобождается, когда записанный в ней перевод сохранён в БД.
+    // Отменённой команде место не нужно, и раздел переходит к следующей. Принятые переводы пакета
+    // уже записаны в журнал и подтверждаются до ожидания: их клиенты не отменяют команды, пока ждут ответа
+    private void awaitJournalSpace(long nextSequence, Command command) {
+        if (nextSequence - journal.capacity() <= flushedSequence) {
+            return;
+        }
+        commit();
+        while (nextSequence - journal.capacity() > flushedSequence && !command.cancelled()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void validate(String userEmail, CardBalance from, CardBalance to, long amount) {
+        if (!from.ownerEmail.equals(userEmail)) {
+            throw new BadRequestException("Карта не принадлежит данному пользователю");
+        }
+        if (from.status == Status.BLOCKED) {
+            throw new BadRequestException("Карта отправителя заблокирована");
+        }
+        if (to.status == Status.BLOCKED) {
+            throw new BadRequestException("Карта получателя заблокирована");
+        }
+        if (from.cents() < amount) {
+            throw new BadRequestException("Недостаточно средств на карте");
+        }
+    }
+
+    static String resultOf(TransferRequest request) {
+        return "Перевод " + request.amount() + " выполнен";
+    }
+
+    static long toCents(BigDecimal amount) {
+        try {
+            return amount.setScale(2).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new BadRequestException("Сумма перевода должна содержать не более двух знаков после запятой");
+        }
+    }
+}
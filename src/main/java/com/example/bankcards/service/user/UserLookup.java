@@ -0,0 +1,16 @@
+package com.example.bankcards.service.user;
+
+import com.example.bankcards.entity.user.Role;
+import com.example.bankcards.entity.user.User;
+
+import java.util.UUID;
+
+/**
+ * Данные пользователя, которых хватает запросам по email из токена: без пароля и персональных данных.
+ */
+public record UserLookup(UUID id, String email, Role role, String fullName) {
+
+    public static UserLookup of(User user) {
+        return new UserLookup(user.getId(), user.getEmail(), user.getRole(), user.getFullName());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.bankcards.service.user;
+
+import com.example.bankcards.entity.user.User;
+import com.example.bankcards.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Ограниченный по размеру кэш с TTL перед UserRepository.findByEmail: запросы владельца карт
+ * по email из токена получают id, роль и имя пользователя без обращения к таблице users.
+ * <p>
+ * Запись сбрасывается при изменении и удалении пользователя через {@link UserServiceImpl}.
+ * Сброс локален для экземпляра приложения, поэтому на остальных экземплярах устаревшие данные
+ * живут не дольше TTL. Отсутствующие пользователи не кэшируются. Попадания и промахи
+ * публикуются метриками cache.gets с тегом cache=users.lookup.
+ */
+@Component
+public class UserLookupCache {
+    private final UserRepository userRepository;
+    private final Cache<String, UserLookup> cache;
+
+    public UserLookupCache(UserRepository userRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${users.lookup-cache.size:10000}") long cacheSize,
+                           @Value("${users.lookup-cache.ttl:PT5M}") Duration cacheTtl) {
+        this.userRepository = userRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "users.lookup");
+    }
+
+    public Optional<UserLookup> find(String email) {
+        UserLookup cached = cache.getIfPresent(email);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        return userRepository.findByEmail(email).map(this::remember);
+    }
+
+    /**
+     * Кладёт в кэш пользователя, уже прочитанного из базы, например при входе.
+     */
+    public UserLookup remember(User user) {
+        UserLookup lookup = UserLookup.of(user);
+        cache.put(lookup.email(), lookup);
+        return lookup;
+    }
+
+    /**
+     * Сбрасывает запись. Внутри транзакции - после её коммита, иначе параллельный запрос успел бы
+     * прочитать ещё не изменённого пользователя и вернуть его в кэш.
+     */
+    public void evict(String email) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cache.invalidate(email);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cache.invalidate(email);
+            }
+        });
+    }
+
+    /**
+     * Сбрасывает запись по id. Кэш ключуется по email, поэтому записи просматриваются целиком;
+     * это допустимо для редкого удаления пользователя администратором.
+     */
+    public void evict(UUID userId) {
+        cache.asMap().values().removeIf(lookup -> lookup.id().equals(userId));
+    }
+}
@@ -11,6 +11,7 @@ import com.example.bankcards.util.UserMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.UUID;
@@ -22,6 +23,8 @@ public class UserServiceImpl implements UserService {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
     private final UserMapper userMapper;
+    private final UserLookupCache userLookupCache;
+    private final UserVersions userVersions;
 
     public UserDto createUser(CreateUserRequest request) {
         if (userRepository.existsByEmail(request.email())) {
@@ -34,24 +37,29 @@ public class UserServiceImpl implements UserService {
         return userMapper.toDto(savedUser);
     }
 
+    @Transactional(readOnly = true)
     public List<UserDto> getAllUsers() {
         return userRepository.findAll().stream()
                 .map(userMapper::toDto)
                 .collect(Collectors.toList());
     }
 
+    @Transactional(readOnly = true)
     public UserDto getUserById(UUID id) {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Пользователь с id " + id + " не найден"));
         return userMapper.toDto(user);
     }
 
+    @Transactional
     public UserDto updateUser(UUID id, UpdateUserRequest request) {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Пользователь с id " + id + " не найден"));
 
         userMapper.updateEntity(request, user);
         User updatedUser = userRepository.save(user);
+        userVersions.changed(updatedUser.getId());
+        userLookupCache.evict(updatedUser.getEmail());
 
         return userMapper.toDto(updatedUser);
     }
@@ -61,5 +69,6 @@ public class UserServiceImpl implements UserService {
             throw new NotFoundException("Пользователь с id " + id + " не найден");
         }
         userRepository.deleteById(id);
+        userLookupCache.evict(id);
     }
 }
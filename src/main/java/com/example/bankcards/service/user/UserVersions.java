@@ -0,0 +1,92 @@
+package com.example.bankcards.service.user;
+
+import com.example.bankcards.service.card.UserBalanceSummaries;
+import com.example.bankcards.service.card.engine.InMemoryTransferEngine;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Условное чтение данных пользователя по ETag. ETag строится из id пользователя и версии его итогов
+ * в user_balance_summary, которая увеличивается в транзакции каждого изменения карт и данных
+ * пользователя. Id в ETag не даёт совпасть ETag разных пользователей, если клиент кэширует
+ * ответы по URL и после смены учётной записи присылает чужой If-None-Match.
+ * <p>
+ * Версия читается до данных и в той же транзакции только для чтения, поэтому данные ответа
+ * не старее его ETag, даже если транзакция ушла в реплику.
+ * <p>
+ * Карты пользователя меняются и без версии: зачисление в часть баланса горячей карты меняет её
+ * только при переносе частей в balance, а перевод в режиме IN_MEMORY - при сбросе движка в БД.
+ * ETag карт поэтому дополняется суммой несвёрнутых частей, которая между переносами только растёт,
+ * и меткой изменений карт пользователя в движке.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserVersions {
+    private final UserBalanceSummaries userBalanceSummaries;
+    private final UserLookupCache userLookupCache;
+    private final ObjectProvider<InMemoryTransferEngine> inMemoryEngine;
+
+    /**
+     * Загружает данные, если ETag текущей версии не проходит проверку notModified, иначе
+     * возвращает пустой результат, не трогая сами данные. Без строки итогов версии нет:
+     * данные загружаются без проверки и без ETag, и загрузка сама сообщит об удалённом пользователе.
+     */
+    @Transactional(readOnly = true)
+    public <T> Optional<T> readIfModified(UUID userId, Predicate<String> notModified, Supplier<T> loader) {
+        Optional<Long> version = userBalanceSummaries.version(userId);
+        if (version.isPresent() && notModified.test(etag(userId, version.get()))) {
+            return Optional.empty();
+        }
+        return Optional.of(loader.get());
+    }
+
+    /**
+     * То же для карт текущего пользователя по email из токена: ETag учитывает и изменения балансов,
+     * ещё не отражённые в версии. Для неизвестного email данные загружаются без проверки:
+     * загрузка сама сообщит об отсутствии пользователя.
+     */
+    @Transactional(readOnly = true)
+    public <T> Optional<T> readIfModified(String email, Predicate<String> notModified, Supplier<T> loader) {
+        Optional<UUID> userId = userLookupCache.find(email).map(UserLookup::id);
+        if (userId.isEmpty()) {
+            return Optional.of(loader.get());
+        }
+        // Метка движка читается до версии: сброс в БД меняет версию, но не балансы в памяти
+        InMemoryTransferEngine engine = inMemoryEngine.getIfAvailable();
+        String engineChanges = engine == null ? null : engine.changes(email);
+        Optional<String> etag = userBalanceSummaries.cardsVersion(userId.get())
+                .map(version -> etag(userId.get(), version.getVersion(), pending(version.getUnfolded(), engineChanges)));
+        if (etag.isPresent() && notModified.test(etag.get())) {
+            return Optional.empty();
+        }
+        return Optional.of(loader.get());
+    }
+
+    /**
+     * Увеличивает версию пользователя в текущей транзакции изменения его данных.
+     */
+    public void changed(UUID userId) {
+        userBalanceSummaries.touch(userId);
+    }
+
+    static String etag(UUID userId, long version) {
+        return etag(userId, version, "");
+    }
+
+    private static String etag(UUID userId, long version, String pending) {
+        return "\"" + userId + "-" + version + pending + "\"";
+    }
+
+    private static String pending(BigDecimal unfolded, String engineChanges) {
+        String pending = unfolded.signum() == 0 ? "" : "-" + unfolded.toPlainString();
+        return engineChanges == null ? pending : pending + "-" + engineChanges;
+    }
+}
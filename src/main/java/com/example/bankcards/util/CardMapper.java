@@ -22,6 +22,10 @@ public interface CardMapper {
     @Mapping(target = "id", ignore = true)
     @Mapping(target = "user", source = "userId")
     @Mapping(target = "status", constant = "ACTIVE")
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "hot", ignore = true)
+    @Mapping(target = "createdAt", ignore = true)
+    @Mapping(target = "cardNumberHash", ignore = true)
     Card toResponse(CreateCardRequest request);
 
     default User map(UUID userId) {
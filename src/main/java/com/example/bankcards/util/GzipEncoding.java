@@ -0,0 +1,41 @@
+package com.example.bankcards.util;
+
+/**
+ * Разбор заголовка Accept-Encoding так же, как его читает сжатие Tomcat: клиент принимает gzip,
+ * если среди кодировок есть gzip с ненулевым q.
+ */
+public final class GzipEncoding {
+    public static final String GZIP = "gzip";
+
+    private GzipEncoding() {
+    }
+
+    public static boolean accepted(String[] acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String header : acceptEncoding) {
+            for (String coding : header.split(",")) {
+                String[] parts = coding.split(";");
+                if (parts[0].trim().equalsIgnoreCase(GZIP)) {
+                    return quality(parts) > 0;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
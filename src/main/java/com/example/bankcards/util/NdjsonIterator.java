@@ -0,0 +1,64 @@
+package com.example.bankcards.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Ленивое чтение NDJSON (один JSON-объект на строку) без загрузки всего тела запроса в память.
+ * Пустые строки пропускаются, строка с некорректным JSON возвращается как null,
+ * чтобы вызывающий код мог отметить ошибку для конкретной позиции и продолжить.
+ */
+public class NdjsonIterator<T> implements Iterator<T> {
+    private final BufferedReader reader;
+    private final ObjectMapper objectMapper;
+    private final Class<T> type;
+    private String nextLine;
+
+    public NdjsonIterator(InputStream body, ObjectMapper objectMapper, Class<T> type) {
+        this.reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        this.objectMapper = objectMapper;
+        this.type = type;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextLine != null) {
+            return true;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    nextLine = line;
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String line = nextLine;
+        nextLine = null;
+        try {
+            return objectMapper.readValue(line, type);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.bankcards.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompressingJsonHttpMessageConverterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CompressingJsonHttpMessageConverter converter =
+            new CompressingJsonHttpMessageConverter(objectMapper, true, 2048);
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void write_SendsShortBodyWithContentLengthAndWithoutCompression() throws IOException {
+        acceptEncoding("gzip, deflate");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        write(Map.of("balance", 1500), response);
+
+        assertThat(response.getContentAsString()).isEqualTo("{\"balance\":1500}");
+        assertThat(response.getContentLength()).isEqualTo(response.getContentAsByteArray().length);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+    }
+
+    @Test
+    void write_CompressesBodyAboveThresholdForGzipClient() throws IOException {
+        acceptEncoding("gzip");
+        List<String> cards = Collections.nCopies(500, "**** **** **** 1234");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        write(cards, response);
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(response.getHeaders(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_LENGTH)).isNull();
+        try (GZIPInputStream body = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            assertThat(objectMapper.readValue(body, List.class)).isEqualTo(cards);
+        }
+    }
+
+    @Test
+    void write_StreamsBodyAboveThresholdUncompressedForClientWithoutGzip() throws IOException {
+        acceptEncoding("gzip;q=0, identity");
+        List<String> cards = Collections.nCopies(500, "**** **** **** 1234");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        write(cards, response);
+
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeaders(HttpHeaders.VARY)).contains(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(objectMapper.readValue(response.getContentAsByteArray(), List.class)).isEqualTo(cards);
+    }
+
+    private void acceptEncoding(String value) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cards/user");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, value);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    private void write(Object body, MockHttpServletResponse response) throws IOException {
+        ServletServerHttpResponse outputMessage = new ServletServerHttpResponse(response);
+        converter.write(body, MediaType.APPLICATION_JSON, outputMessage);
+        outputMessage.flush();
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.bankcards.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PasswordEncoderConfigTest {
+
+    @Test
+    void calibrateStrength_PicksHighestStrengthWithinTarget() {
+        int strength = PasswordEncoderConfig.calibrateStrength(Duration.ofMillis(250), 10, 16,
+                cost -> Duration.ofMillis(50));
+
+        // 50 мс при 10, 100 мс при 11, 200 мс при 12, 400 мс при 13
+        assertThat(strength).isEqualTo(12);
+    }
+
+    @Test
+    void calibrateStrength_StaysWithinBounds() {
+        assertThat(PasswordEncoderConfig.calibrateStrength(Duration.ofMillis(250), 10, 16,
+                cost -> Duration.ofSeconds(1))).isEqualTo(10);
+        assertThat(PasswordEncoderConfig.calibrateStrength(Duration.ofSeconds(10), 10, 12,
+                cost -> Duration.ofMillis(1))).isEqualTo(12);
+    }
+
+    @Test
+    void passwordEncoder_AcceptsLegacyHashesAndAsksToUpgradeThem() {
+        PasswordEncoder encoder = new PasswordEncoderConfig().passwordEncoder(5, Duration.ZERO, 4, 16);
+        String legacy = new BCryptPasswordEncoder(4).encode("user123");
+        String current = encoder.encode("user123");
+
+        assertThat(encoder.matches("user123", legacy)).isTrue();
+        assertThat(encoder.upgradeEncoding(legacy)).isTrue();
+        assertThat(current).startsWith("{bcrypt}$2a$05$");
+        assertThat(encoder.matches("user123", current)).isTrue();
+        assertThat(encoder.upgradeEncoding(current)).isFalse();
+        assertThat(encoder.upgradeEncoding(new PasswordEncoderConfig().passwordEncoder(4, Duration.ZERO, 4, 16)
+                .encode("user123"))).isTrue();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.bankcards.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class ReplicaRoutingDataSourceTest {
+
+    @Mock
+    private JdbcTemplate replica;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ReplicaLagMonitor monitor;
+    private ReplicaRoutingDataSource routing;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        monitor = new ReplicaLagMonitor(replica, Duration.ofSeconds(5), meterRegistry);
+        routing = new ReplicaRoutingDataSource(monitor::isAvailable);
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    void readOnlyTransaction_GoesToReplicaWhileItKeepsUp() {
+        when(replica.queryForObject(ReplicaLagMonitor.LAG_QUERY, Double.class)).thenReturn(0.3);
+        monitor.check();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertThat(routing.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.Target.REPLICA);
+        assertThat(meterRegistry.get("cards.datasource.replica.lag").gauge().value()).isEqualTo(0.3);
+    }
+
+    @Test
+    void writeTransaction_GoesToPrimary() {
+        when(replica.queryForObject(ReplicaLagMonitor.LAG_QUERY, Double.class)).thenReturn(0.0);
+        monitor.check();
+
+        assertThat(routing.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.Target.PRIMARY);
+    }
+
+    @Test
+    void readOnlyTransaction_FallsBackToPrimaryWhenReplicaLags() {
+        when(replica.queryForObject(ReplicaLagMonitor.LAG_QUERY, Double.class)).thenReturn(12.0);
+        monitor.check();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertThat(routing.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.Target.PRIMARY);
+        assertThat(meterRegistry.get("cards.datasource.replica.available").gauge().value()).isZero();
+    }
+
+    @Test
+    void readOnlyTransaction_FallsBackToPrimaryWhenReplicaIsDown() {
+        when(replica.queryForObject(ReplicaLagMonitor.LAG_QUERY, Double.class))
+                .thenReturn(0.0)
+                .thenThrow(new QueryTimeoutException("timeout"));
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        monitor.check();
+        assertThat(routing.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.Target.REPLICA);
+
+        monitor.check();
+        assertThat(routing.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.Target.PRIMARY);
+        assertThat(meterRegistry.get("cards.datasource.replica.lag").gauge().value()).isNaN();
+    }
+}
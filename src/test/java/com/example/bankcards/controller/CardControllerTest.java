@@ -1,31 +1,59 @@
 package com.example.bankcards.controller;
 
+import com.example.bankcards.dto.card.BatchTransferResult;
 import com.example.bankcards.dto.card.BlockCardRequest;
 import com.example.bankcards.dto.card.BlockCardResponse;
+import com.example.bankcards.dto.card.CardLookupRequest;
+import com.example.bankcards.dto.card.CardSliceResponse;
 import com.example.bankcards.dto.card.CreateCardRequest;
 import com.example.bankcards.dto.card.ResponseDto;
 import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.dto.card.TransferStatusResponse;
 import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.service.card.AsyncTransfer;
+import com.example.bankcards.service.card.AsyncTransferService;
 import com.example.bankcards.service.card.CardService;
+import com.example.bankcards.service.user.UserVersions;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
-
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 class CardControllerTest {
@@ -33,6 +61,12 @@ class CardControllerTest {
     @Mock
     private CardService cardService;
 
+    @Mock
+    private AsyncTransferService asyncTransferService;
+
+    @Mock
+    private UserVersions userVersions;
+
     @Mock
     private Authentication authentication;
 
@@ -42,10 +76,14 @@ class CardControllerTest {
     private UUID cardId;
     private UUID userId;
     private ResponseDto responseDto;
+    private WebRequest webRequest;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(userVersions.readIfModified(any(String.class), any(), any()))
+                .thenAnswer(invocation -> Optional.of(invocation.<Supplier<?>>getArgument(2).get()));
+        webRequest = new ServletWebRequest(new MockHttpServletRequest("GET", "/cards"), new MockHttpServletResponse());
         cardId = UUID.randomUUID();
         userId = UUID.randomUUID();
 
@@ -60,25 +98,93 @@ class CardControllerTest {
     }
 
     @Test
-    void getAllCards_success() {
-        when(cardService.getAllCards()).thenReturn(List.of(responseDto));
+    void getAllCards_streamsJsonArray() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        ReflectionTestUtils.setField(cardController, "objectMapper", objectMapper);
+        doAnswer(invocation -> {
+            Consumer<ResponseDto> consumer = invocation.getArgument(0);
+            consumer.accept(responseDto);
+            consumer.accept(responseDto);
+            return null;
+        }).when(cardService).exportCards(any());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        cardController.getAllCards().getBody().writeTo(output);
+
+        ResponseDto[] result = objectMapper.readValue(output.toByteArray(), ResponseDto[].class);
+        assertThat(result).containsExactly(responseDto, responseDto);
+    }
+
+    @Test
+    void getAllCardsNdjson_writesOneCardPerLine() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        ReflectionTestUtils.setField(cardController, "objectMapper", objectMapper);
+        doAnswer(invocation -> {
+            Consumer<ResponseDto> consumer = invocation.getArgument(0);
+            consumer.accept(responseDto);
+            consumer.accept(responseDto);
+            return null;
+        }).when(cardService).exportCards(any());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        cardController.getAllCardsNdjson().getBody().writeTo(output);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(objectMapper.readValue(lines[1], ResponseDto.class)).isEqualTo(responseDto);
+    }
+
+    @Test
+    void getCardsPage_linksNextPageWhenPageIsFull() {
+        when(cardService.getCardsAfter(null, 1)).thenReturn(List.of(responseDto));
+
+        ResponseEntity<?> response = cardController.getCardsPage(null, 1);
 
-        List<ResponseDto> result = cardController.getAllCards();
+        assertThat(response.getStatusCodeValue()).isEqualTo(200);
+        assertThat(response.getBody()).isEqualTo(List.of(responseDto));
+        assertThat(response.getHeaders().getFirst("Link"))
+                .isEqualTo("</cards/admin?after=" + cardId + "&limit=1>; rel=\"next\"");
+    }
+
+    @Test
+    void getCardsPage_rejectsTooLargeLimit() {
+        ResponseEntity<?> response = cardController.getCardsPage(null, 100_000);
 
-        assertThat(result).hasSize(1);
-        assertThat(result.get(0)).isEqualTo(responseDto);
+        assertThat(response.getStatusCodeValue()).isEqualTo(400);
+        verifyNoInteractions(cardService);
     }
 
     @Test
     void getUserCards_success() {
         when(authentication.getName()).thenReturn("test@example.com");
-        Page<ResponseDto> page = new PageImpl<>(List.of(responseDto));
-        when(cardService.getUserCards("test@example.com", 0, 10)).thenReturn(page);
+        CardSliceResponse slice = new CardSliceResponse(List.of(responseDto), "next");
+        when(cardService.getUserCards("test@example.com", null, 10)).thenReturn(slice);
+
+        ResponseEntity<?> response = cardController.getUserCards(authentication, null, 10, webRequest);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(200);
+        assertThat(response.getBody()).isEqualTo(slice);
+    }
+
+    @Test
+    void getUserCards_notModifiedSkipsLoading() {
+        when(authentication.getName()).thenReturn("test@example.com");
+        when(userVersions.readIfModified(eq("test@example.com"), any(), any())).thenReturn(Optional.empty());
 
-        Page<ResponseDto> result = cardController.getUserCards(authentication, 0, 10);
+        ResponseEntity<?> response = cardController.getUserCards(authentication, null, 10, webRequest);
 
-        assertThat(result.getContent()).hasSize(1);
-        assertThat(result.getContent().get(0)).isEqualTo(responseDto);
+        assertThat(response.getStatusCodeValue()).isEqualTo(304);
+        assertThat(response.getBody()).isNull();
+        assertThat(response.getHeaders().getCacheControl()).isEqualTo("no-cache, private");
+        verify(cardService, never()).getUserCards(any(), any(), anyInt());
+    }
+
+    @Test
+    void getUserCards_rejectsTooLargeSize() {
+        ResponseEntity<?> response = cardController.getUserCards(authentication, null, 10_000, webRequest);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(400);
+        verifyNoInteractions(cardService);
     }
 
     @Test
@@ -108,6 +214,15 @@ class CardControllerTest {
         assertThat(result).isEqualTo(responseDto);
     }
 
+    @Test
+    void findCardByNumber_success() {
+        when(cardService.findByCardNumber("1234567812341234")).thenReturn(responseDto);
+
+        ResponseDto result = cardController.findCardByNumber(new CardLookupRequest("1234567812341234"));
+
+        assertThat(result).isEqualTo(responseDto);
+    }
+
     @Test
     void deleteCard_success() {
         doNothing().when(cardService).delete(cardId);
@@ -155,20 +270,31 @@ class CardControllerTest {
     @Test
     void getBalance_success() {
         when(authentication.getName()).thenReturn("test@example.com");
-        Page<ResponseDto> page = new PageImpl<>(List.of(responseDto));
-        when(cardService.getUserCards("test@example.com", 0, 10)).thenReturn(page);
+        when(cardService.getUserBalance("test@example.com")).thenReturn(BigDecimal.valueOf(1000));
 
-        ResponseEntity<?> response = cardController.getBalance(authentication, 0, 10);
+        ResponseEntity<?> response = cardController.getBalance(authentication, false, webRequest);
 
         assertThat(response.getStatusCodeValue()).isEqualTo(200);
-        assertThat(response.getBody()).isEqualTo(responseDto.balance());
+        assertThat(response.getBody()).isEqualTo(BigDecimal.valueOf(1000));
+    }
+
+    @Test
+    void getBalance_byStatus() {
+        when(authentication.getName()).thenReturn("test@example.com");
+        Map<Status, BigDecimal> balances = Map.of(Status.ACTIVE, BigDecimal.TEN, Status.BLOCKED, BigDecimal.ONE);
+        when(cardService.getUserBalanceByStatus("test@example.com")).thenReturn(balances);
+
+        ResponseEntity<?> response = cardController.getBalance(authentication, true, webRequest);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(200);
+        assertThat(response.getBody()).isEqualTo(balances);
     }
 
     @Test
     void getBalance_failure() {
         when(authentication.getName()).thenThrow(new RuntimeException("Error"));
 
-        ResponseEntity<?> response = cardController.getBalance(authentication, 0, 10);
+        ResponseEntity<?> response = cardController.getBalance(authentication, false, webRequest);
 
         assertThat(response.getStatusCodeValue()).isEqualTo(400);
         assertThat(response.getBody()).isEqualTo("Ошибка: Error");
@@ -178,9 +304,9 @@ class CardControllerTest {
     void transfer_success() {
         TransferRequest request = new TransferRequest(cardId, cardId, BigDecimal.valueOf(100));
         when(authentication.getName()).thenReturn("test@example.com");
-        when(cardService.transfer("test@example.com", request)).thenReturn("Success");
+        when(cardService.transfer("test@example.com", request, "key-1")).thenReturn("Success");
 
-        ResponseEntity<String> response = cardController.transfer(request, authentication);
+        ResponseEntity<String> response = cardController.transfer(request, "key-1", authentication);
 
         assertThat(response.getStatusCodeValue()).isEqualTo(200);
         assertThat(response.getBody()).isEqualTo("Success");
@@ -190,11 +316,123 @@ class CardControllerTest {
     void transfer_failure() {
         TransferRequest request = new TransferRequest(cardId, cardId, BigDecimal.valueOf(100));
         when(authentication.getName()).thenReturn("test@example.com");
-        when(cardService.transfer("test@example.com", request)).thenThrow(new RuntimeException("Insufficient funds"));
+        when(cardService.transfer("test@example.com", request, null)).thenThrow(new RuntimeException("Insufficient funds"));
 
-        ResponseEntity<String> response = cardController.transfer(request, authentication);
+        ResponseEntity<String> response = cardController.transfer(request, null, authentication);
 
         assertThat(response.getStatusCodeValue()).isEqualTo(400);
         assertThat(response.getBody()).isEqualTo("Insufficient funds");
     }
+
+    @Test
+    void transfer_rejectsOverlongIdempotencyKey() {
+        TransferRequest request = new TransferRequest(cardId, cardId, BigDecimal.valueOf(100));
+
+        ResponseEntity<String> response = cardController.transfer(request, "k".repeat(256), authentication);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(400);
+        verifyNoInteractions(cardService);
+    }
+
+    @Test
+    void transferAsync_returnsAcceptedWithTransferLocation() {
+        TransferRequest request = new TransferRequest(cardId, UUID.randomUUID(), BigDecimal.valueOf(100));
+        AsyncTransfer transfer = new AsyncTransfer(UUID.randomUUID(), "test@example.com", new CompletableFuture<>());
+        when(authentication.getName()).thenReturn("test@example.com");
+        when(asyncTransferService.submit("test@example.com", request, null)).thenReturn(transfer);
+
+        ResponseEntity<?> response = cardController.transferAsync(request, null, authentication);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(202);
+        assertThat(response.getHeaders().getLocation()).hasToString("/cards/transfer/" + transfer.id());
+        assertThat(response.getBody()).isEqualTo(TransferStatusResponse.pending(transfer.id()));
+    }
+
+    @Test
+    void transfer_returnsServiceUnavailableWhenEngineQueueIsFull() {
+        TransferRequest request = new TransferRequest(cardId, UUID.randomUUID(), BigDecimal.valueOf(100));
+        when(authentication.getName()).thenReturn("test@example.com");
+        when(cardService.transfer("test@example.com", request, null)).thenThrow(new RejectedExecutionException());
+
+        ResponseEntity<String> response = cardController.transfer(request, null, authentication);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(503);
+        assertThat(response.getHeaders().getFirst("Retry-After")).isEqualTo("1");
+    }
+
+    @Test
+    void transferAsync_returnsServiceUnavailableWhenQueueIsFull() {
+        TransferRequest request = new TransferRequest(cardId, UUID.randomUUID(), BigDecimal.valueOf(100));
+        when(authentication.getName()).thenReturn("test@example.com");
+        when(asyncTransferService.submit("test@example.com", request, null)).thenThrow(new RejectedExecutionException());
+
+        ResponseEntity<?> response = cardController.transferAsync(request, null, authentication);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(503);
+        assertThat(response.getHeaders().getFirst("Retry-After")).isEqualTo("1");
+    }
+
+    @Test
+    void getTransferStatus_reportsPendingThenResult() {
+        UUID transferId = UUID.randomUUID();
+        AsyncTransfer transfer = new AsyncTransfer(transferId, "test@example.com", new CompletableFuture<>());
+        when(authentication.getName()).thenReturn("test@example.com");
+        when(asyncTransferService.find("test@example.com", transferId)).thenReturn(Optional.of(transfer));
+
+        assertThat(cardController.getTransferStatus(transferId, 0, authentication).join().getBody())
+                .isEqualTo(TransferStatusResponse.pending(transferId));
+
+        CompletableFuture<ResponseEntity<TransferStatusResponse>> waiting =
+                cardController.getTransferStatus(transferId, 10_000, authentication);
+        transfer.result().complete("Перевод 100 выполнен");
+
+        assertThat(waiting.join().getBody())
+                .isEqualTo(TransferStatusResponse.success(transferId, "Перевод 100 выполнен"));
+    }
+
+    @Test
+    void getTransferStatus_notFoundForUnknownTransfer() {
+        UUID transferId = UUID.randomUUID();
+        when(authentication.getName()).thenReturn("test@example.com");
+        when(asyncTransferService.find("test@example.com", transferId)).thenReturn(Optional.empty());
+
+        assertThat(cardController.getTransferStatus(transferId, 0, authentication).join().getStatusCodeValue())
+                .isEqualTo(404);
+    }
+
+    @Test
+    void transferBatch_success() {
+        TransferRequest request = new TransferRequest(cardId, UUID.randomUUID(), BigDecimal.valueOf(100));
+        List<BatchTransferResult> results = List.of(BatchTransferResult.success(0, "Перевод 100 выполнен"));
+        when(authentication.getName()).thenReturn("test@example.com");
+        when(cardService.transferBatch(eq("test@example.com"), any())).thenReturn(results);
+
+        ResponseEntity<?> response = cardController.transferBatch(List.of(request), authentication);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(200);
+        assertThat(response.getBody()).isEqualTo(results);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void transferBatchStream_readsOneTransferPerLine() {
+        ReflectionTestUtils.setField(cardController, "objectMapper", new ObjectMapper());
+        UUID toCardId = UUID.randomUUID();
+        String body = "{\"fromCardId\":\"" + cardId + "\",\"toCardId\":\"" + toCardId + "\",\"amount\":10}\n"
+                + "\n"
+                + "not json\n";
+        when(authentication.getName()).thenReturn("test@example.com");
+        List<TransferRequest> received = new ArrayList<>();
+        when(cardService.transferBatch(eq("test@example.com"), any())).thenAnswer(invocation -> {
+            Iterator<TransferRequest> requests = invocation.getArgument(1);
+            requests.forEachRemaining(received::add);
+            return List.of();
+        });
+
+        ResponseEntity<?> response = cardController.transferBatchStream(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), authentication);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(200);
+        assertThat(received).containsExactly(new TransferRequest(cardId, toCardId, BigDecimal.TEN), null);
+    }
 }
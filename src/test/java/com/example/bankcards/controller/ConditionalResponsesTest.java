@@ -0,0 +1,59 @@
+package com.example.bankcards.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConditionalResponsesTest {
+    private static final String ETAG = "\"7fffffff-0000-0000-0000-000000000001-5\"";
+
+    @Test
+    void notModified_AddsEncodingToEtagForGzipClient() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cards/user");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        boolean notModified = ConditionalResponses.notModified(new ServletWebRequest(request, response)).test(ETAG);
+
+        assertThat(notModified).isFalse();
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"7fffffff-0000-0000-0000-000000000001-5-gzip\"");
+    }
+
+    @Test
+    void notModified_DoesNotMatchIdentityEtagForGzipClient() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cards/user");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, ETAG);
+
+        boolean notModified = ConditionalResponses.notModified(
+                new ServletWebRequest(request, new MockHttpServletResponse())).test(ETAG);
+
+        assertThat(notModified).isFalse();
+    }
+
+    @Test
+    void notModified_KeepsEtagForClientWithoutGzip() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cards/balance");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, ETAG);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        boolean notModified = ConditionalResponses.notModified(new ServletWebRequest(request, response)).test(ETAG);
+
+        assertThat(notModified).isTrue();
+        assertThat(response.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    void of_VariesByAcceptEncoding() {
+        assertThat(ConditionalResponses.of(Optional.of("cards")).getHeaders().getVary())
+                .containsExactly(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(ConditionalResponses.of(Optional.empty()).getHeaders().getVary())
+                .containsExactly(HttpHeaders.ACCEPT_ENCODING);
+    }
+}
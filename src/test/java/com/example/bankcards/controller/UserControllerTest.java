@@ -5,20 +5,30 @@ import com.example.bankcards.dto.user.UpdateUserRequest;
 import com.example.bankcards.dto.user.UserDto;
 import com.example.bankcards.entity.user.Role;
 import com.example.bankcards.service.user.UserService;
+import com.example.bankcards.service.user.UserVersions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 class UserControllerTest {
@@ -26,6 +36,9 @@ class UserControllerTest {
     @Mock
     private UserService userService;
 
+    @Mock
+    private UserVersions userVersions;
+
     @InjectMocks
     private UserController userController;
 
@@ -33,10 +46,14 @@ class UserControllerTest {
     private UserDto userDto;
     private CreateUserRequest createRequest;
     private UpdateUserRequest updateRequest;
+    private WebRequest webRequest;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(userVersions.readIfModified(any(UUID.class), any(), any()))
+                .thenAnswer(invocation -> Optional.of(invocation.<Supplier<?>>getArgument(2).get()));
+        webRequest = new ServletWebRequest(new MockHttpServletRequest("GET", "/users"), new MockHttpServletResponse());
         userId = UUID.randomUUID();
 
         userDto = new UserDto(
@@ -102,17 +119,27 @@ class UserControllerTest {
     void getUserById_success() {
         when(userService.getUserById(userId)).thenReturn(userDto);
 
-        ResponseEntity<?> response = userController.getUserById(userId);
+        ResponseEntity<?> response = userController.getUserById(userId, webRequest);
 
         assertThat(response.getStatusCodeValue()).isEqualTo(200);
         assertThat(response.getBody()).isEqualTo(userDto);
     }
 
+    @Test
+    void getUserById_notModified() {
+        when(userVersions.readIfModified(eq(userId), any(), any())).thenReturn(Optional.empty());
+
+        ResponseEntity<?> response = userController.getUserById(userId, webRequest);
+
+        assertThat(response.getStatusCodeValue()).isEqualTo(304);
+        verifyNoInteractions(userService);
+    }
+
     @Test
     void getUserById_notFound() {
         when(userService.getUserById(userId)).thenThrow(new RuntimeException("User not found"));
 
-        ResponseEntity<?> response = userController.getUserById(userId);
+        ResponseEntity<?> response = userController.getUserById(userId, webRequest);
 
         assertThat(response.getStatusCodeValue()).isEqualTo(404);
         assertThat(response.getBody()).isNull();
@@ -0,0 +1,79 @@
+package com.example.bankcards.security;
+
+import com.example.bankcards.entity.user.Role;
+import com.example.bankcards.service.auth.JwtService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class JwtAuthenticationFilterTest {
+
+    private JwtService jwtService;
+    private JwtAuthenticationFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        JwtService service = new JwtService(new SimpleMeterRegistry(), 1000);
+        ReflectionTestUtils.setField(service, "secret", "veryLongSecretKeyForTestingPurposes1234567890");
+        ReflectionTestUtils.setField(service, "expiration", 3600000L);
+        ReflectionTestUtils.setField(service, "refreshTokenExpiration", 86400000L);
+        service.init();
+        jwtService = spy(service);
+        filter = new JwtAuthenticationFilter(jwtService, mock(JwtAuthenticationEntryPoint.class));
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void doFilter_VerifiesTokenOnceAndSetsPrincipal() throws Exception {
+        UUID userId = UUID.randomUUID();
+        String token = jwtService.generateToken(userId, "user@example.com", Role.ADMIN, "John Doe");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/cards/user");
+        request.addHeader("Authorization", "Bearer " + token);
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        verify(jwtService, times(1)).extractAllClaims(anyString());
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        assertThat(authentication.getName()).isEqualTo("user@example.com");
+        assertThat(authentication.getPrincipal()).isEqualTo(new JwtPrincipal("user@example.com", "ADMIN", userId));
+        assertThat(authentication.getAuthorities()).extracting(GrantedAuthority::getAuthority)
+                .containsExactly("ROLE_ADMIN");
+        assertThat(chain.getRequest()).isSameAs(request);
+    }
+
+    @Test
+    void doFilter_RepeatedTokenSkipsVerification() throws Exception {
+        String token = jwtService.generateToken(UUID.randomUUID(), "user@example.com", Role.USER, "John Doe");
+
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/cards/user");
+            request.addHeader("Authorization", "Bearer " + token);
+            filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+            SecurityContextHolder.clearContext();
+        }
+
+        verify(jwtService, times(1)).extractAllClaims(anyString());
+    }
+}
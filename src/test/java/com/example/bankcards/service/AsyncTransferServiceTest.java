@@ -0,0 +1,91 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.service.card.AsyncTransfer;
+import com.example.bankcards.service.card.AsyncTransferService;
+import com.example.bankcards.service.card.CardService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+class AsyncTransferServiceTest {
+
+    @Mock
+    private CardService cardService;
+
+    private AsyncTransferService asyncTransferService;
+    private TransferRequest request;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        asyncTransferService = new AsyncTransferService(cardService, 1, 1, Duration.ofMinutes(1), 100);
+        request = new TransferRequest(UUID.randomUUID(), UUID.randomUUID(), BigDecimal.TEN);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        asyncTransferService.shutdown();
+    }
+
+    @Test
+    void submit_CompletesWithTransferResult() throws Exception {
+        when(cardService.transfer("user@example.com", request, "key-1")).thenReturn("Перевод 10 выполнен");
+
+        AsyncTransfer transfer = asyncTransferService.submit("user@example.com", request, "key-1");
+
+        assertThat(transfer.result().get(5, TimeUnit.SECONDS)).isEqualTo("Перевод 10 выполнен");
+        assertThat(asyncTransferService.find("user@example.com", transfer.id())).contains(transfer);
+        assertThat(asyncTransferService.find("other@example.com", transfer.id())).isEmpty();
+    }
+
+    @Test
+    void submit_CompletesExceptionallyWhenTransferRejected() {
+        when(cardService.transfer("user@example.com", request, null))
+                .thenThrow(new BadRequestException("Недостаточно средств на карте"));
+
+        AsyncTransfer transfer = asyncTransferService.submit("user@example.com", request, null);
+
+        assertThatThrownBy(() -> transfer.result().get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(BadRequestException.class)
+                .hasRootCauseMessage("Недостаточно средств на карте");
+    }
+
+    @Test
+    void submit_RejectsWhenQueueIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(cardService.transfer("user@example.com", request, null)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return "Перевод 10 выполнен";
+        });
+
+        AsyncTransfer running = asyncTransferService.submit("user@example.com", request, null);
+        started.await(5, TimeUnit.SECONDS);
+        AsyncTransfer queued = asyncTransferService.submit("user@example.com", request, null);
+
+        assertThatThrownBy(() -> asyncTransferService.submit("user@example.com", request, null))
+                .isInstanceOf(RejectedExecutionException.class);
+
+        release.countDown();
+        assertThat(running.result().get(5, TimeUnit.SECONDS)).isEqualTo("Перевод 10 выполнен");
+        assertThat(queued.result().get(5, TimeUnit.SECONDS)).isEqualTo("Перевод 10 выполнен");
+    }
+}
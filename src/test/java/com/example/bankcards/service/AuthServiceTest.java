@@ -9,18 +9,22 @@ import com.example.bankcards.exception.NotFoundException;
 import com.example.bankcards.repository.UserRepository;
 import com.example.bankcards.service.auth.AuthService;
 import com.example.bankcards.service.auth.JwtService;
+import com.example.bankcards.service.auth.PasswordVerifier;
+import com.example.bankcards.service.user.UserLookup;
+import com.example.bankcards.service.user.UserLookupCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.springframework.security.crypto.password.PasswordEncoder;
 
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -31,11 +35,14 @@ class AuthServiceTest {
     private UserRepository userRepository;
 
     @Mock
-    private PasswordEncoder passwordEncoder;
+    private PasswordVerifier passwordVerifier;
 
     @Mock
     private JwtService jwtService;
 
+    @Mock
+    private UserLookupCache userLookupCache;
+
     @InjectMocks
     private AuthService authService;
 
@@ -62,7 +69,8 @@ class AuthServiceTest {
     @Test
     void login_success() {
         when(userRepository.findByEmail(loginRequest.email())).thenReturn(Optional.of(user));
-        when(passwordEncoder.matches(loginRequest.password(), user.getPassword())).thenReturn(true);
+        when(passwordVerifier.verify(loginRequest.password(), user.getPassword()))
+                .thenReturn(new PasswordVerifier.Verification(true, null));
         when(jwtService.generateToken(user)).thenReturn("jwt-token-123");
 
         AuthResponse response = authService.login(loginRequest);
@@ -73,8 +81,23 @@ class AuthServiceTest {
         assertThat(response.fullName()).isEqualTo("John Doe");
 
         verify(userRepository).findByEmail(loginRequest.email());
-        verify(passwordEncoder).matches(loginRequest.password(), user.getPassword());
+        verify(passwordVerifier).verify(loginRequest.password(), user.getPassword());
         verify(jwtService).generateToken(user);
+        verify(userLookupCache).remember(user);
+        verify(userRepository, never()).replacePassword(any(), any(), any());
+    }
+
+    @Test
+    void login_UpgradesOutdatedPasswordHash() {
+        when(userRepository.findByEmail(loginRequest.email())).thenReturn(Optional.of(user));
+        when(passwordVerifier.verify(loginRequest.password(), "encodedPassword"))
+                .thenReturn(new PasswordVerifier.Verification(true, "{bcrypt}upgradedPassword"));
+        when(userRepository.replacePassword(userId, "encodedPassword", "{bcrypt}upgradedPassword")).thenReturn(1);
+
+        authService.login(loginRequest);
+
+        verify(userRepository).replacePassword(userId, "encodedPassword", "{bcrypt}upgradedPassword");
+        assertThat(user.getPassword()).isEqualTo("{bcrypt}upgradedPassword");
     }
 
     @Test
@@ -84,18 +107,42 @@ class AuthServiceTest {
         assertThrows(NotFoundException.class, () -> authService.login(loginRequest));
 
         verify(userRepository).findByEmail(loginRequest.email());
-        verifyNoInteractions(passwordEncoder, jwtService);
+        verifyNoInteractions(passwordVerifier, jwtService);
     }
 
     @Test
     void login_invalidPassword_throwsException() {
         when(userRepository.findByEmail(loginRequest.email())).thenReturn(Optional.of(user));
-        when(passwordEncoder.matches(loginRequest.password(), user.getPassword())).thenReturn(false);
+        when(passwordVerifier.verify(loginRequest.password(), user.getPassword()))
+                .thenReturn(new PasswordVerifier.Verification(false, null));
 
         assertThrows(InvalidCredentialsException.class, () -> authService.login(loginRequest));
 
         verify(userRepository).findByEmail(loginRequest.email());
-        verify(passwordEncoder).matches(loginRequest.password(), user.getPassword());
+        verify(passwordVerifier).verify(loginRequest.password(), user.getPassword());
+        verifyNoInteractions(jwtService, userLookupCache);
+    }
+
+    @Test
+    void refreshToken_usesCachedUser() {
+        when(userLookupCache.find(loginRequest.email())).thenReturn(Optional.of(UserLookup.of(user)));
+        when(jwtService.generateToken(user.getId(), "test@example.com", Role.USER, "John Doe")).thenReturn("jwt-token-456");
+        when(jwtService.generateRefreshToken(user.getId(), "test@example.com", Role.USER, "John Doe")).thenReturn("refresh-456");
+
+        AuthResponse response = authService.refreshToken(loginRequest);
+
+        assertThat(response.token()).isEqualTo("jwt-token-456");
+        assertThat(response.refreshToken()).isEqualTo("refresh-456");
+        assertThat(response.fullName()).isEqualTo("John Doe");
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void refreshToken_userNotFound_throwsException() {
+        when(userLookupCache.find(loginRequest.email())).thenReturn(Optional.empty());
+
+        assertThrows(NotFoundException.class, () -> authService.refreshToken(loginRequest));
+
         verifyNoInteractions(jwtService);
     }
 }
@@ -0,0 +1,80 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.service.card.CardNumberHashBackfill;
+import com.example.bankcards.service.card.CardNumberHasher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CardNumberHashBackfillTest {
+    private static final String SECRET = "VGVzdENhcmROdW1iZXJIbWFjS2V5Rm9yVW5pdFRlc3Rz";
+
+    @Mock
+    private CardRepository cardRepository;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private final CardNumberHasher hasher = new CardNumberHasher(SECRET);
+    private CardNumberHashBackfill backfill;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        backfill = new CardNumberHashBackfill(cardRepository, hasher, transactionTemplate);
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    }
+
+    @Test
+    void hash_IsStableKeyedAndHex() {
+        String hash = hasher.hash("4111111111111111");
+
+        assertThat(hash).hasSize(64).matches("[0-9a-f]+").isEqualTo(hasher.hash("4111111111111111"));
+        assertThat(new CardNumberHasher("T3RoZXJDYXJkTnVtYmVySG1hY0tleUZvclRlc3Rz").hash("4111111111111111"))
+                .isNotEqualTo(hash);
+    }
+
+    @Test
+    void backfill_HashesCardsPageByPageAndSkipsTakenNumbers() {
+        UUID first = new UUID(0, 1);
+        UUID second = new UUID(0, 2);
+        when(cardRepository.findUnhashedAfter(new UUID(0, 0), Limit.of(500)))
+                .thenReturn(List.of(cardNumber(first, "4111111111111111"), cardNumber(second, "4111111111111111")));
+        when(cardRepository.findUnhashedAfter(second, Limit.of(500))).thenReturn(List.of());
+        String hash = hasher.hash("4111111111111111");
+        when(cardRepository.setCardNumberHash(first, hash)).thenReturn(1);
+        when(cardRepository.setCardNumberHash(second, hash)).thenReturn(0);
+
+        assertThat(backfill.backfill()).isEqualTo(1);
+
+        verify(cardRepository).setCardNumberHash(second, hash);
+        verify(cardRepository).findUnhashedAfter(second, Limit.of(500));
+    }
+
+    private static CardRepository.CardNumber cardNumber(UUID id, String number) {
+        return new CardRepository.CardNumber() {
+            @Override
+            public UUID getId() {
+                return id;
+            }
+
+            @Override
+            public String getCardNumber() {
+                return number;
+            }
+        };
+    }
+}
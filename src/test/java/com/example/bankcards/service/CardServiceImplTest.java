@@ -1,7 +1,9 @@
 package com.example.bankcards.service;
 
+import com.example.bankcards.dto.card.BatchTransferResult;
 import com.example.bankcards.dto.card.BlockCardRequest;
 import com.example.bankcards.dto.card.BlockCardResponse;
+import com.example.bankcards.dto.card.CardSliceResponse;
 import com.example.bankcards.dto.card.CreateCardRequest;
 import com.example.bankcards.dto.card.ResponseDto;
 import com.example.bankcards.dto.card.TransferRequest;
@@ -9,33 +11,60 @@ import com.example.bankcards.entity.card.Card;
 import com.example.bankcards.entity.card.Status;
 import com.example.bankcards.entity.user.Role;
 import com.example.bankcards.entity.user.User;
+import com.example.bankcards.exception.BadRequestException;
 import com.example.bankcards.exception.NotFoundException;
 import com.example.bankcards.repository.CardRepository;
-import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.service.card.CardNumberHasher;
 import com.example.bankcards.service.card.CardServiceImpl;
+import com.example.bankcards.service.card.CardTransferProcessor;
+import com.example.bankcards.service.card.HotCardStripes;
+import com.example.bankcards.service.card.StripeFoldRequiredException;
+import com.example.bankcards.service.card.TransferIdempotencyStore;
+import com.example.bankcards.service.card.engine.InMemoryTransferEngine;
+import com.example.bankcards.service.card.TransferMetrics;
+import com.example.bankcards.service.card.TransferMode;
+import com.example.bankcards.service.card.UserBalanceSummaries;
+import com.example.bankcards.service.user.UserLookup;
+import com.example.bankcards.service.user.UserLookupCache;
 import com.example.bankcards.util.CardMapper;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -48,8 +77,27 @@ class CardServiceImplTest {
     private CardRepository cardRepository;
     @Mock
     private CardMapper cardMapper;
+
+    @Mock
+    private CardTransferProcessor transferProcessor;
+    @Mock
+    private TransferMetrics transferMetrics;
+    @Mock
+    private TransferIdempotencyStore idempotencyStore;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private HotCardStripes hotCardStripes;
+    @Mock
+    private UserBalanceSummaries userBalanceSummaries;
+    @Mock
+    private UserLookupCache userLookupCache;
+    @Mock
+    private CardNumberHasher cardNumberHasher;
     @Mock
-    private UserRepository userRepository;
+    private ObjectProvider<InMemoryTransferEngine> inMemoryEngine;
+    @Mock
+    private InMemoryTransferEngine engine;
 
     @InjectMocks
     private CardServiceImpl cardService;
@@ -60,6 +108,11 @@ class CardServiceImplTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(hotCardStripes.unfolded(any())).thenReturn(BigDecimal.ZERO);
+        ReflectionTestUtils.setField(cardService, "transferMode", TransferMode.PESSIMISTIC);
+        ReflectionTestUtils.setField(cardService, "maxAttempts", 3);
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
 
         testUser = new User();
         testUser.setId(UUID.randomUUID());
@@ -80,9 +133,7 @@ class CardServiceImplTest {
     }
 
     @Test
-    void getAllCards_ReturnsMappedDtos() {
-        List<Card> cards = List.of(testCard);
-
+    void exportCards_StreamsProjectedDtos() {
         ResponseDto dto = new ResponseDto(
                 testCard.getId(),
                 testCard.getMaskedCardNumber(),
@@ -91,22 +142,26 @@ class CardServiceImplTest {
                 testCard.getBalance(),
                 testCard.getStatus()
         );
+        when(cardRepository.streamAllViews()).thenReturn(Stream.of(dto, dto));
 
-        when(cardRepository.findAll()).thenReturn(cards);
-        when(cardMapper.toDtoList(cards)).thenReturn(List.of(dto));
+        List<ResponseDto> result = new ArrayList<>();
+        cardService.exportCards(result::add);
 
-        List<ResponseDto> result = cardService.getAllCards();
+        assertThat(result).hasSize(2).containsOnly(dto);
+        verify(cardRepository, never()).findAll();
+        verifyNoInteractions(cardMapper);
+    }
+
+    @Test
+    void getCardsAfter_StartsFromFirstCardWithoutCursor() {
+        UUID after = UUID.randomUUID();
+        when(cardRepository.findViewsAfter(any(), any())).thenReturn(List.of());
 
-        assertThat(result).hasSize(1);
-        ResponseDto actual = result.get(0);
-        assertThat(actual.id()).isEqualTo(testCard.getId());
-        assertThat(actual.maskedCardNumber()).isEqualTo(testCard.getMaskedCardNumber());
-        assertThat(actual.cardHolder()).isEqualTo(testUser.getFullName());
-        assertThat(actual.expirationDate()).isEqualTo(testCard.getExpirationDate());
-        assertThat(actual.balance()).isEqualByComparingTo(testCard.getBalance());
-        assertThat(actual.status()).isEqualTo(testCard.getStatus());
+        cardService.getCardsAfter(null, 50);
+        cardService.getCardsAfter(after, 50);
 
-        verify(cardRepository).findAll();
+        verify(cardRepository).findViewsAfter(new UUID(0, 0), Limit.of(50));
+        verify(cardRepository).findViewsAfter(after, Limit.of(50));
     }
 
     @Test
@@ -122,17 +177,78 @@ class CardServiceImplTest {
         );
 
         Card newCard = new Card();
+        newCard.setCardNumber(testCard.getCardNumber());
         when(cardMapper.toResponse(req)).thenReturn(newCard);
+        when(cardNumberHasher.hash(testCard.getCardNumber())).thenReturn("number-hash");
 
         cardService.createCard(req);
 
-        verify(cardRepository).save(newCard);
+        assertEquals("number-hash", newCard.getCardNumberHash());
+        InOrder inOrder = inOrder(cardRepository, userBalanceSummaries);
+        inOrder.verify(cardRepository).saveAndFlush(newCard);
+        inOrder.verify(userBalanceSummaries).cardAdded(newCard);
+    }
+
+    @Test
+    void createCard_RejectsDuplicateNumber() {
+        CreateCardRequest req = new CreateCardRequest(
+                testCard.getCardNumber(), LocalDate.now().plusYears(1), BigDecimal.TEN, testUser.getId());
+        Card newCard = new Card();
+        newCard.setCardNumber(testCard.getCardNumber());
+        when(cardMapper.toResponse(req)).thenReturn(newCard);
+        when(cardNumberHasher.hash(testCard.getCardNumber())).thenReturn("number-hash");
+        when(cardRepository.existsByCardNumberHash("number-hash")).thenReturn(true);
+
+        assertThatThrownBy(() -> cardService.createCard(req))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessageContaining("Карта с таким номером уже существует");
+
+        verify(cardRepository, never()).save(any());
+        verifyNoInteractions(userBalanceSummaries);
+    }
+
+    @Test
+    void createCard_RejectsDuplicateInsertedConcurrently() {
+        CreateCardRequest req = new CreateCardRequest(
+                testCard.getCardNumber(), LocalDate.now().plusYears(1), BigDecimal.TEN, testUser.getId());
+        Card newCard = new Card();
+        newCard.setCardNumber(testCard.getCardNumber());
+        when(cardMapper.toResponse(req)).thenReturn(newCard);
+        when(cardNumberHasher.hash(testCard.getCardNumber())).thenReturn("number-hash");
+        when(cardRepository.saveAndFlush(newCard)).thenThrow(new DataIntegrityViolationException("duplicate",
+                new ConstraintViolationException("duplicate", null, "idx_cards_card_number_hash")));
+
+        assertThatThrownBy(() -> cardService.createCard(req))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessageContaining("Карта с таким номером уже существует");
+
+        verifyNoInteractions(userBalanceSummaries);
+    }
+
+    @Test
+    void findByCardNumber_LooksUpByHash() {
+        ResponseDto dto = new ResponseDto(testCard.getId(), testCard.getMaskedCardNumber(), testUser.getFullName(),
+                testCard.getExpirationDate(), testCard.getBalance(), Status.ACTIVE);
+        when(cardNumberHasher.hash(testCard.getCardNumber())).thenReturn("number-hash");
+        when(cardRepository.findViewByCardNumberHash("number-hash")).thenReturn(Optional.of(dto));
+
+        assertEquals(dto, cardService.findByCardNumber(testCard.getCardNumber()));
+    }
+
+    @Test
+    void findByCardNumber_ThrowsIfNotFound() {
+        when(cardNumberHasher.hash("0000000000000000")).thenReturn("unknown-hash");
+        when(cardRepository.findViewByCardNumberHash("unknown-hash")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> cardService.findByCardNumber("0000000000000000"))
+                .isInstanceOf(NotFoundException.class)
+                .hasMessageContaining("Карта с таким номером не найдена");
     }
 
 
     @Test
     void updateCardStatus_UpdatesSuccessfully() {
-        when(cardRepository.findById(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
         when(cardRepository.save(any())).thenReturn(testCard);
 
         ResponseDto dto = new ResponseDto(
@@ -149,13 +265,33 @@ class CardServiceImplTest {
 
         assertThat(result.status()).isEqualTo(Status.BLOCKED);
         verify(cardRepository).save(testCard);
+        verify(userBalanceSummaries).statusChanged(testCard, Status.ACTIVE);
+    }
+
+
+    @Test
+    void updateCardStatus_NotifiesEngineOnlyAfterCommit() {
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.save(any())).thenReturn(testCard);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cardService.updateCardStatus(testCard.getId(), Status.BLOCKED);
+            verify(inMemoryEngine, never()).ifAvailable(any());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(inMemoryEngine).ifAvailable(any());
     }
 
 
     @Test
     void updateCardStatus_ThrowsIfNotFound() {
         UUID cardId = UUID.randomUUID();
-        when(cardRepository.findById(cardId)).thenReturn(Optional.empty());
+        when(cardRepository.findByIdForUpdate(cardId)).thenReturn(Optional.empty());
 
         assertThatThrownBy(() -> cardService.updateCardStatus(cardId, Status.BLOCKED))
                 .isInstanceOf(NotFoundException.class)
@@ -164,42 +300,208 @@ class CardServiceImplTest {
 
 
     @Test
-    void getUserCards_ReturnsPagedCards() {
-        Pageable pageable = PageRequest.of(0, 10, Sort.by("id").descending());
-        Page<Card> cardPage = new PageImpl<>(List.of(testCard), pageable, 1);
+    void getUserCards_ReturnsSliceWithCursorOfLastCard() {
+        Instant createdAt = Instant.parse("2026-10-18T12:00:00Z");
+        CardRepository.UserCardRow first = userCardRow(testCard.getId(), createdAt);
+        CardRepository.UserCardRow second = userCardRow(UUID.randomUUID(), createdAt.minusSeconds(1));
 
-        when(userRepository.findByEmail(testUser.getEmail())).thenReturn(Optional.of(testUser));
-        when(cardRepository.findByUser(testUser, pageable)).thenReturn(cardPage);
-        when(cardMapper.toDto(testCard)).thenReturn(new ResponseDto(
-                testCard.getId(),
-                testCard.getMaskedCardNumber(),
-                testUser.getFullName(),
-                testCard.getExpirationDate(),
-                testCard.getBalance(),
-                Status.ACTIVE
-        ));
+        when(userLookupCache.find(testUser.getEmail())).thenReturn(Optional.of(UserLookup.of(testUser)));
+        when(cardRepository.findUserCards(testUser.getId(), Limit.of(2))).thenReturn(List.of(first, second));
+        when(cardRepository.findUserCardsBefore(testUser.getId(), createdAt, testCard.getId(), Limit.of(2)))
+                .thenReturn(List.of(second));
+
+        CardSliceResponse result = cardService.getUserCards(testUser.getEmail(), null, 1);
+
+        assertThat(result.content()).containsExactly(first.toDto());
+        assertNotNull(result.nextCursor());
 
-        Page<ResponseDto> result = cardService.getUserCards(testUser.getEmail(), 0, 10);
+        CardSliceResponse next = cardService.getUserCards(testUser.getEmail(), result.nextCursor(), 1);
 
-        assertThat(result.getContent()).hasSize(1);
-        verify(cardRepository).findByUser(testUser, pageable);
+        assertThat(next.content()).containsExactly(second.toDto());
+        assertThat(next.nextCursor()).isNull();
+        verifyNoInteractions(cardMapper);
     }
 
+    @Test
+    void getUserCards_RejectsMalformedCursor() {
+        when(userLookupCache.find(testUser.getEmail())).thenReturn(Optional.of(UserLookup.of(testUser)));
+
+        assertThatThrownBy(() -> cardService.getUserCards(testUser.getEmail(), "not-a-cursor", 10))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessageContaining("Некорректный курсор");
+
+        verifyNoInteractions(cardRepository);
+    }
 
     @Test
     void getUserCards_ThrowsIfUserNotFound() {
         String badEmail = "bad@mail.com";
 
-        when(userRepository.findByEmail(badEmail)).thenReturn(Optional.empty());
+        when(userLookupCache.find(badEmail)).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> cardService.getUserCards(badEmail, 0, 10))
+        assertThatThrownBy(() -> cardService.getUserCards(badEmail, null, 10))
                 .isInstanceOf(NotFoundException.class)
                 .hasMessageContaining("Пользователь с email " + badEmail + " не найден");
 
-        verify(userRepository, times(1)).findByEmail(badEmail);
+        verify(userLookupCache, times(1)).find(badEmail);
         verifyNoInteractions(cardRepository);
     }
 
+    @Test
+    void getUserBalance_ReadsActiveBalanceFromSummary() {
+        when(userLookupCache.find(testUser.getEmail())).thenReturn(Optional.of(UserLookup.of(testUser)));
+        when(userBalanceSummaries.activeBalance(testUser.getId())).thenReturn(Optional.of(new BigDecimal("1500.00")));
+
+        assertEquals(new BigDecimal("1500.00"), cardService.getUserBalance(testUser.getEmail()));
+        verifyNoInteractions(cardRepository);
+    }
+
+    @Test
+    void getUserBalance_IsZeroWithoutSummary() {
+        when(userLookupCache.find(testUser.getEmail())).thenReturn(Optional.of(UserLookup.of(testUser)));
+        when(userBalanceSummaries.activeBalance(testUser.getId())).thenReturn(Optional.empty());
+
+        assertEquals(BigDecimal.ZERO, cardService.getUserBalance(testUser.getEmail()));
+    }
+
+    @Test
+    void getUserBalance_IsZeroForUnknownUser() {
+        when(userLookupCache.find("bad@mail.com")).thenReturn(Optional.empty());
+
+        assertEquals(BigDecimal.ZERO, cardService.getUserBalance("bad@mail.com"));
+        verifyNoInteractions(userBalanceSummaries);
+    }
+
+    @Test
+    void getUserBalanceByStatus_GroupsCardBalances() {
+        when(cardRepository.sumBalancesByStatus(testUser.getEmail())).thenReturn(List.of(
+                statusBalance(Status.ACTIVE, new BigDecimal("1500.00")),
+                statusBalance(Status.BLOCKED, new BigDecimal("300.00"))));
+
+        assertThat(cardService.getUserBalanceByStatus(testUser.getEmail()))
+                .containsEntry(Status.ACTIVE, new BigDecimal("1500.00"))
+                .containsEntry(Status.BLOCKED, new BigDecimal("300.00"))
+                .doesNotContainKey(Status.EXPIRED);
+        verify(cardRepository, never()).findBalancesByEmail(any());
+    }
+
+    @Test
+    void delete_RemovesCardFromOwnerSummary() {
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
+
+        cardService.delete(testCard.getId());
+
+        InOrder inOrder = inOrder(cardRepository, userBalanceSummaries);
+        inOrder.verify(cardRepository).delete(testCard);
+        inOrder.verify(userBalanceSummaries).cardRemoved(testCard);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void delete_RefusedWhileEngineHasUnsavedTransfers() {
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
+        doAnswer(invocation -> {
+            invocation.<Consumer<InMemoryTransferEngine>>getArgument(0).accept(engine);
+            return null;
+        }).when(inMemoryEngine).ifAvailable(any());
+        doThrow(new BadRequestException("Карта участвует в переводах, ещё не сохранённых в БД, повторите удаление позже"))
+                .when(engine).cardDeleting(testCard);
+
+        assertThatThrownBy(() -> cardService.delete(testCard.getId()))
+                .isInstanceOf(BadRequestException.class);
+        verify(cardRepository, never()).delete(any());
+        verifyNoInteractions(userBalanceSummaries);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void delete_RestoresEngineStatusOnRollback() {
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
+        doAnswer(invocation -> {
+            invocation.<Consumer<InMemoryTransferEngine>>getArgument(0).accept(engine);
+            return null;
+        }).when(inMemoryEngine).ifAvailable(any());
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cardService.delete(testCard.getId());
+            verify(engine).cardDeleting(testCard);
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(engine).cardStatusChanged(testCard.getId(), Status.ACTIVE);
+        verify(engine, never()).cardDeleted(any());
+    }
+
+    @Test
+    void delete_ThrowsIfNotFound() {
+        UUID cardId = UUID.randomUUID();
+        when(cardRepository.findByIdForUpdate(cardId)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> cardService.delete(cardId))
+                .isInstanceOf(NotFoundException.class);
+        verifyNoInteractions(userBalanceSummaries);
+    }
+
+    @Test
+    void getUserBalance_InMemoryModePrefersEngineBalances() {
+        ReflectionTestUtils.setField(cardService, "transferMode", TransferMode.IN_MEMORY);
+        when(inMemoryEngine.getObject()).thenReturn(engine);
+        UUID engineCard = UUID.randomUUID();
+        UUID dbCard = UUID.randomUUID();
+        when(cardRepository.findBalancesByEmail(testUser.getEmail())).thenReturn(List.of(
+                cardBalance(engineCard, Status.ACTIVE, new BigDecimal("100.00")),
+                cardBalance(dbCard, Status.ACTIVE, new BigDecimal("50.00"))));
+        when(engine.balance(engineCard)).thenReturn(Optional.of(new BigDecimal("90.00")));
+        when(engine.balance(dbCard)).thenReturn(Optional.empty());
+
+        assertEquals(new BigDecimal("140.00"), cardService.getUserBalance(testUser.getEmail()));
+        verify(cardRepository, never()).sumBalancesByStatus(any());
+        verifyNoInteractions(userBalanceSummaries);
+    }
+
+    private CardRepository.UserCardRow userCardRow(UUID id, Instant createdAt) {
+        return new CardRepository.UserCardRow(id, testCard.getMaskedCardNumber(), testUser.getFullName(),
+                testCard.getExpirationDate(), testCard.getBalance(), Status.ACTIVE, createdAt);
+    }
+
+    private static CardRepository.StatusBalance statusBalance(Status status, BigDecimal balance) {
+        return new CardRepository.StatusBalance() {
+            @Override
+            public Status getStatus() {
+                return status;
+            }
+
+            @Override
+            public BigDecimal getBalance() {
+                return balance;
+            }
+        };
+    }
+
+    private static CardRepository.CardBalance cardBalance(UUID id, Status status, BigDecimal balance) {
+        return new CardRepository.CardBalance() {
+            @Override
+            public UUID getId() {
+                return id;
+            }
+
+            @Override
+            public Status getStatus() {
+                return status;
+            }
+
+            @Override
+            public BigDecimal getBalance() {
+                return balance;
+            }
+        };
+    }
+
     @Test
     void requestCardBlock_ShouldReturnPendingResponse() {
         UUID cardId = UUID.randomUUID();
@@ -235,34 +537,174 @@ class CardServiceImplTest {
     }
 
     @Test
-    void transfer_Successful() {
-        User user = new User();
-        user.setEmail("test@mail.com");
-        user.setId(UUID.randomUUID());
-        Card sender = new Card();
-        sender.setId(UUID.randomUUID());
-        sender.setUser(user);
-        sender.setBalance(BigDecimal.valueOf(1000));
-        sender.setStatus(Status.ACTIVE);
-        Card receiver = new Card();
-        receiver.setId(UUID.randomUUID());
-        receiver.setUser(new User());
-        receiver.setBalance(BigDecimal.valueOf(500));
-        receiver.setStatus(Status.ACTIVE);
-        TransferRequest request = new TransferRequest(sender.getId(), receiver.getId(), BigDecimal.valueOf(200));
+    void transfer_PessimisticModeUsesRowLocks() {
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(transferProcessor.transferWithRowLocks(testUser.getEmail(), request)).thenReturn("Перевод 10 выполнен");
+
+        String result = cardService.transfer(testUser.getEmail(), request);
+
+        assertEquals("Перевод 10 выполнен", result);
+        verify(transferProcessor, never()).transferWithVersionCheck(any(), any());
+    }
+
+    @Test
+    void transfer_OptimisticModeRetriesAfterVersionConflict() {
+        ReflectionTestUtils.setField(cardService, "transferMode", TransferMode.OPTIMISTIC);
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(transferProcessor.transferWithVersionCheck(testUser.getEmail(), request))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Card.class, testCard.getId()))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Card.class, testCard.getId()))
+                .thenReturn("Перевод 10 выполнен");
+
+        String result = cardService.transfer(testUser.getEmail(), request);
+
+        assertEquals("Перевод 10 выполнен", result);
+        verify(transferProcessor, times(3)).transferWithVersionCheck(testUser.getEmail(), request);
+        verify(transferMetrics, times(2)).optimisticConflict();
+        verify(transferMetrics, times(2)).optimisticRetry();
+        verify(transferMetrics, never()).optimisticExhausted();
+    }
+
+    @Test
+    void transfer_OptimisticModeGivesUpAfterMaxAttempts() {
+        ReflectionTestUtils.setField(cardService, "transferMode", TransferMode.OPTIMISTIC);
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(transferProcessor.transferWithVersionCheck(testUser.getEmail(), request))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Card.class, testCard.getId()));
+
+        assertThatThrownBy(() -> cardService.transfer(testUser.getEmail(), request))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessageContaining("повторите попытку позже");
+
+        verify(transferProcessor, times(3)).transferWithVersionCheck(testUser.getEmail(), request);
+        verify(transferMetrics, times(3)).optimisticConflict();
+        verify(transferMetrics).optimisticExhausted();
+    }
+
+    @Test
+    void transfer_WithIdempotencyKeyRecordsResultInTransferTransaction() {
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(idempotencyStore.findCached(testUser.getEmail(), "key-1", request)).thenReturn(Optional.empty());
+        when(transferProcessor.transferWithRowLocks(testUser.getEmail(), request)).thenReturn("Перевод 10 выполнен");
+
+        String result = cardService.transfer(testUser.getEmail(), request, "key-1");
+
+        assertEquals("Перевод 10 выполнен", result);
+        verify(transactionTemplate).execute(any());
+        verify(idempotencyStore).record(testUser.getEmail(), "key-1", request, "Перевод 10 выполнен");
+    }
+
+    @Test
+    void transfer_WithCachedIdempotencyKeyReturnsStoredResult() {
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(idempotencyStore.findCached(testUser.getEmail(), "key-1", request))
+                .thenReturn(Optional.of("Перевод 10 выполнен"));
 
-        when(cardRepository.findById(sender.getId())).thenReturn(Optional.of(sender));
-        when(cardRepository.findById(receiver.getId())).thenReturn(Optional.of(receiver));
-        when(cardRepository.save(any(Card.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        String result = cardService.transfer(testUser.getEmail(), request, "key-1");
 
-        String result = cardService.transfer(user.getEmail(), request);
+        assertEquals("Перевод 10 выполнен", result);
+        verifyNoInteractions(transferProcessor, transactionTemplate);
+    }
 
-        assertEquals("Перевод 200 выполнен", result);
-        assertEquals(BigDecimal.valueOf(800), sender.getBalance());
-        assertEquals(BigDecimal.valueOf(700), receiver.getBalance());
+    @Test
+    void transfer_WithUsedIdempotencyKeyReturnsStoredResultAfterRollback() {
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(idempotencyStore.findCached(testUser.getEmail(), "key-1", request)).thenReturn(Optional.empty());
+        when(transferProcessor.transferWithRowLocks(testUser.getEmail(), request)).thenReturn("Перевод 10 выполнен");
+        doThrow(new DataIntegrityViolationException("uq_transfer_idempotency_keys_user_key"))
+                .when(idempotencyStore).record(testUser.getEmail(), "key-1", request, "Перевод 10 выполнен");
+        when(idempotencyStore.findStored(testUser.getEmail(), "key-1", request))
+                .thenReturn(Optional.of("Перевод 10 выполнен"));
+
+        String result = cardService.transfer(testUser.getEmail(), request, "key-1");
+
+        assertEquals("Перевод 10 выполнен", result);
+        verify(idempotencyStore).findStored(testUser.getEmail(), "key-1", request);
+    }
 
-        verify(cardRepository).save(sender);
-        verify(cardRepository).save(receiver);
+    @Test
+    void transfer_FoldsHotCardStripesAndRetries() {
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(transferProcessor.transferWithRowLocks(testUser.getEmail(), request))
+                .thenThrow(new StripeFoldRequiredException(testCard.getId()))
+                .thenReturn("Перевод 10 выполнен");
+
+        String result = cardService.transfer(testUser.getEmail(), request);
+
+        assertEquals("Перевод 10 выполнен", result);
+        verify(hotCardStripes).fold(testCard.getId());
+        verify(transferProcessor, times(2)).transferWithRowLocks(testUser.getEmail(), request);
     }
 
+    @Test
+    void updateCardHot_PreparesStripes() {
+        when(cardRepository.findById(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.saveAndFlush(testCard)).thenReturn(testCard);
+
+        cardService.updateCardHot(testCard.getId(), true);
+
+        assertThat(testCard.isHot()).isTrue();
+        verify(hotCardStripes).prepare(testCard.getId());
+    }
+
+    @Test
+    void transfer_InMemoryModeDelegatesToEngine() {
+        ReflectionTestUtils.setField(cardService, "transferMode", TransferMode.IN_MEMORY);
+        when(inMemoryEngine.getObject()).thenReturn(engine);
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(engine.transfer(testUser.getEmail(), request)).thenReturn("Перевод 10 выполнен");
+
+        String result = cardService.transfer(testUser.getEmail(), request);
+
+        assertEquals("Перевод 10 выполнен", result);
+        verifyNoInteractions(transferProcessor);
+    }
+
+    @Test
+    void transfer_InMemoryModePassesIdempotencyKeyToEngine() {
+        ReflectionTestUtils.setField(cardService, "transferMode", TransferMode.IN_MEMORY);
+        when(inMemoryEngine.getObject()).thenReturn(engine);
+        TransferRequest request = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(idempotencyStore.findCached(testUser.getEmail(), "key-1", request)).thenReturn(Optional.empty());
+        when(engine.transfer(testUser.getEmail(), request, "key-1")).thenReturn("Перевод 10 выполнен");
+
+        assertEquals("Перевод 10 выполнен", cardService.transfer(testUser.getEmail(), request, "key-1"));
+        verify(idempotencyStore, never()).record(any(), any(), any(), any());
+        verifyNoInteractions(transactionTemplate);
+    }
+
+    @Test
+    void transferBatch_SplitsRequestsIntoChunks() {
+        ReflectionTestUtils.setField(cardService, "batchChunkSize", 2);
+        TransferRequest first = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.ONE);
+        TransferRequest second = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.valueOf(2));
+        TransferRequest third = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.TEN);
+        when(transferProcessor.transferChunk(testUser.getEmail(), List.of(first, second), 0)).thenReturn(List.of(
+                BatchTransferResult.success(0, "Перевод 1 выполнен"),
+                BatchTransferResult.error(1, "Недостаточно средств на карте")));
+        when(transferProcessor.transferChunk(testUser.getEmail(), List.of(third), 2)).thenReturn(List.of(
+                BatchTransferResult.success(2, "Перевод 10 выполнен")));
+
+        List<BatchTransferResult> results = cardService.transferBatch(testUser.getEmail(),
+                List.of(first, second, third).iterator());
+
+        assertThat(results).extracting(BatchTransferResult::index).containsExactly(0, 1, 2);
+        assertThat(results).extracting(BatchTransferResult::status).containsExactly("success", "error", "success");
+    }
+
+    @Test
+    void transferBatch_MarksWholeChunkFailedWhenItsTransactionFails() {
+        ReflectionTestUtils.setField(cardService, "batchChunkSize", 2);
+        TransferRequest first = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.ONE);
+        TransferRequest second = new TransferRequest(testCard.getId(), UUID.randomUUID(), BigDecimal.valueOf(2));
+        when(transferProcessor.transferChunk(testUser.getEmail(), List.of(first, second), 0))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Card.class, testCard.getId()));
+
+        List<BatchTransferResult> results = cardService.transferBatch(testUser.getEmail(),
+                List.of(first, second).iterator());
+
+        assertThat(results).extracting(BatchTransferResult::status).containsExactly("error", "error");
+        verify(transferProcessor, times(3)).transferChunk(testUser.getEmail(), List.of(first, second), 0);
+        verify(transferMetrics).optimisticExhausted();
+    }
 }
@@ -0,0 +1,181 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.entity.card.Card;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.entity.user.User;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.LedgerEntryRepository;
+import com.example.bankcards.service.card.CardTransferProcessor;
+import com.example.bankcards.service.card.HotCardStripes;
+import com.example.bankcards.service.card.UserBalanceSummaries;
+import com.example.bankcards.service.user.UserLookup;
+import com.example.bankcards.service.user.UserLookupCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Порядок блокировок transferWithRowLocks в памяти: блокировки строк эмулируются ReentrantLock на каждую
+ * карту, которые удерживаются до "коммита" (возврата из transferWithRowLocks), как это делает
+ * SELECT ... FOR UPDATE. Если блокировки берутся не в фиксированном порядке, потоки упираются в таймаут
+ * ожидания. Одна из карт - горячий получатель, её зачисления идут в части баланса.
+ * <p>
+ * Тест проверяет только согласованность порядка внутри этого метода: настоящих блокировок PostgreSQL,
+ * других способов перевода и частей баланса в нём нет. Их проверяет CardTransferLockOrderPostgresTest
+ * в профиле benchmark.
+ */
+class CardTransferProcessorLockOrderTest {
+
+    private static final int THREADS = 64;
+    private static final int TRANSFERS_PER_THREAD = 200;
+    private static final int CARDS = 4;
+    private static final long LOCK_WAIT_SECONDS = 5;
+
+    @Mock
+    private CardRepository cardRepository;
+    @Mock
+    private LedgerEntryRepository ledgerEntryRepository;
+    @Mock
+    private HotCardStripes hotCardStripes;
+    @Mock
+    private UserBalanceSummaries userBalanceSummaries;
+    @Mock
+    private UserLookupCache userLookupCache;
+
+    @InjectMocks
+    private CardTransferProcessor transferProcessor;
+
+    private final Map<UUID, Card> cards = new ConcurrentHashMap<>();
+    private final Map<UUID, ReentrantLock> rowLocks = new ConcurrentHashMap<>();
+    private final ThreadLocal<List<ReentrantLock>> heldLocks = ThreadLocal.withInitial(ArrayList::new);
+    private final Map<UUID, BigDecimal> stripeCredits = new ConcurrentHashMap<>();
+    private final AtomicInteger lockTimeouts = new AtomicInteger();
+
+    private User owner;
+    private Card hotCard;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+
+        owner = new User();
+        owner.setId(UUID.randomUUID());
+        owner.setEmail("hot@mail.com");
+        when(userLookupCache.find(owner.getEmail())).thenReturn(Optional.of(UserLookup.of(owner)));
+
+        for (int i = 0; i < CARDS; i++) {
+            Card card = new Card();
+            card.setId(UUID.randomUUID());
+            card.setUser(owner);
+            card.setStatus(Status.ACTIVE);
+            card.setBalance(new BigDecimal("1000.00"));
+            card.setCardNumber("123456789012345" + i);
+            card.setExpirationDate(LocalDate.now().plusYears(3));
+            cards.put(card.getId(), card);
+            rowLocks.put(card.getId(), new ReentrantLock());
+        }
+        hotCard = cards.values().iterator().next();
+        hotCard.setHot(true);
+        when(hotCardStripes.credit(any(), any())).thenAnswer(invocation -> {
+            stripeCredits.merge(invocation.getArgument(0), invocation.getArgument(1), BigDecimal::add);
+            return true;
+        });
+        when(hotCardStripes.unfolded(any())).thenAnswer(invocation ->
+                stripeCredits.getOrDefault(invocation.<UUID>getArgument(0), BigDecimal.ZERO));
+
+        when(cardRepository.findByIdForUpdate(any())).thenAnswer(invocation -> {
+            UUID id = invocation.getArgument(0);
+            ReentrantLock lock = rowLocks.get(id);
+            if (!lock.tryLock(LOCK_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                lockTimeouts.incrementAndGet();
+                throw new IllegalStateException("Взаимоблокировка при ожидании карты " + id);
+            }
+            heldLocks.get().add(lock);
+            return Optional.of(cards.get(id));
+        });
+        when(cardRepository.save(any(Card.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void concurrentTransfersWithHotRecipient_ConserveTotalBalanceWithoutDeadlocks() throws Exception {
+        BigDecimal totalBefore = totalBalance();
+        List<UUID> ids = new ArrayList<>(cards.keySet());
+        List<UUID> senders = ids.stream().filter(id -> !id.equals(hotCard.getId())).toList();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    // С горячей карты не списываем: её balance пополняется только переносом частей
+                    UUID from = senders.get(random.nextInt(senders.size()));
+                    UUID to = ids.get(random.nextInt(ids.size()));
+                    BigDecimal amount = BigDecimal.valueOf(random.nextInt(1, 5000), 2);
+                    try {
+                        transferProcessor.transferWithRowLocks(owner.getEmail(), new TransferRequest(from, to, amount));
+                    } catch (BadRequestException ignored) {
+                        // недостаточно средств - ожидаемый исход под нагрузкой
+                    } finally {
+                        releaseHeldLocks();
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+
+        assertThat(lockTimeouts.get()).isZero();
+        assertThat(stripeCredits).containsOnlyKeys(hotCard.getId());
+        assertThat(totalBalance()).isEqualByComparingTo(totalBefore);
+        assertThat(cards.values())
+                .allSatisfy(card -> assertThat(card.getBalance()).isGreaterThanOrEqualTo(BigDecimal.ZERO));
+    }
+
+    private void releaseHeldLocks() {
+        List<ReentrantLock> locks = heldLocks.get();
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+        locks.clear();
+    }
+
+    private BigDecimal totalBalance() {
+        return cards.values().stream()
+                .map(Card::getBalance)
+                .reduce(BigDecimal.ZERO, BigDecimal::add)
+                .add(stripeCredits.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add));
+    }
+}
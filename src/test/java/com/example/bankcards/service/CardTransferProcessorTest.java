@@ -0,0 +1,441 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.card.BatchTransferResult;
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.entity.card.Card;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.entity.ledger.EntryType;
+import com.example.bankcards.entity.ledger.LedgerEntry;
+import com.example.bankcards.entity.user.User;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.LedgerEntryRepository;
+import com.example.bankcards.service.card.CardTransferProcessor;
+import com.example.bankcards.service.card.HotCardStripes;
+import com.example.bankcards.service.card.StripeFoldRequiredException;
+import com.example.bankcards.service.card.UserBalanceSummaries;
+import com.example.bankcards.service.user.UserLookup;
+import com.example.bankcards.service.user.UserLookupCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class CardTransferProcessorTest {
+
+    @Mock
+    private CardRepository cardRepository;
+    @Mock
+    private LedgerEntryRepository ledgerEntryRepository;
+    @Mock
+    private HotCardStripes hotCardStripes;
+    @Mock
+    private UserBalanceSummaries userBalanceSummaries;
+    @Mock
+    private UserLookupCache userLookupCache;
+
+    @Captor
+    private ArgumentCaptor<List<LedgerEntry>> ledgerCaptor;
+
+    @InjectMocks
+    private CardTransferProcessor transferProcessor;
+
+    private Card testCard;
+    private User testUser;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(hotCardStripes.unfolded(any())).thenReturn(BigDecimal.ZERO);
+
+        testUser = new User();
+        testUser.setId(UUID.randomUUID());
+        testUser.setEmail("test@mail.com");
+
+        testCard = new Card();
+        testCard.setId(UUID.randomUUID());
+        testCard.setUser(testUser);
+        testCard.setStatus(Status.ACTIVE);
+        testCard.setBalance(new BigDecimal("1000.00"));
+        testCard.setCardNumber("1234567890123456");
+        testCard.setExpirationDate(LocalDate.now().plusYears(3));
+        when(userLookupCache.find(testUser.getEmail())).thenReturn(Optional.of(UserLookup.of(testUser)));
+    }
+
+    @Test
+    void transfer_Successful() {
+        User user = testUser;
+        Card sender = new Card();
+        sender.setId(UUID.randomUUID());
+        sender.setUser(user);
+        sender.setBalance(BigDecimal.valueOf(1000));
+        sender.setStatus(Status.ACTIVE);
+        Card receiver = new Card();
+        receiver.setId(UUID.randomUUID());
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.valueOf(500));
+        receiver.setStatus(Status.ACTIVE);
+        TransferRequest request = new TransferRequest(sender.getId(), receiver.getId(), BigDecimal.valueOf(200));
+
+        when(cardRepository.findByIdForUpdate(sender.getId())).thenReturn(Optional.of(sender));
+        when(cardRepository.findByIdForUpdate(receiver.getId())).thenReturn(Optional.of(receiver));
+        when(cardRepository.save(any(Card.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        String result = transferProcessor.transferWithRowLocks(user.getEmail(), request);
+
+        assertEquals("Перевод 200 выполнен", result);
+        assertEquals(BigDecimal.valueOf(800), sender.getBalance());
+        assertEquals(BigDecimal.valueOf(700), receiver.getBalance());
+
+        verify(cardRepository).save(sender);
+        verify(cardRepository).save(receiver);
+        verify(ledgerEntryRepository).saveAll(ledgerCaptor.capture());
+        List<LedgerEntry> entries = ledgerCaptor.getValue();
+        assertThat(entries).extracting(LedgerEntry::getCardId).containsExactly(sender.getId(), receiver.getId());
+        assertThat(entries).extracting(LedgerEntry::getEntryType).containsExactly(EntryType.DEBIT, EntryType.CREDIT);
+        assertThat(entries).extracting(LedgerEntry::getAmount)
+                .containsExactly(BigDecimal.valueOf(-200), BigDecimal.valueOf(200));
+        assertThat(entries.get(0).getTransferId()).isEqualTo(entries.get(1).getTransferId());
+    }
+
+    @Test
+    void transfer_LocksCardsInAscendingIdOrder() {
+        User user = testUser;
+        UUID lowId = new UUID(0L, 1L);
+        UUID highId = new UUID(0L, 2L);
+        Card sender = new Card();
+        sender.setId(highId);
+        sender.setUser(user);
+        sender.setBalance(BigDecimal.valueOf(1000));
+        sender.setStatus(Status.ACTIVE);
+        Card receiver = new Card();
+        receiver.setId(lowId);
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.valueOf(500));
+        receiver.setStatus(Status.ACTIVE);
+
+        when(cardRepository.findByIdForUpdate(highId)).thenReturn(Optional.of(sender));
+        when(cardRepository.findByIdForUpdate(lowId)).thenReturn(Optional.of(receiver));
+
+        transferProcessor.transferWithRowLocks(user.getEmail(), new TransferRequest(highId, lowId, BigDecimal.TEN));
+
+        InOrder inOrder = inOrder(cardRepository);
+        inOrder.verify(cardRepository).findByIdForUpdate(lowId);
+        inOrder.verify(cardRepository).findByIdForUpdate(highId);
+        verify(cardRepository, never()).findById(any());
+    }
+
+    @Test
+    void transfer_ThrowsIfInsufficientFunds() {
+        testCard.setBalance(BigDecimal.ONE);
+        Card receiver = new Card();
+        receiver.setId(UUID.randomUUID());
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.ZERO);
+        receiver.setStatus(Status.ACTIVE);
+
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.findByIdForUpdate(receiver.getId())).thenReturn(Optional.of(receiver));
+
+        TransferRequest request = new TransferRequest(testCard.getId(), receiver.getId(), BigDecimal.TEN);
+
+        assertThatThrownBy(() -> transferProcessor.transferWithRowLocks(testUser.getEmail(), request))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessageContaining("Недостаточно средств на карте");
+
+        verify(cardRepository, never()).save(any());
+        verify(ledgerEntryRepository, never()).saveAll(any());
+    }
+
+    @Test
+    void transfer_ThrowsIfCardBelongsToAnotherUser() {
+        Card receiver = new Card();
+        receiver.setId(UUID.randomUUID());
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.ZERO);
+        receiver.setStatus(Status.ACTIVE);
+        User other = new User();
+        other.setId(UUID.randomUUID());
+        other.setEmail("other@mail.com");
+
+        when(userLookupCache.find(other.getEmail())).thenReturn(Optional.of(UserLookup.of(other)));
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.findByIdForUpdate(receiver.getId())).thenReturn(Optional.of(receiver));
+
+        TransferRequest request = new TransferRequest(testCard.getId(), receiver.getId(), BigDecimal.TEN);
+
+        assertThatThrownBy(() -> transferProcessor.transferWithRowLocks(other.getEmail(), request))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessageContaining("Карта не принадлежит данному пользователю");
+
+        verify(cardRepository, never()).save(any());
+    }
+
+    @Test
+    void transferWithVersionCheck_FlushesInsideTransaction() {
+        Card receiver = new Card();
+        receiver.setId(UUID.randomUUID());
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.ZERO);
+        receiver.setStatus(Status.ACTIVE);
+
+        when(cardRepository.findById(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.findById(receiver.getId())).thenReturn(Optional.of(receiver));
+
+        String result = transferProcessor.transferWithVersionCheck(testUser.getEmail(),
+                new TransferRequest(testCard.getId(), receiver.getId(), BigDecimal.TEN));
+
+        assertEquals("Перевод 10 выполнен", result);
+        assertEquals(new BigDecimal("990.00"), testCard.getBalance());
+        assertEquals(BigDecimal.TEN, receiver.getBalance());
+        verify(cardRepository).flush();
+        verify(cardRepository, never()).findByIdForUpdate(any());
+    }
+
+    @Test
+    void transferWithConditionalUpdates_DebitsAndCreditsWithoutLoadingCards() {
+        UUID lowId = new UUID(0L, 1L);
+        UUID highId = new UUID(0L, 2L);
+        BigDecimal amount = BigDecimal.TEN;
+        when(cardRepository.debitIfAllowed(lowId, amount, testUser.getEmail())).thenReturn(1);
+        when(cardRepository.creditIfAllowed(highId, amount)).thenReturn(1);
+
+        String result = transferProcessor.transferWithConditionalUpdates(testUser.getEmail(),
+                new TransferRequest(lowId, highId, amount));
+
+        assertEquals("Перевод 10 выполнен", result);
+        InOrder inOrder = inOrder(cardRepository, userBalanceSummaries);
+        inOrder.verify(cardRepository).debitIfAllowed(lowId, amount, testUser.getEmail());
+        inOrder.verify(cardRepository).creditIfAllowed(highId, amount);
+        inOrder.verify(userBalanceSummaries).transferred(lowId, highId, amount);
+        verify(cardRepository, never()).findById(any());
+        verify(cardRepository, never()).save(any());
+        verify(ledgerEntryRepository).saveAll(ledgerCaptor.capture());
+        assertThat(ledgerCaptor.getValue()).extracting(LedgerEntry::getCardId).containsExactly(lowId, highId);
+    }
+
+    @Test
+    void transferWithConditionalUpdates_RejectsNonPositiveAmountWithoutTouchingCards() {
+        UUID lowId = new UUID(0L, 1L);
+        UUID highId = new UUID(0L, 2L);
+
+        assertThatThrownBy(() -> transferProcessor.transferWithConditionalUpdates(testUser.getEmail(),
+                new TransferRequest(lowId, highId, new BigDecimal("-100"))))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessage("Некорректный перевод: требуются карты и положительная сумма");
+        assertThatThrownBy(() -> transferProcessor.transferWithConditionalUpdates(testUser.getEmail(),
+                new TransferRequest(null, highId, BigDecimal.TEN)))
+                .isInstanceOf(BadRequestException.class);
+
+        verifyNoInteractions(cardRepository, ledgerEntryRepository, userBalanceSummaries);
+    }
+
+    @Test
+    void transfer_RejectsNegativeAmountBeforeLockingCards() {
+        assertThatThrownBy(() -> transferProcessor.transferWithRowLocks(testUser.getEmail(),
+                new TransferRequest(testCard.getId(), UUID.randomUUID(), new BigDecimal("-1"))))
+                .isInstanceOf(BadRequestException.class);
+
+        verifyNoInteractions(cardRepository, ledgerEntryRepository);
+        assertEquals(new BigDecimal("1000.00"), testCard.getBalance());
+    }
+
+    @Test
+    void transferWithConditionalUpdates_CreditsFirstWhenReceiverHasLowerId() {
+        UUID lowId = new UUID(0L, 1L);
+        UUID highId = new UUID(0L, 2L);
+        BigDecimal amount = BigDecimal.TEN;
+        when(cardRepository.creditIfAllowed(lowId, amount)).thenReturn(1);
+        when(cardRepository.debitIfAllowed(highId, amount, testUser.getEmail())).thenReturn(1);
+
+        transferProcessor.transferWithConditionalUpdates(testUser.getEmail(), new TransferRequest(highId, lowId, amount));
+
+        InOrder inOrder = inOrder(cardRepository);
+        inOrder.verify(cardRepository).creditIfAllowed(lowId, amount);
+        inOrder.verify(cardRepository).debitIfAllowed(highId, amount, testUser.getEmail());
+    }
+
+    @Test
+    void transferWithConditionalUpdates_ExplainsRejectedDebit() {
+        testCard.setBalance(BigDecimal.ONE);
+        Card receiver = new Card();
+        receiver.setId(new UUID(Long.MAX_VALUE, Long.MAX_VALUE));
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.ZERO);
+        receiver.setStatus(Status.ACTIVE);
+        TransferRequest request = new TransferRequest(testCard.getId(), receiver.getId(), BigDecimal.TEN);
+
+        when(cardRepository.debitIfAllowed(testCard.getId(), BigDecimal.TEN, testUser.getEmail())).thenReturn(0);
+        when(cardRepository.findById(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.findById(receiver.getId())).thenReturn(Optional.of(receiver));
+
+        assertThatThrownBy(() -> transferProcessor.transferWithConditionalUpdates(testUser.getEmail(), request))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessageContaining("Недостаточно средств на карте");
+
+        verify(cardRepository, never()).creditIfAllowed(any(), any());
+    }
+
+    @Test
+    void transferWithConditionalUpdates_ExplainsRejectedCreditToBlockedCard() {
+        Card receiver = new Card();
+        receiver.setId(new UUID(Long.MAX_VALUE, Long.MAX_VALUE));
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.ZERO);
+        receiver.setStatus(Status.BLOCKED);
+        TransferRequest request = new TransferRequest(testCard.getId(), receiver.getId(), BigDecimal.TEN);
+
+        when(cardRepository.debitIfAllowed(testCard.getId(), BigDecimal.TEN, testUser.getEmail())).thenReturn(1);
+        when(cardRepository.creditIfAllowed(receiver.getId(), BigDecimal.TEN)).thenReturn(0);
+        when(cardRepository.findById(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.findById(receiver.getId())).thenReturn(Optional.of(receiver));
+
+        assertThatThrownBy(() -> transferProcessor.transferWithConditionalUpdates(testUser.getEmail(), request))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessageContaining("Карта получателя заблокирована");
+        verify(ledgerEntryRepository, never()).saveAll(any());
+    }
+
+    @Test
+    void transfer_CreditsHotReceiverIntoStripeAfterRowLocks() {
+        Card receiver = new Card();
+        receiver.setId(UUID.randomUUID());
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.valueOf(500));
+        receiver.setStatus(Status.ACTIVE);
+        receiver.setHot(true);
+        TransferRequest request = new TransferRequest(testCard.getId(), receiver.getId(), BigDecimal.TEN);
+
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.findByIdForUpdate(receiver.getId())).thenReturn(Optional.of(receiver));
+        when(hotCardStripes.credit(receiver.getId(), BigDecimal.TEN)).thenReturn(true);
+
+        transferProcessor.transferWithRowLocks(testUser.getEmail(), request);
+
+        assertEquals(new BigDecimal("990.00"), testCard.getBalance());
+        assertEquals(BigDecimal.valueOf(500), receiver.getBalance());
+        InOrder inOrder = inOrder(cardRepository, hotCardStripes, userBalanceSummaries);
+        inOrder.verify(cardRepository).save(receiver);
+        inOrder.verify(hotCardStripes).credit(receiver.getId(), BigDecimal.TEN);
+        inOrder.verify(userBalanceSummaries).transferredToStripes(testCard.getId(), BigDecimal.TEN);
+        verify(userBalanceSummaries, never()).transferred(any(), any(), any());
+    }
+
+    @Test
+    void transfer_RequestsStripeFoldWhenOnlyStripesCoverDebit() {
+        testCard.setHot(true);
+        when(hotCardStripes.unfolded(testCard.getId())).thenReturn(new BigDecimal("500.00"));
+        Card receiver = new Card();
+        receiver.setId(UUID.randomUUID());
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.ZERO);
+        receiver.setStatus(Status.ACTIVE);
+        TransferRequest request = new TransferRequest(testCard.getId(), receiver.getId(), new BigDecimal("1200"));
+
+        when(cardRepository.findByIdForUpdate(testCard.getId())).thenReturn(Optional.of(testCard));
+        when(cardRepository.findByIdForUpdate(receiver.getId())).thenReturn(Optional.of(receiver));
+
+        assertThatThrownBy(() -> transferProcessor.transferWithRowLocks(testUser.getEmail(), request))
+                .isInstanceOf(StripeFoldRequiredException.class);
+        verify(cardRepository, never()).save(any());
+    }
+
+    @Test
+    void transferWithConditionalUpdates_CreditsHotReceiverStripeAfterDebit() {
+        UUID receiverId = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+        TransferRequest request = new TransferRequest(testCard.getId(), receiverId, BigDecimal.TEN);
+
+        when(cardRepository.debitIfAllowed(testCard.getId(), BigDecimal.TEN, testUser.getEmail())).thenReturn(1);
+        when(cardRepository.creditIfAllowed(receiverId, BigDecimal.TEN)).thenReturn(0);
+        when(hotCardStripes.credit(receiverId, BigDecimal.TEN)).thenReturn(true);
+
+        String result = transferProcessor.transferWithConditionalUpdates(testUser.getEmail(), request);
+
+        assertEquals("Перевод 10 выполнен", result);
+        InOrder inOrder = inOrder(cardRepository, hotCardStripes, userBalanceSummaries);
+        inOrder.verify(cardRepository).debitIfAllowed(testCard.getId(), BigDecimal.TEN, testUser.getEmail());
+        inOrder.verify(hotCardStripes).credit(receiverId, BigDecimal.TEN);
+        inOrder.verify(userBalanceSummaries).transferredToStripes(testCard.getId(), BigDecimal.TEN);
+        verify(userBalanceSummaries, never()).transferred(any(), any(), any());
+    }
+
+    @Test
+    void transferChunk_LeavesHotReceiverOutOfSummaryDeltas() {
+        Card receiver = new Card();
+        receiver.setId(UUID.randomUUID());
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.ZERO);
+        receiver.setStatus(Status.ACTIVE);
+        receiver.setHot(true);
+        when(cardRepository.findByIdIn(any())).thenReturn(List.of(testCard, receiver));
+        when(hotCardStripes.credit(receiver.getId(), new BigDecimal("30.00"))).thenReturn(true);
+
+        transferProcessor.transferChunk(testUser.getEmail(), List.of(
+                new TransferRequest(testCard.getId(), receiver.getId(), new BigDecimal("10.00")),
+                new TransferRequest(testCard.getId(), receiver.getId(), new BigDecimal("20.00"))), 0);
+
+        assertEquals(BigDecimal.ZERO, receiver.getBalance());
+        verify(hotCardStripes).credit(receiver.getId(), new BigDecimal("30.00"));
+        verify(userBalanceSummaries).balancesChanged(any(), eq(Map.of(testCard.getId(), new BigDecimal("-30.00"))));
+    }
+
+    @Test
+    void transferChunk_AppliesTransfersInOrderAndReportsEachResult() {
+        Card receiver = new Card();
+        receiver.setId(UUID.randomUUID());
+        receiver.setUser(new User());
+        receiver.setBalance(BigDecimal.ZERO);
+        receiver.setStatus(Status.ACTIVE);
+        UUID missingId = UUID.randomUUID();
+        List<TransferRequest> chunk = Arrays.asList(
+                new TransferRequest(testCard.getId(), receiver.getId(), new BigDecimal("600.00")),
+                new TransferRequest(testCard.getId(), receiver.getId(), new BigDecimal("600.00")),
+                new TransferRequest(testCard.getId(), missingId, BigDecimal.ONE),
+                null,
+                new TransferRequest(testCard.getId(), receiver.getId(), new BigDecimal("400.00")));
+        when(cardRepository.findByIdIn(any())).thenReturn(List.of(testCard, receiver));
+
+        List<BatchTransferResult> results = transferProcessor.transferChunk(testUser.getEmail(), chunk, 10);
+
+        assertThat(results).extracting(BatchTransferResult::index).containsExactly(10, 11, 12, 13, 14);
+        assertThat(results).extracting(BatchTransferResult::status)
+                .containsExactly("success", "error", "error", "error", "success");
+        assertThat(results.get(1).message()).isEqualTo("Недостаточно средств на карте");
+        assertThat(results.get(2).message()).isEqualTo("Карта получателя не найдена");
+        assertEquals(new BigDecimal("0.00"), testCard.getBalance());
+        assertEquals(new BigDecimal("1000.00"), receiver.getBalance());
+        verify(cardRepository).findByIdIn(Set.of(testCard.getId(), receiver.getId(), missingId));
+        verify(cardRepository).flush();
+        verify(cardRepository, never()).save(any());
+        verify(ledgerEntryRepository).saveAll(ledgerCaptor.capture());
+        assertThat(ledgerCaptor.getValue()).hasSize(4);
+        verify(userBalanceSummaries).balancesChanged(
+                argThat(cards -> cards.size() == 2 && cards.containsAll(List.of(testCard, receiver))),
+                eq(Map.of(testCard.getId(), new BigDecimal("-1000.00"), receiver.getId(), new BigDecimal("1000.00"))));
+    }
+}
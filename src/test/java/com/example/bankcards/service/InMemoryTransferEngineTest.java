@@ -0,0 +1,428 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.card.BatchTransferResult;
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.entity.card.Card;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.entity.ledger.LedgerEntry;
+import com.example.bankcards.entity.transfer.TransferIdempotencyKey;
+import com.example.bankcards.entity.user.User;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.repository.CardBalanceStripeRepository;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.LedgerEntryRepository;
+import com.example.bankcards.repository.TransferIdempotencyKeyRepository;
+import com.example.bankcards.repository.TransferJournalCheckpointRepository;
+import com.example.bankcards.service.card.HotCardStripes;
+import com.example.bankcards.service.card.TransferIdempotencyStore;
+import com.example.bankcards.service.card.UserBalanceSummaries;
+import com.example.bankcards.service.card.engine.InMemoryTransferEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InMemoryTransferEngineTest {
+
+    @Mock
+    private CardRepository cardRepository;
+    @Mock
+    private LedgerEntryRepository ledgerEntryRepository;
+    @Mock
+    private TransferJournalCheckpointRepository checkpointRepository;
+    @Mock
+    private CardBalanceStripeRepository stripeRepository;
+    @Mock
+    private HotCardStripes hotCardStripes;
+    @Mock
+    private UserBalanceSummaries userBalanceSummaries;
+    @Mock
+    private TransferIdempotencyKeyRepository idempotencyKeyRepository;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @TempDir
+    Path journalDir;
+
+    private final List<InMemoryTransferEngine> started = new ArrayList<>();
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+    private final Map<String, TransferIdempotencyKey> idempotencyKeys = new ConcurrentHashMap<>();
+    private List<Card> cards;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            if (databaseDown.get()) {
+                throw new CannotCreateTransactionException("БД недоступна");
+            }
+            return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+        });
+
+        User owner = new User();
+        owner.setEmail("owner@mail.com");
+        cards = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Card card = new Card();
+            card.setId(UUID.randomUUID());
+            card.setUser(owner);
+            card.setStatus(Status.ACTIVE);
+            card.setBalance(new BigDecimal("100.00"));
+            cards.add(card);
+        }
+        when(cardRepository.findAllWithUser()).thenReturn(cards);
+        when(cardRepository.addToBalance(any(), any())).thenReturn(1);
+        stubIdempotencyKeys();
+    }
+
+    @AfterEach
+    void tearDown() {
+        started.forEach(engine -> {
+            if (engine.isRunning()) {
+                engine.stop();
+            }
+        });
+    }
+
+    @Test
+    void transfer_MovesFundsAndFlushesDeltasToDatabase() {
+        InMemoryTransferEngine engine = start();
+        Card from = cards.get(0);
+        Card to = cards.get(1);
+
+        String result = engine.transfer("owner@mail.com", new TransferRequest(from.getId(), to.getId(), new BigDecimal("30")));
+        engine.stop();
+
+        assertThat(result).isEqualTo("Перевод 30 выполнен");
+        assertThat(engine.balance(from.getId())).contains(new BigDecimal("70.00"));
+        assertThat(engine.balance(to.getId())).contains(new BigDecimal("130.00"));
+        verify(cardRepository).addToBalance(from.getId(), new BigDecimal("-30.00"));
+        verify(cardRepository).addToBalance(to.getId(), new BigDecimal("30.00"));
+        verify(userBalanceSummaries).balanceChanged(from.getId(), new BigDecimal("-30.00"));
+        verify(userBalanceSummaries).balanceChanged(to.getId(), new BigDecimal("30.00"));
+        verify(ledgerEntryRepository).saveAll(any());
+    }
+
+    @Test
+    void changes_ChangesWithEveryTransferBeforeItIsSaved() {
+        databaseDown.set(true);
+        InMemoryTransferEngine engine = start();
+        String before = engine.changes("owner@mail.com");
+
+        engine.transfer("owner@mail.com", new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.ONE));
+
+        assertThat(engine.changes("owner@mail.com")).isNotEqualTo(before);
+        assertThat(engine.changes("other@mail.com")).endsWith(".0");
+        databaseDown.set(false);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_StampsLedgerEntriesWithFlushTime() {
+        databaseDown.set(true);
+        InMemoryTransferEngine engine = start();
+        engine.transfer("owner@mail.com", new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.ONE));
+        Instant restored = Instant.now();
+        databaseDown.set(false);
+        engine.stop();
+
+        ArgumentCaptor<List<LedgerEntry>> entries = ArgumentCaptor.forClass(List.class);
+        verify(ledgerEntryRepository).saveAll(entries.capture());
+        assertThat(entries.getValue()).hasSize(2)
+                .allSatisfy(entry -> assertThat(entry.getCreatedAt()).isAfterOrEqualTo(restored));
+    }
+
+    @Test
+    void cardDeleting_RefusedUntilCardTransfersAreSaved() {
+        databaseDown.set(true);
+        InMemoryTransferEngine engine = start();
+        engine.transfer("owner@mail.com", new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.ONE));
+
+        assertThatThrownBy(() -> engine.cardDeleting(cards.get(1)))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessage("Карта участвует в переводах, ещё не сохранённых в БД, повторите удаление позже");
+        // Отказ возвращает статус: переводы с картой продолжаются
+        engine.transfer("owner@mail.com", new TransferRequest(cards.get(1).getId(), cards.get(2).getId(), BigDecimal.ONE));
+
+        engine.cardDeleting(cards.get(3));
+        assertThatThrownBy(() -> engine.transfer("owner@mail.com",
+                new TransferRequest(cards.get(0).getId(), cards.get(3).getId(), BigDecimal.ONE)))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessage("Карта получателя заблокирована");
+
+        databaseDown.set(false);
+        engine.stop();
+        engine.cardDeleting(cards.get(1));
+    }
+
+    @Test
+    void flush_FailsWhenCardRowIsMissing() {
+        when(cardRepository.addToBalance(eq(cards.get(1).getId()), any())).thenReturn(0);
+        InMemoryTransferEngine engine = start();
+
+        engine.transfer("owner@mail.com", new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.ONE));
+        engine.stop();
+
+        verify(ledgerEntryRepository, never()).saveAll(any());
+        verify(checkpointRepository, never()).saveAll(any());
+        assertThatThrownBy(() -> engine.cardDeleting(cards.get(0))).isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    void transfer_IdempotencyKeySurvivesFlushThatFailsAfterEngineAccepted() {
+        databaseDown.set(true);
+        InMemoryTransferEngine engine = start();
+        TransferRequest request = new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.TEN);
+
+        assertThat(engine.transfer("owner@mail.com", request, "key-1")).isEqualTo("Перевод 10 выполнен");
+        // Сброс в БД не проходит: ключ занят, но не завершён, и повтор отвечает исходным результатом
+        assertThat(idempotencyKeys.get("key-1").isCompleted()).isFalse();
+        assertThat(engine.transfer("owner@mail.com", request, "key-1")).isEqualTo("Перевод 10 выполнен");
+        assertThat(engine.balance(cards.get(0).getId())).contains(new BigDecimal("90.00"));
+
+        databaseDown.set(false);
+        engine.stop();
+
+        assertThat(idempotencyKeys.get("key-1").isCompleted()).isTrue();
+        verify(cardRepository).addToBalance(cards.get(0).getId(), new BigDecimal("-10.00"));
+    }
+
+    @Test
+    void transfer_ReleasesIdempotencyKeyOfRejectedTransfer() {
+        InMemoryTransferEngine engine = start();
+        UUID from = cards.get(0).getId();
+        UUID to = cards.get(1).getId();
+
+        assertThatThrownBy(() -> engine.transfer("owner@mail.com", new TransferRequest(from, to, new BigDecimal("100.01")), "key-1"))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessage("Недостаточно средств на карте");
+
+        assertThat(idempotencyKeys).isEmpty();
+    }
+
+    @Test
+    void transfer_RetakesIdempotencyKeyLeftUnsavedBeforeRestart() {
+        InMemoryTransferEngine engine = start();
+        TransferRequest request = new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.TEN);
+        UUID lost = UUID.randomUUID();
+        idempotencyKeys.put("key-1", new TransferIdempotencyKey(UUID.randomUUID(), "owner@mail.com", "key-1",
+                request.fromCardId(), request.toCardId(), new BigDecimal("10.00"), "Перевод 10 выполнен",
+                Instant.now(), lost, false));
+
+        assertThat(engine.transfer("owner@mail.com", request, "key-1")).isEqualTo("Перевод 10 выполнен");
+        engine.stop();
+
+        assertThat(idempotencyKeys.get("key-1").getTransferId()).isNotEqualTo(lost);
+        assertThat(idempotencyKeys.get("key-1").isCompleted()).isTrue();
+        assertThat(engine.balance(cards.get(0).getId())).contains(new BigDecimal("90.00"));
+    }
+
+    @Test
+    void transfer_LoadsCardCreatedAfterStartOnCallerThread() {
+        InMemoryTransferEngine engine = start();
+        Card created = new Card();
+        created.setId(UUID.randomUUID());
+        created.setUser(cards.get(0).getUser());
+        created.setStatus(Status.ACTIVE);
+        created.setBalance(BigDecimal.ZERO);
+        List<String> loadingThreads = new ArrayList<>();
+        when(cardRepository.findWithUserById(created.getId())).thenAnswer(invocation -> {
+            loadingThreads.add(Thread.currentThread().getName());
+            return Optional.of(created);
+        });
+
+        engine.transfer("owner@mail.com", new TransferRequest(cards.get(0).getId(), created.getId(), BigDecimal.TEN));
+        engine.transfer("owner@mail.com", new TransferRequest(cards.get(1).getId(), created.getId(), BigDecimal.TEN));
+        engine.stop();
+
+        assertThat(loadingThreads).containsExactly(Thread.currentThread().getName());
+        assertThat(engine.balance(created.getId())).contains(new BigDecimal("20.00"));
+    }
+
+    @Test
+    void transfer_RejectsInsufficientFundsAndForeignCards() {
+        InMemoryTransferEngine engine = start();
+        UUID from = cards.get(0).getId();
+        UUID to = cards.get(1).getId();
+
+        assertThatThrownBy(() -> engine.transfer("owner@mail.com", new TransferRequest(from, to, new BigDecimal("100.01"))))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessage("Недостаточно средств на карте");
+        assertThatThrownBy(() -> engine.transfer("other@mail.com", new TransferRequest(from, to, BigDecimal.ONE)))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessage("Карта не принадлежит данному пользователю");
+        engine.stop();
+
+        verify(cardRepository, never()).addToBalance(any(), any());
+    }
+
+    @Test
+    void start_ReplaysJournalRecordsNotSavedBeforeStop() {
+        doThrow(new CannotCreateTransactionException("БД недоступна")).when(transactionTemplate).execute(any());
+        InMemoryTransferEngine crashed = start();
+        crashed.transfer("owner@mail.com", new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.TEN));
+        crashed.stop();
+        verify(cardRepository, never()).addToBalance(any(), any());
+
+        doAnswer(invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null))
+                .when(transactionTemplate).execute(any());
+        start();
+
+        verify(cardRepository).addToBalance(eq(cards.get(0).getId()), eq(new BigDecimal("-10.00")));
+        verify(cardRepository).addToBalance(eq(cards.get(1).getId()), eq(new BigDecimal("10.00")));
+        verify(checkpointRepository).saveAll(any());
+    }
+
+    @Test
+    void transfer_ConservesTotalBalanceUnderConcurrency() throws Exception {
+        InMemoryTransferEngine engine = start();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            int offset = thread;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    UUID from = cards.get((offset + i) % 4).getId();
+                    UUID to = cards.get((offset + i + 1) % 4).getId();
+                    try {
+                        engine.transfer("owner@mail.com", new TransferRequest(from, to, new BigDecimal("7.50")));
+                    } catch (BadRequestException ignored) {
+                        // Недостаточно средств - допустимый исход
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        BigDecimal total = cards.stream()
+                .map(card -> engine.balance(card.getId()).orElseThrow())
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertThat(total).isEqualByComparingTo("400.00");
+        assertThat(cards).allSatisfy(card -> assertThat(engine.balance(card.getId()).orElseThrow()).isNotNegative());
+    }
+
+    @Test
+    void transfer_TimedOutTransferIsCancelledAndNeverApplied() {
+        databaseDown.set(true);
+        InMemoryTransferEngine engine = start(1024, 4, 300L);
+        TransferRequest request = new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.ONE);
+        for (int i = 0; i < 4; i++) {
+            engine.transfer("owner@mail.com", request);
+        }
+
+        // Журнал заполнен и не сбрасывается в БД: перевод не принят и отменяется по таймауту
+        assertThatThrownBy(() -> engine.transfer("owner@mail.com", request))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessage("Перевод не выполнен: движок не принял его вовремя, повторите попытку");
+
+        databaseDown.set(false);
+        engine.transfer("owner@mail.com", request);
+        engine.stop();
+
+        assertThat(engine.balance(cards.get(0).getId())).contains(new BigDecimal("95.00"));
+        assertThat(engine.balance(cards.get(1).getId())).contains(new BigDecimal("105.00"));
+    }
+
+    @Test
+    void transferBatch_RejectsTransfersBeyondFullQueue() {
+        databaseDown.set(true);
+        InMemoryTransferEngine engine = start(2, 4, 500L);
+        List<TransferRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            requests.add(new TransferRequest(cards.get(0).getId(), cards.get(1).getId(), BigDecimal.ONE));
+        }
+
+        List<BatchTransferResult> results = engine.transferBatch("owner@mail.com", requests.iterator());
+
+        // Сколько переводов успеет принять раздел, зависит от гонки с отправкой, но не больше места в журнале;
+        // остальные отклонены очередью или отменены по таймауту и денег не двигали
+        long succeeded = results.stream().filter(result -> result.status().equals("success")).count();
+        assertThat(succeeded).isBetween(1L, 4L);
+        assertThat(results).extracting(BatchTransferResult::message)
+                .contains("Очередь переводов переполнена, повторите попытку")
+                .allMatch(message -> message.equals("Перевод 1 выполнен")
+                        || message.equals("Очередь переводов переполнена, повторите попытку")
+                        || message.equals("Перевод не выполнен: движок не принял его вовремя, повторите попытку"));
+        assertThat(engine.balance(cards.get(0).getId())).contains(BigDecimal.valueOf(10000 - succeeded * 100, 2));
+        databaseDown.set(false);
+    }
+
+    // Таблица ключей идемпотентности в памяти: ключи здесь уникальны без учёта пользователя
+    private void stubIdempotencyKeys() {
+        when(idempotencyKeyRepository.insertPending(any(), any(), any(), any(), any(), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    TransferIdempotencyKey key = new TransferIdempotencyKey(UUID.randomUUID(),
+                            invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2),
+                            invocation.getArgument(3), invocation.getArgument(4), invocation.getArgument(5),
+                            invocation.getArgument(6), invocation.getArgument(7), false);
+                    return idempotencyKeys.putIfAbsent(key.getIdempotencyKey(), key) == null ? 1 : 0;
+                });
+        when(idempotencyKeyRepository.findByUserEmailAndIdempotencyKey(any(), any()))
+                .thenAnswer(invocation -> Optional.ofNullable(idempotencyKeys.get(invocation.<String>getArgument(1))));
+        when(idempotencyKeyRepository.deletePending(any())).thenAnswer(invocation -> idempotencyKeys.values()
+                .removeIf(key -> !key.isCompleted() && invocation.getArgument(0).equals(key.getTransferId())) ? 1 : 0);
+        when(idempotencyKeyRepository.markCompleted(any())).thenAnswer(invocation -> {
+            Collection<UUID> transferIds = invocation.getArgument(0);
+            idempotencyKeys.values().stream()
+                    .filter(key -> transferIds.contains(key.getTransferId()))
+                    .forEach(key -> key.setCompleted(true));
+            return transferIds.size();
+        });
+    }
+
+    private InMemoryTransferEngine start() {
+        return start(1024, 4096, 5000L);
+    }
+
+    private InMemoryTransferEngine start(int ringSize, int journalRecords, long timeoutMillis) {
+        InMemoryTransferEngine engine = new InMemoryTransferEngine(cardRepository, ledgerEntryRepository,
+                checkpointRepository, stripeRepository, hotCardStripes, userBalanceSummaries,
+                new TransferIdempotencyStore(idempotencyKeyRepository, 100, Duration.ofMinutes(1), Duration.ofDays(1)),
+                transactionTemplate);
+        ReflectionTestUtils.setField(engine, "partitionCount", 2);
+        ReflectionTestUtils.setField(engine, "ringSize", ringSize);
+        ReflectionTestUtils.setField(engine, "journalDir", journalDir);
+        ReflectionTestUtils.setField(engine, "journalRecords", journalRecords);
+        ReflectionTestUtils.setField(engine, "flushIntervalMillis", 10L);
+        ReflectionTestUtils.setField(engine, "timeoutMillis", timeoutMillis);
+        engine.start();
+        started.add(engine);
+        return engine;
+    }
+}
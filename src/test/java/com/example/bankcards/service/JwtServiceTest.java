@@ -4,8 +4,10 @@ import com.example.bankcards.entity.user.Role;
 import com.example.bankcards.entity.user.User;
 import com.example.bankcards.exception.JWTValidException;
 import com.example.bankcards.exception.JwtAuthenticationException;
+import com.example.bankcards.security.JwtPrincipal;
 import com.example.bankcards.service.auth.JwtService;
 import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -22,6 +24,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 class JwtServiceTest {
 
     private JwtService jwtService;
+    private SimpleMeterRegistry meterRegistry;
     private User user;
 
     private final String secret = "veryLongSecretKeyForTestingPurposes1234567890";
@@ -30,10 +33,12 @@ class JwtServiceTest {
 
     @BeforeEach
     void setUp() {
-        jwtService = new JwtService();
+        meterRegistry = new SimpleMeterRegistry();
+        jwtService = new JwtService(meterRegistry, 1000);
         ReflectionTestUtils.setField(jwtService, "secret", secret);
         ReflectionTestUtils.setField(jwtService, "expiration", expiration);
         ReflectionTestUtils.setField(jwtService, "refreshTokenExpiration", refreshTokenExpiration);
+        jwtService.init();
 
         user = new User();
         user.setId(UUID.randomUUID());
@@ -56,6 +61,7 @@ class JwtServiceTest {
         String token = jwtService.generateToken(user);
         Claims claims = jwtService.extractAllClaims(token);
         assertThat(claims.getSubject()).isEqualTo(user.getEmail());
+        assertThat(claims.get("userId")).isEqualTo(user.getId().toString());
         assertThat(claims.get("role")).isEqualTo(Role.USER.name());
         assertThat(claims.get("fullName")).isEqualTo("John Doe");
         assertThat(claims.get("type")).isEqualTo("access");
@@ -134,4 +140,58 @@ class JwtServiceTest {
         assertThat(jwtService.extractUsername(token1)).isEqualTo(user.getEmail());
         assertThat(jwtService.extractUsername(token2)).isEqualTo(user2.getEmail());
     }
-}
\ No newline at end of file
+
+    @Test
+    void init_WithNewSecretRejectsTokensSignedWithOldOne() {
+        String token = jwtService.generateToken(user);
+
+        ReflectionTestUtils.setField(jwtService, "secret", "YW5vdGhlclZlcnlMb25nU2VjcmV0S2V5Rm9yVGVzdGluZ1B1cnBvc2VzMTIzNDU2");
+        jwtService.init();
+
+        assertThrows(JWTValidException.class, () -> jwtService.isTokenValid(token));
+        assertThat(jwtService.extractUsername(jwtService.generateToken(user))).isEqualTo(user.getEmail());
+    }
+
+    @Test
+    void validateToken_ReturnsClaims() {
+        Claims claims = jwtService.validateToken(jwtService.generateToken(user));
+
+        assertThat(claims.getSubject()).isEqualTo(user.getEmail());
+        assertThat(claims.get("userId")).isEqualTo(user.getId().toString());
+    }
+
+    @Test
+    void authenticate_RepeatedTokenServedFromCache() {
+        String token = jwtService.generateToken(user);
+
+        JwtPrincipal first = jwtService.authenticate(token);
+        JwtPrincipal second = jwtService.authenticate(token);
+
+        assertThat(first).isEqualTo(new JwtPrincipal(user.getEmail(), Role.USER.name(), user.getId()));
+        assertThat(second).isSameAs(first);
+        assertThat(meterRegistry.get("cache.hit.ratio").tag("cache", "jwt.verified").gauge().value())
+                .isEqualTo(0.5);
+    }
+
+    @Test
+    void authenticate_EntryExpiresWithToken() throws InterruptedException {
+        ReflectionTestUtils.setField(jwtService, "expiration", 1000L);
+        String token = jwtService.generateToken(user);
+        jwtService.authenticate(token);
+
+        Thread.sleep(1100);
+
+        assertThrows(JwtAuthenticationException.class, () -> jwtService.authenticate(token));
+    }
+
+    @Test
+    void authenticate_ForgetsTokensAfterSecretChange() {
+        String token = jwtService.generateToken(user);
+        jwtService.authenticate(token);
+
+        ReflectionTestUtils.setField(jwtService, "secret", "YW5vdGhlclZlcnlMb25nU2VjcmV0S2V5Rm9yVGVzdGluZ1B1cnBvc2VzMTIzNDU2");
+        jwtService.init();
+
+        assertThrows(JWTValidException.class, () -> jwtService.authenticate(token));
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.exception.TooManyRequestsException;
+import com.example.bankcards.service.auth.PasswordVerifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PasswordVerifierTest {
+
+    private final PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+    private SimpleMeterRegistry meterRegistry;
+    private PasswordVerifier verifier;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        verifier = new PasswordVerifier(passwordEncoder, meterRegistry, 1, 1, Duration.ofSeconds(2));
+    }
+
+    @AfterEach
+    void tearDown() {
+        verifier.shutdown();
+    }
+
+    @Test
+    void verify_ReturnsEncoderResult() {
+        when(passwordEncoder.matches("secret", "hash")).thenReturn(true);
+
+        assertThat(verifier.verify("secret", "hash")).isEqualTo(new PasswordVerifier.Verification(true, null));
+        assertThat(verifier.verify("wrong", "hash").matches()).isFalse();
+        verify(passwordEncoder, never()).encode(any());
+    }
+
+    @Test
+    void verify_RehashesOutdatedHash() {
+        when(passwordEncoder.matches("secret", "old-hash")).thenReturn(true);
+        when(passwordEncoder.upgradeEncoding("old-hash")).thenReturn(true);
+        when(passwordEncoder.encode("secret")).thenReturn("{bcrypt}new-hash");
+
+        assertThat(verifier.verify("secret", "old-hash"))
+                .isEqualTo(new PasswordVerifier.Verification(true, "{bcrypt}new-hash"));
+    }
+
+    @Test
+    void verify_RejectsWhenPoolAndQueueAreBusy() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(passwordEncoder.matches("slow", "hash")).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return true;
+        });
+
+        CompletableFuture<Boolean> running = CompletableFuture.supplyAsync(() -> verifier.verify("slow", "hash").matches());
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> verifier.verify("slow", "hash").matches());
+        while (meterRegistry.get("executor.queued").tag("name", "auth.password").gauge().value() < 1) {
+            Thread.onSpinWait();
+        }
+
+        TooManyRequestsException e = assertThrows(TooManyRequestsException.class,
+                () -> verifier.verify("slow", "hash"));
+        assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(2));
+        assertThat(meterRegistry.get("auth.password.rejected").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("auth.password.utilization").gauge().value()).isEqualTo(1.0);
+
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+}
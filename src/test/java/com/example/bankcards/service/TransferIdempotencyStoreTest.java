@@ -0,0 +1,91 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.card.TransferRequest;
+import com.example.bankcards.entity.transfer.TransferIdempotencyKey;
+import com.example.bankcards.exception.BadRequestException;
+import com.example.bankcards.repository.TransferIdempotencyKeyRepository;
+import com.example.bankcards.service.card.TransferIdempotencyStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TransferIdempotencyStoreTest {
+
+    @Mock
+    private TransferIdempotencyKeyRepository repository;
+
+    private TransferIdempotencyStore store;
+    private TransferRequest request;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        store = new TransferIdempotencyStore(repository, 100, Duration.ofMinutes(1), Duration.ofDays(1));
+        request = new TransferRequest(UUID.randomUUID(), UUID.randomUUID(), BigDecimal.TEN);
+        when(repository.findByUserEmailAndIdempotencyKey("user@example.com", "key-1"))
+                .thenReturn(Optional.of(new TransferIdempotencyKey(UUID.randomUUID(), "user@example.com", "key-1",
+                        request.fromCardId(), request.toCardId(), new BigDecimal("10.00"),
+                        "Перевод 10 выполнен", Instant.now(), null, true)));
+    }
+
+    @Test
+    void findStored_CachesResultForFollowingRetries() {
+        assertThat(store.findCached("user@example.com", "key-1", request)).isEmpty();
+
+        assertThat(store.findStored("user@example.com", "key-1", request)).contains("Перевод 10 выполнен");
+        assertThat(store.findCached("user@example.com", "key-1", request)).contains("Перевод 10 выполнен");
+
+        verify(repository, times(1)).findByUserEmailAndIdempotencyKey("user@example.com", "key-1");
+    }
+
+    @Test
+    void findStored_RejectsKeyReusedForAnotherTransfer() {
+        TransferRequest other = new TransferRequest(request.fromCardId(), request.toCardId(), BigDecimal.ONE);
+
+        assertThatThrownBy(() -> store.findStored("user@example.com", "key-1", other))
+                .isInstanceOf(BadRequestException.class)
+                .hasMessage("Idempotency-Key уже использован для другого перевода");
+    }
+
+    @Test
+    void find_DoesNotCacheKeyOfUnsavedEngineTransfer() {
+        UUID transferId = UUID.randomUUID();
+        when(repository.findByUserEmailAndIdempotencyKey("user@example.com", "key-2"))
+                .thenReturn(Optional.of(new TransferIdempotencyKey(UUID.randomUUID(), "user@example.com", "key-2",
+                        request.fromCardId(), request.toCardId(), new BigDecimal("10.00"),
+                        "Перевод 10 выполнен", Instant.now(), transferId, false)));
+
+        assertThat(store.find("user@example.com", "key-2", request))
+                .hasValueSatisfying(stored -> assertThat(stored.getTransferId()).isEqualTo(transferId));
+        assertThat(store.findStored("user@example.com", "key-2", request)).isEmpty();
+        assertThat(store.findCached("user@example.com", "key-2", request)).isEmpty();
+    }
+
+    @Test
+    void purgeExpired_DeletesKeysOlderThanRetentionInChunks() {
+        when(repository.deleteCreatedBefore(any(), eq(1_000))).thenReturn(1_000, 1_000, 250);
+
+        Instant before = Instant.now();
+        assertThat(store.purgeExpired()).isEqualTo(2_250);
+
+        ArgumentCaptor<Instant> cutoff = ArgumentCaptor.forClass(Instant.class);
+        verify(repository, times(3)).deleteCreatedBefore(cutoff.capture(), eq(1_000));
+        assertThat(cutoff.getValue()).isBetween(before.minus(Duration.ofDays(1)), Instant.now().minus(Duration.ofDays(1)));
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.service.card.engine.JournalRecord;
+import com.example.bankcards.service.card.engine.TransferJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransferJournalTest {
+
+    @TempDir
+    Path journalDir;
+
+    @Test
+    void recover_ReturnsRecordsAfterCheckpointInOrder() throws Exception {
+        Path file = journalDir.resolve("journal-0.dat");
+        try (TransferJournal journal = TransferJournal.open(file, 0, 8)) {
+            for (long sequence = 1; sequence <= 5; sequence++) {
+                journal.append(record(sequence));
+            }
+        }
+
+        try (TransferJournal journal = TransferJournal.open(file, 0, 8)) {
+            List<JournalRecord> recovered = journal.recover(2);
+
+            assertThat(recovered).extracting(JournalRecord::sequence).containsExactly(3L, 4L, 5L);
+            assertThat(recovered.get(0)).isEqualTo(record(3));
+        }
+    }
+
+    @Test
+    void recover_SkipsOverwrittenSlotsAfterWrapAround() throws Exception {
+        try (TransferJournal journal = TransferJournal.open(journalDir.resolve("journal-0.dat"), 0, 4)) {
+            for (long sequence = 1; sequence <= 6; sequence++) {
+                journal.append(record(sequence));
+            }
+
+            assertThat(journal.recover(4)).extracting(JournalRecord::sequence).containsExactly(5L, 6L);
+        }
+    }
+
+    @Test
+    void recover_StopsAtTornRecord() throws Exception {
+        Path file = journalDir.resolve("journal-0.dat");
+        try (TransferJournal journal = TransferJournal.open(file, 0, 8)) {
+            for (long sequence = 1; sequence <= 4; sequence++) {
+                journal.append(record(sequence));
+            }
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            // Повреждаем сумму второй записи, как при сбое посреди записи
+            raw.seek(80 + 56);
+            raw.writeLong(-1);
+        }
+
+        try (TransferJournal journal = TransferJournal.open(file, 0, 8)) {
+            assertThat(journal.recover(0)).extracting(JournalRecord::sequence).containsExactly(1L);
+        }
+    }
+
+    @Test
+    void recover_StopsAtErasedRecord() throws Exception {
+        try (TransferJournal journal = TransferJournal.open(journalDir.resolve("journal-0.dat"), 0, 8)) {
+            for (long sequence = 1; sequence <= 3; sequence++) {
+                journal.append(record(sequence));
+            }
+            journal.erase(3);
+            journal.erase(2);
+
+            assertThat(journal.recover(0)).extracting(JournalRecord::sequence).containsExactly(1L);
+        }
+    }
+
+    @Test
+    void recover_ErasesRecordsAfterGapSoTheyAreNotReplayedLater() throws Exception {
+        Path file = journalDir.resolve("journal-0.dat");
+        try (TransferJournal journal = TransferJournal.open(file, 0, 4)) {
+            for (long sequence = 1; sequence <= 4; sequence++) {
+                journal.append(record(sequence));
+            }
+            // Запись 2 отменена посреди работы, затем процесс падает
+            journal.erase(2);
+        }
+
+        try (TransferJournal journal = TransferJournal.open(file, 0, 4)) {
+            assertThat(journal.recover(0)).extracting(JournalRecord::sequence).containsExactly(1L);
+            // Номер 2 выдаётся заново, и процесс снова падает
+            journal.append(record(2));
+        }
+
+        try (TransferJournal journal = TransferJournal.open(file, 0, 4)) {
+            // Без стирания записи 3 и 4 первого запуска продолжили бы новую запись 2
+            assertThat(journal.recover(1)).extracting(JournalRecord::sequence).containsExactly(2L);
+            // Журнал проходит круг, запись 6 отменяется, и снова сбой
+            for (long sequence = 3; sequence <= 6; sequence++) {
+                journal.append(record(sequence));
+            }
+            journal.erase(6);
+        }
+
+        try (TransferJournal journal = TransferJournal.open(file, 0, 4)) {
+            assertThat(journal.recover(2)).extracting(JournalRecord::sequence).containsExactly(3L, 4L, 5L);
+        }
+    }
+
+    private JournalRecord record(long sequence) {
+        return new JournalRecord(0, sequence, new UUID(1, sequence), new UUID(2, 2), new UUID(3, 3),
+                sequence * 100, 1_700_000_000_000L + sequence);
+    }
+}
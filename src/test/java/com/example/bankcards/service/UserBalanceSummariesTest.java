@@ -0,0 +1,131 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.card.Card;
+import com.example.bankcards.entity.card.Status;
+import com.example.bankcards.entity.user.User;
+import com.example.bankcards.repository.UserBalanceSummaryRepository;
+import com.example.bankcards.service.card.UserBalanceSummaries;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class UserBalanceSummariesTest {
+
+    @Mock
+    private UserBalanceSummaryRepository summaryRepository;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @InjectMocks
+    private UserBalanceSummaries summaries;
+
+    // В PostgreSQL этот UUID меньше: старший байт 0x7f против 0x80, хотя UUID.compareTo считает наоборот
+    private final UUID lowerUserId = UUID.fromString("7fffffff-0000-0000-0000-000000000000");
+    private final UUID higherUserId = UUID.fromString("80000000-0000-0000-0000-000000000000");
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void balancesChanged_AddsPerUserDeltasInDatabaseOrder() {
+        Card first = card(higherUserId, Status.ACTIVE, "500.00");
+        Card second = card(higherUserId, Status.EXPIRED, "0.00");
+        Card third = card(lowerUserId, Status.ACTIVE, "0.00");
+
+        summaries.balancesChanged(List.of(first, second, third), Map.of(
+                first.getId(), new BigDecimal("-30.00"),
+                second.getId(), new BigDecimal("10.00"),
+                third.getId(), new BigDecimal("20.00")));
+
+        InOrder inOrder = inOrder(summaryRepository);
+        inOrder.verify(summaryRepository).add(lowerUserId, new BigDecimal("20.00"), new BigDecimal("20.00"), 0);
+        inOrder.verify(summaryRepository).add(higherUserId, new BigDecimal("-20.00"), new BigDecimal("-30.00"), 0);
+    }
+
+    @Test
+    void balancesChanged_BumpsVersionWhenTotalsDoNotChange() {
+        Card from = card(lowerUserId, Status.ACTIVE, "100.00");
+        Card to = card(lowerUserId, Status.ACTIVE, "0.00");
+
+        summaries.balancesChanged(List.of(from, to), Map.of(
+                from.getId(), new BigDecimal("-10.00"),
+                to.getId(), new BigDecimal("10.00")));
+
+        verify(summaryRepository).add(lowerUserId, new BigDecimal("0.00"), new BigDecimal("0.00"), 0);
+    }
+
+    @Test
+    void balancesChanged_SkipsCardsWithoutChanges() {
+        Card card = card(lowerUserId, Status.ACTIVE, "100.00");
+
+        summaries.balancesChanged(List.of(card), Map.of(card.getId(), BigDecimal.ZERO));
+
+        verifyNoInteractions(summaryRepository);
+    }
+
+    @Test
+    void transferredToStripes_ChangesOnlySenderSummary() {
+        UUID fromCardId = UUID.randomUUID();
+
+        summaries.transferredToStripes(fromCardId, new BigDecimal("15.00"));
+
+        verify(summaryRepository).addToCardOwner(fromCardId, new BigDecimal("-15.00"));
+        verify(summaryRepository, never()).applyTransfer(any(), any(), any());
+    }
+
+    @Test
+    void statusChanged_MovesBalanceOutOfActiveTotal() {
+        Card card = card(lowerUserId, Status.BLOCKED, "250.00");
+
+        summaries.statusChanged(card, Status.ACTIVE);
+
+        verify(summaryRepository).add(lowerUserId, BigDecimal.ZERO, new BigDecimal("-250.00"), 0);
+    }
+
+    @Test
+    void statusChanged_OnlyBumpsVersionBetweenInactiveStatuses() {
+        Card card = card(lowerUserId, Status.EXPIRED, "250.00");
+
+        summaries.statusChanged(card, Status.BLOCKED);
+
+        verify(summaryRepository).add(lowerUserId, BigDecimal.ZERO, BigDecimal.ZERO, 0);
+    }
+
+    @Test
+    void statusChanged_IgnoresUnchangedStatus() {
+        Card card = card(lowerUserId, Status.ACTIVE, "250.00");
+
+        summaries.statusChanged(card, Status.ACTIVE);
+
+        verify(summaryRepository, never()).add(any(), any(), any(), anyInt());
+    }
+
+    private Card card(UUID userId, Status status, String balance) {
+        User user = new User();
+        user.setId(userId);
+        Card card = new Card();
+        card.setId(UUID.randomUUID());
+        card.setUser(user);
+        card.setStatus(status);
+        card.setBalance(new BigDecimal(balance));
+        return card;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.user.Role;
+import com.example.bankcards.entity.user.User;
+import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.service.user.UserLookup;
+import com.example.bankcards.service.user.UserLookupCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class UserLookupCacheTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserLookupCache cache;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new UserLookupCache(userRepository, meterRegistry, 100, Duration.ofMinutes(1));
+
+        user = new User();
+        user.setId(UUID.randomUUID());
+        user.setEmail("user@example.com");
+        user.setRole(Role.USER);
+        user.setFirstName("John");
+        user.setLastName("Doe");
+        when(userRepository.findByEmail("user@example.com")).thenReturn(Optional.of(user));
+    }
+
+    @Test
+    void find_ReadsRepositoryOnlyOnce() {
+        UserLookup expected = new UserLookup(user.getId(), "user@example.com", Role.USER, "John Doe");
+
+        assertThat(cache.find("user@example.com")).contains(expected);
+        assertThat(cache.find("user@example.com")).contains(expected);
+
+        verify(userRepository, times(1)).findByEmail("user@example.com");
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "users.lookup").tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "users.lookup").tag("result", "miss")
+                .functionCounter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void find_DoesNotCacheMissingUser() {
+        when(userRepository.findByEmail("missing@example.com")).thenReturn(Optional.empty());
+
+        assertThat(cache.find("missing@example.com")).isEmpty();
+        assertThat(cache.find("missing@example.com")).isEmpty();
+
+        verify(userRepository, times(2)).findByEmail("missing@example.com");
+    }
+
+    @Test
+    void remember_ServesLoginWithoutRepository() {
+        cache.remember(user);
+
+        assertThat(cache.find("user@example.com")).map(UserLookup::id).contains(user.getId());
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void evict_ByEmailAndById() {
+        cache.find("user@example.com");
+        cache.evict("user@example.com");
+        cache.find("user@example.com");
+        cache.evict(user.getId());
+        cache.find("user@example.com");
+
+        verify(userRepository, times(3)).findByEmail("user@example.com");
+    }
+}
@@ -8,7 +8,9 @@ import com.example.bankcards.entity.user.User;
 import com.example.bankcards.exception.BadRequestException;
 import com.example.bankcards.exception.NotFoundException;
 import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.service.user.UserLookupCache;
 import com.example.bankcards.service.user.UserServiceImpl;
+import com.example.bankcards.service.user.UserVersions;
 import com.example.bankcards.util.UserMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -41,6 +43,12 @@ class UserServiceImplTest {
     @Mock
     private UserMapper userMapper;
 
+    @Mock
+    private UserLookupCache userLookupCache;
+
+    @Mock
+    private UserVersions userVersions;
+
     @InjectMocks
     private UserServiceImpl userService;
 
@@ -170,6 +178,8 @@ class UserServiceImplTest {
 
         assertThat(result).isEqualTo(userDto);
         verify(userRepository).save(user);
+        verify(userVersions).changed(userId);
+        verify(userLookupCache).evict("test@example.com");
     }
 
     @Test
@@ -192,6 +202,7 @@ class UserServiceImplTest {
         userService.deleteUser(userId);
 
         verify(userRepository).deleteById(userId);
+        verify(userLookupCache).evict(userId);
     }
 
     @Test
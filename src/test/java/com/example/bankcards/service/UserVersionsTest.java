@@ -0,0 +1,159 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.user.Role;
+import com.example.bankcards.exception.NotFoundException;
+import com.example.bankcards.repository.UserBalanceSummaryRepository;
+import com.example.bankcards.service.card.UserBalanceSummaries;
+import com.example.bankcards.service.card.engine.InMemoryTransferEngine;
+import com.example.bankcards.service.user.UserLookup;
+import com.example.bankcards.service.user.UserLookupCache;
+import com.example.bankcards.service.user.UserVersions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class UserVersionsTest {
+
+    @Mock
+    private UserBalanceSummaries userBalanceSummaries;
+    @Mock
+    private UserLookupCache userLookupCache;
+    @Mock
+    private ObjectProvider<InMemoryTransferEngine> inMemoryEngine;
+    @Mock
+    private InMemoryTransferEngine engine;
+
+    @InjectMocks
+    private UserVersions userVersions;
+
+    private final UUID userId = UUID.fromString("7fffffff-0000-0000-0000-000000000001");
+    private final String etag = "\"7fffffff-0000-0000-0000-000000000001-5\"";
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(userBalanceSummaries.version(userId)).thenReturn(Optional.of(5L));
+        UserBalanceSummaryRepository.CardsVersion cardsVersion = cardsVersion(BigDecimal.ZERO);
+        when(userBalanceSummaries.cardsVersion(userId)).thenReturn(Optional.of(cardsVersion));
+        when(userLookupCache.find("user@example.com"))
+                .thenReturn(Optional.of(new UserLookup(userId, "user@example.com", Role.USER, "John Doe")));
+    }
+
+    @Test
+    void readIfModified_LoadsAndSetsEtagWithoutIfNoneMatch() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        Optional<String> body = userVersions.readIfModified("user@example.com",
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/cards/user"), response)::checkNotModified,
+                () -> "cards");
+
+        assertThat(body).contains("cards");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(etag);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void readIfModified_SkipsLoadingForMatchingEtag() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cards/user");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Supplier<String> loader = mock(Supplier.class);
+
+        Optional<String> body = userVersions.readIfModified("user@example.com",
+                new ServletWebRequest(request, response)::checkNotModified, loader);
+
+        assertThat(body).isEmpty();
+        assertThat(response.getStatus()).isEqualTo(304);
+        verifyNoInteractions(loader);
+    }
+
+    @Test
+    void readIfModified_CardsEtagChangesWithUnfoldedStripes() {
+        UserBalanceSummaryRepository.CardsVersion cardsVersion = cardsVersion(new BigDecimal("10.00"));
+        when(userBalanceSummaries.cardsVersion(userId)).thenReturn(Optional.of(cardsVersion));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cards/balance");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        Optional<String> body = userVersions.readIfModified("user@example.com",
+                new ServletWebRequest(request, response)::checkNotModified, () -> "balance");
+
+        assertThat(body).contains("balance");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"7fffffff-0000-0000-0000-000000000001-5-10.00\"");
+    }
+
+    @Test
+    void readIfModified_CardsEtagIncludesInMemoryEngineChanges() {
+        when(inMemoryEngine.getIfAvailable()).thenReturn(engine);
+        when(engine.changes("user@example.com")).thenReturn("mgx1.3");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/cards/balance");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        Optional<String> body = userVersions.readIfModified("user@example.com",
+                new ServletWebRequest(request, response)::checkNotModified, () -> "balance");
+
+        assertThat(body).contains("balance");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"7fffffff-0000-0000-0000-000000000001-5-mgx1.3\"");
+    }
+
+    @Test
+    void readIfModified_LoadsAfterChange() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/" + userId);
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"7fffffff-0000-0000-0000-000000000001-4\"");
+
+        Optional<String> body = userVersions.readIfModified(userId,
+                new ServletWebRequest(request, new MockHttpServletResponse())::checkNotModified, () -> "user");
+
+        assertThat(body).contains("user");
+    }
+
+    @Test
+    void readIfModified_LoadsWithoutEtagWhenSummaryIsMissing() {
+        when(userBalanceSummaries.version(userId)).thenReturn(Optional.empty());
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/" + userId);
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"7fffffff-0000-0000-0000-000000000001-0\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Supplier<String> loader = () -> {
+            throw new NotFoundException("Пользователь не найден");
+        };
+
+        assertThatThrownBy(() -> userVersions.readIfModified(userId,
+                new ServletWebRequest(request, response)::checkNotModified, loader))
+                .isInstanceOf(NotFoundException.class);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNull();
+    }
+
+    @Test
+    void changed_BumpsVersion() {
+        userVersions.changed(userId);
+
+        verify(userBalanceSummaries).touch(userId);
+    }
+
+    private static UserBalanceSummaryRepository.CardsVersion cardsVersion(BigDecimal unfolded) {
+        UserBalanceSummaryRepository.CardsVersion version = mock(UserBalanceSummaryRepository.CardsVersion.class);
+        when(version.getVersion()).thenReturn(5L);
+        when(version.getUnfolded()).thenReturn(unfolded);
+        return version;
+    }
+}